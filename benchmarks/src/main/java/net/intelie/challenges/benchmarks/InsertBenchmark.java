@@ -0,0 +1,81 @@
+package net.intelie.challenges.benchmarks;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingest throughput of {@link EventStore#insert}. Each thread produces its
+ * own increasing timestamps and spreads them over {@code types} types; the
+ * store is recreated each iteration so it does not grow without bound. Run
+ * with {@code -t N} to measure N concurrent producers. {@code insertAll}
+ * delivers the same feed in batches of {@code batch} events, so compare
+ * its score multiplied by the batch size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InsertBenchmark {
+
+    @Param({"EventStoreImpl"})
+    public String store;
+
+    @Param({"1", "100", "100000"})
+    public int types;
+
+    @Param({"1000"})
+    public int batch;
+
+    private EventStore eventStore;
+    private String[] typeNames;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        eventStore = Stores.create(store);
+        typeNames = Stores.typeNames(types);
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        long timestamp;
+        int type;
+    }
+
+    @Benchmark
+    public void insert(Producer producer) {
+        eventStore.insert(next(producer));
+    }
+
+    @Benchmark
+    public void insertAll(Producer producer) {
+        List<Event> events = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            events.add(next(producer));
+        }
+        eventStore.insertAll(events);
+    }
+
+    private Event next(Producer producer) {
+        String type = typeNames[producer.type];
+        producer.type = producer.type + 1 == typeNames.length ? 0 : producer.type + 1;
+        return new Event(type, producer.timestamp++);
+    }
+}
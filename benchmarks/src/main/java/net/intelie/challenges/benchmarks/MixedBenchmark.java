@@ -0,0 +1,123 @@
+package net.intelie.challenges.benchmarks;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Producers and consumers sharing one store, with read/write ratios of 1:3,
+ * 1:1 and 3:1. Consumers query the most recent {@code window} milliseconds
+ * of a random type, as dashboards and alerts do. With {@code lateness},
+ * producers send events up to that many milliseconds late, out of order.
+ * Scale the thread counts with {@code -tg}, e.g. {@code -tg 4,12}.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MixedBenchmark {
+
+    @Param({"EventStoreImpl"})
+    public String store;
+
+    @Param({"1", "100"})
+    public int types;
+
+    @Param({"1000"})
+    public long window;
+
+    @Param({"0", "2000"})
+    public long lateness;
+
+    private EventStore eventStore;
+    private String[] typeNames;
+    private final AtomicLong clock = new AtomicLong();
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        eventStore = Stores.create(store);
+        typeNames = Stores.typeNames(types);
+        clock.set(0);
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        final SplittableRandom random = new SplittableRandom();
+    }
+
+    private void write(Worker worker) {
+        long timestamp = clock.getAndIncrement();
+        if (lateness > 0) {
+            timestamp -= worker.random.nextLong(lateness + 1);
+        }
+        eventStore.insert(new Event(typeNames[worker.random.nextInt(typeNames.length)], timestamp));
+    }
+
+    private void read(Worker worker, Blackhole blackhole) throws Exception {
+        long now = clock.get();
+        String type = typeNames[worker.random.nextInt(typeNames.length)];
+        QueryBenchmark.consume(eventStore.query(type, now - window, now), blackhole);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(3)
+    public void writeHeavyInsert(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(1)
+    public void writeHeavyQuery(Worker worker, Blackhole blackhole) throws Exception {
+        read(worker, blackhole);
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public void balancedInsert(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Group("balanced")
+    @GroupThreads(2)
+    public void balancedQuery(Worker worker, Blackhole blackhole) throws Exception {
+        read(worker, blackhole);
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public void readHeavyInsert(Worker worker) {
+        write(worker);
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(3)
+    public void readHeavyQuery(Worker worker, Blackhole blackhole) throws Exception {
+        read(worker, blackhole);
+    }
+}
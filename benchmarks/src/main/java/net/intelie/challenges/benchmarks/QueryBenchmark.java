@@ -0,0 +1,105 @@
+package net.intelie.challenges.benchmarks;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventIterator;
+import net.intelie.challenges.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link EventStore#query} over a prefilled store. The window
+ * covers {@code selectivity} of the history of one random type, so small
+ * selectivities measure seeking and large ones measure iteration.
+ * {@code fullIteration} walks the whole history of a type, and
+ * {@code queryAll} merges the same window of every type. {@code parallelSum}
+ * aggregates the history of a type through a parallel stream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+
+    @Param({"EventStoreImpl"})
+    public String store;
+
+    @Param({"1", "100", "100000"})
+    public int types;
+
+    @Param({"2000000"})
+    public int events;
+
+    @Param({"0.0001", "0.01", "1"})
+    public double selectivity;
+
+    private EventStore eventStore;
+    private String[] typeNames;
+    private int eventsPerType;
+    private long window;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        eventStore = Stores.create(store);
+        typeNames = Stores.typeNames(types);
+        eventsPerType = Math.max(1, events / types);
+        window = Math.max(1, (long) (eventsPerType * selectivity));
+        Stores.fill(eventStore, typeNames, eventsPerType);
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        final SplittableRandom random = new SplittableRandom(42);
+    }
+
+    @Benchmark
+    public void query(Reader reader, Blackhole blackhole) throws Exception {
+        String type = typeNames[reader.random.nextInt(typeNames.length)];
+        long start = window >= eventsPerType ? 0 : reader.random.nextLong(eventsPerType - window);
+        consume(eventStore.query(type, start, start + window), blackhole);
+    }
+
+    @Benchmark
+    public void fullIteration(Reader reader, Blackhole blackhole) throws Exception {
+        String type = typeNames[reader.random.nextInt(typeNames.length)];
+        consume(eventStore.query(type, Long.MIN_VALUE, Long.MAX_VALUE), blackhole);
+    }
+
+    @Benchmark
+    public void queryAll(Reader reader, Blackhole blackhole) throws Exception {
+        long start = window >= eventsPerType ? 0 : reader.random.nextLong(eventsPerType - window);
+        consume(eventStore.queryAll(start, start + window), blackhole);
+    }
+
+    @Benchmark
+    public long parallelSum(Reader reader) {
+        String type = typeNames[reader.random.nextInt(typeNames.length)];
+        return eventStore.stream(type, Long.MIN_VALUE, Long.MAX_VALUE).parallel().mapToLong(Event::timestamp).sum();
+    }
+
+    static void consume(EventIterator iterator, Blackhole blackhole) throws Exception {
+        if (iterator == null) {
+            return;
+        }
+        try (EventIterator events = iterator) {
+            while (events.moveNext()) {
+                blackhole.consume(events.current());
+            }
+        }
+    }
+}
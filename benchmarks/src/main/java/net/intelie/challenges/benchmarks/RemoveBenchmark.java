@@ -0,0 +1,72 @@
+package net.intelie.challenges.benchmarks;
+
+import net.intelie.challenges.EventIterator;
+import net.intelie.challenges.EventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of deleting events: query-then-{@link EventIterator#remove} over the
+ * oldest half of a type (retention cleanup) and {@link EventStore#removeAll}.
+ * Each invocation needs a freshly filled store, so these run as single shot
+ * measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class RemoveBenchmark {
+
+    @Param({"EventStoreImpl"})
+    public String store;
+
+    @Param({"1", "100"})
+    public int types;
+
+    @Param({"1000000"})
+    public int events;
+
+    private EventStore eventStore;
+    private String[] typeNames;
+    private int eventsPerType;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        eventStore = Stores.create(store);
+        typeNames = Stores.typeNames(types);
+        eventsPerType = Math.max(1, events / types);
+        Stores.fill(eventStore, typeNames, eventsPerType);
+    }
+
+    @Benchmark
+    public EventStore iteratorRemove() throws Exception {
+        try (EventIterator iterator = eventStore.query(typeNames[0], 0, eventsPerType / 2)) {
+            while (iterator.moveNext()) {
+                iterator.remove();
+            }
+        }
+        return eventStore;
+    }
+
+    @Benchmark
+    public EventStore removeAll() {
+        for (String type : typeNames) {
+            eventStore.removeAll(type);
+        }
+        return eventStore;
+    }
+}
@@ -0,0 +1,69 @@
+package net.intelie.challenges.benchmarks;
+
+import net.intelie.challenges.Event;
+import net.intelie.challenges.EventIndex;
+import net.intelie.challenges.EventStore;
+import net.intelie.challenges.EventStoreImpl;
+import net.intelie.challenges.OffHeapEventStore;
+import net.intelie.challenges.ShardedEventStore;
+
+/**
+ * Factory of the {@link EventStore} implementations under benchmark, chosen
+ * by the {@code store} parameter, so implementations can be compared in the
+ * same run (e.g. {@code -p store=EventStoreImpl,OffHeapEventStore}).
+ * {@code EventStoreImpl+metrics} measures the cost of {@link EventStoreImpl}
+ * metrics against the plain one.
+ */
+final class Stores {
+
+    /**
+     * Off-heap memory cap, run with -XX:MaxDirectMemorySize above it
+     */
+    private static final long OFF_HEAP_CAP = 4L << 30;
+
+    private Stores() {
+    }
+
+    /**
+     * @param name simple class name of the implementation
+     * @return a new empty store
+     */
+    static EventStore create(String name) {
+        switch (name) {
+            case "EventStoreImpl":
+                return new EventStoreImpl();
+            case "EventStoreImpl+metrics":
+                return new EventStoreImpl(EventIndex.DEFAULT_SEGMENT_WIDTH, true);
+            case "ShardedEventStore":
+                return new ShardedEventStore(Runtime.getRuntime().availableProcessors());
+            case "OffHeapEventStore":
+                return new OffHeapEventStore(OFF_HEAP_CAP);
+            default:
+                throw new IllegalArgumentException("unknown store: " + name);
+        }
+    }
+
+    /**
+     * @param count
+     * @return names of count distinct types
+     */
+    static String[] typeNames(int count) {
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = "type" + i;
+        }
+        return names;
+    }
+
+    /**
+     * Method to insert events with timestamps 0 until eventsPerType - 1
+     * in every type, interleaving types as a live feed would
+     */
+    static void fill(EventStore store, String[] types, int eventsPerType) {
+        for (long timestamp = 0; timestamp < eventsPerType; timestamp++) {
+            for (String type : types) {
+                store.insert(new Event(type, timestamp));
+            }
+        }
+    }
+}
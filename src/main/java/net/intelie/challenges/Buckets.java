@@ -0,0 +1,49 @@
+package net.intelie.challenges;
+
+/**
+ * Arithmetic of histogram buckets, shared by the stores.
+ * <p>
+ * Bucket i covers timestamps from {@code startTime + i * bucketWidth}
+ * (inclusive) to {@code startTime + (i + 1) * bucketWidth} (exclusive); the
+ * last one is cut at the end of the window. Differences of timestamps are
+ * taken as unsigned, so windows spanning the whole long range do not
+ * overflow.
+ */
+final class Buckets {
+
+    private Buckets() {
+    }
+
+    /**
+     * @param startTime
+     * @param endTime
+     * @param bucketWidth
+     * @return amount of buckets of the window, 0 if it is empty
+     * @throws IllegalArgumentException if bucketWidth is not positive or
+     *                                  the window has too many buckets
+     */
+    static int count(long startTime, long endTime, long bucketWidth) {
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("bucketWidth must be positive");
+        };
+        if (startTime >= endTime) {
+            return 0;
+        };
+        long span = endTime - startTime;
+        long count = Long.divideUnsigned(span, bucketWidth) + (Long.remainderUnsigned(span, bucketWidth) == 0 ? 0 : 1);
+        if (count < 0 || count > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("too many buckets, use a wider bucketWidth");
+        };
+        return (int) count;
+    }
+
+    /**
+     * @param timestamp a timestamp inside the window
+     * @param startTime
+     * @param bucketWidth
+     * @return bucket of timestamp
+     */
+    static int index(long timestamp, long startTime, long bucketWidth) {
+        return (int) Long.divideUnsigned(timestamp - startTime, bucketWidth);
+    }
+}
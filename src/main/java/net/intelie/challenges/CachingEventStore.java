@@ -0,0 +1,1011 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Event store caching the reads of a decorated store, for dashboards that
+ * repeat the same windows.
+ * <p>
+ * Queries, counts and min/max timestamps are cached by type and aligned
+ * bucket: a window is split into the whole buckets of {@code bucketWidth}
+ * it covers, each cached on its own, and the edges before the first and
+ * after the last of them, always read from the delegate. So a window
+ * sliding forward keeps hitting the buckets it still covers, and only reads
+ * its edges and the new bucket. Windows covering no whole bucket, or too
+ * many of them, are cached by their exact bounds instead, as are
+ * histograms, whose buckets start at the window. A repeated read is then a
+ * few hash lookups, and a cached query just walks arrays.
+ * <p>
+ * When less than half of the buckets of a window are cached, they are not
+ * read one at a time: a single delegate read covers them all and fills
+ * each bucket on the way (a histogram for counts, the first or last
+ * timestamp for min and max, one query split at the bucket edges).
+ * <p>
+ * Entries live in a concurrent map, so hits take no lock. Each hit stamps
+ * its entry with the current tick of a clock that only moves on stores;
+ * when the weight of the entries (one, plus the events or buckets they
+ * keep) goes over the capacity, a single thread evicts the entries with
+ * the oldest stamps, down to {@code 15/16} of the capacity, so eviction
+ * is paid once every many stores. Queries are read lazily, one bucket at a
+ * time; a bucket with more events than an entry may keep is not cached,
+ * and the rest of it is streamed from the delegate.
+ * <p>
+ * Cached results never go stale: writes go to the delegate first, and then
+ * invalidate the entries of their type whose window holds a timestamp
+ * written. The entries of each type are also kept ordered by the end of
+ * their window, so an insert only looks at the windows ending after it, and
+ * inserts of recent events leave the windows over older history cached. A
+ * read registers its entry before reading the delegate, so a write running
+ * meanwhile either is seen by the read or invalidates the entry.
+ * <p>
+ * Removing through the iterator of a cached query removes from the delegate
+ * the same occurrence among the equal events of its timestamp. Writes made
+ * straight to the delegate are not seen.
+ */
+public class CachingEventStore implements EventStore {
+    /**
+     * Default weight of the entries kept
+     */
+    public static final long DEFAULT_CAPACITY = 1 << 20;
+    /**
+     * Default width of the buckets windows are aligned to
+     */
+    public static final long DEFAULT_BUCKET_WIDTH = 10000;
+    /**
+     * Most weight of a single entry, so one dense bucket does not flush the
+     * cache
+     */
+    static final long MAX_ENTRY_WEIGHT = 1 << 14;
+    /**
+     * Most buckets a window is split into, wider windows are cached whole
+     */
+    static final long MAX_BUCKETS = 4096;
+
+    private static final Event[] NO_EVENTS = new Event[0];
+    private static final byte QUERY = 0;
+    private static final byte COUNT = 1;
+    private static final byte HISTOGRAM = 2;
+    private static final byte MIN = 3;
+    private static final byte MAX = 4;
+    private static final Comparator<Entry> BY_END = Comparator.<Entry>comparingLong(entry -> entry.key.endTime)
+            .thenComparingLong(entry -> entry.id);
+
+    private final EventStore delegate;
+    private final long capacity;
+    private final long bucketWidth;
+    private final long maxWeight;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    // entries cached or being read, by type and end of their window
+    private final ConcurrentHashMap<String, ConcurrentSkipListSet<Entry>> windows = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    // ticks on each store, entries are stamped with it when used
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicBoolean evicting = new AtomicBoolean();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * @param delegate store holding the events
+     */
+    public CachingEventStore(EventStore delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param delegate store holding the events
+     * @param capacity weight of the entries kept, an entry weighing one plus
+     *                 the events or buckets of its result
+     */
+    public CachingEventStore(EventStore delegate, long capacity) {
+        this(delegate, capacity, DEFAULT_BUCKET_WIDTH);
+    }
+
+    /**
+     * @param delegate    store holding the events
+     * @param capacity    weight of the entries kept, an entry weighing one
+     *                    plus the events or buckets of its result
+     * @param bucketWidth width of the buckets windows are aligned to
+     */
+    public CachingEventStore(EventStore delegate, long capacity, long bucketWidth) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        };
+        if (bucketWidth <= 0) {
+            throw new IllegalArgumentException("bucketWidth must be positive");
+        };
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.bucketWidth = bucketWidth;
+        this.maxWeight = Math.min(capacity, MAX_ENTRY_WEIGHT);
+    }
+
+    @Override
+    public void insert(Event event) {
+        delegate.insert(event);
+        invalidate(event.type(), event.timestamp(), event.timestamp());
+    }
+
+    /**
+     * Stores a batch of events, invalidating once the windows overlapping
+     * the timestamps of each type in the batch.
+     *
+     * @param events
+     */
+    @Override
+    public void insertAll(Collection<Event> events) {
+        delegate.insertAll(events);
+        Map<String, long[]> ranges = new HashMap<>();
+        for (Event event : events) {
+            if (event == null) {
+                continue;
+            };
+            long[] range = ranges.computeIfAbsent(event.type(), type -> new long[]{Long.MAX_VALUE, Long.MIN_VALUE});
+            range[0] = Math.min(range[0], event.timestamp());
+            range[1] = Math.max(range[1], event.timestamp());
+        };
+        for (Map.Entry<String, long[]> range : ranges.entrySet()) {
+            invalidate(range.getKey(), range.getValue()[0], range.getValue()[1]);
+        };
+    }
+
+    @Override
+    public void removeAll(String type) {
+        delegate.removeAll(type);
+        invalidate(type, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public void removeBefore(String type, long timestamp) {
+        delegate.removeBefore(type, timestamp);
+        if (timestamp > Long.MIN_VALUE) {
+            invalidate(type, Long.MIN_VALUE, timestamp - 1);
+        };
+    }
+
+    @Override
+    public void removeBefore(long timestamp) {
+        delegate.removeBefore(timestamp);
+        if (timestamp > Long.MIN_VALUE) {
+            for (String type : windows.keySet()) {
+                invalidate(type, Long.MIN_VALUE, timestamp - 1);
+            };
+        };
+    }
+
+    /**
+     * Compacts the delegate. The events stay the same, so cached results
+     * are kept.
+     *
+     * @param timestamp First timestamp kept as is.
+     */
+    @Override
+    public void compact(long timestamp) {
+        delegate.compact(timestamp);
+    }
+
+    /**
+     * Retrieves an iterator for events based on their type and timestamp,
+     * from the cache for the buckets of the window read before.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator where all its events have same type as
+     * {@param type} and timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive), null if the
+     * delegate has no such type.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime) {
+        if (endTime <= startTime) {
+            return delegate.query(type, startTime, endTime);
+        };
+        long[] buckets = align(startTime, endTime);
+        CachedIterator iterator = buckets == null
+                ? new CachedIterator(type, startTime, endTime, startTime, endTime, true)
+                : new CachedIterator(type, startTime, endTime, buckets[0], buckets[1], false);
+        // if the delegate does not have the type, then neither does the cache
+        return iterator.open() ? iterator : null;
+    }
+
+    @Override
+    public Subscription subscribe(String type, long fromTimestamp, EventListener listener) {
+        return delegate.subscribe(type, fromTimestamp, listener);
+    }
+
+    @Override
+    public Collection<String> types() {
+        return delegate.types();
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime) {
+        long[] buckets = align(startTime, endTime);
+        if (buckets == null) {
+            return aggregate(new Key(COUNT, type, startTime, endTime, 0), 1,
+                    () -> delegate.count(type, startTime, endTime));
+        };
+        long count = startTime < buckets[0] ? delegate.count(type, startTime, buckets[0]) : 0;
+        if (!mostlyCached(COUNT, type, buckets[0], buckets[1])) {
+            count += counts(type, buckets[0], buckets[1]);
+        } else {
+            for (long bucket = buckets[0]; bucket < buckets[1]; bucket += bucketWidth) {
+                long from = bucket;
+                count += this.<Long>aggregate(new Key(COUNT, type, from, from + bucketWidth, 0), 1,
+                        () -> delegate.count(type, from, from + bucketWidth));
+            };
+        };
+        return count + (buckets[1] < endTime ? delegate.count(type, buckets[1], endTime) : 0);
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+        long[] histogram = aggregate(new Key(HISTOGRAM, type, startTime, endTime, bucketWidth),
+                1 + Buckets.count(startTime, endTime, bucketWidth),
+                () -> delegate.histogram(type, startTime, endTime, bucketWidth));
+        // the cached one is shared, so each caller gets its own copy
+        return histogram.clone();
+    }
+
+    @Override
+    public OptionalLong minTimestamp(String type, long startTime, long endTime) {
+        long[] buckets = align(startTime, endTime);
+        if (buckets == null) {
+            return aggregate(new Key(MIN, type, startTime, endTime, 0), 1,
+                    () -> delegate.minTimestamp(type, startTime, endTime));
+        };
+        // the first edge, bucket or edge holding an event has the minimum
+        OptionalLong min = startTime < buckets[0] ? delegate.minTimestamp(type, startTime, buckets[0]) : OptionalLong.empty();
+        if (!min.isPresent() && !mostlyCached(MIN, type, buckets[0], buckets[1])) {
+            min = extreme(MIN, type, buckets[0], buckets[1]);
+        } else {
+            for (long bucket = buckets[0]; bucket < buckets[1] && !min.isPresent(); bucket += bucketWidth) {
+                long from = bucket;
+                min = aggregate(new Key(MIN, type, from, from + bucketWidth, 0), 1,
+                        () -> delegate.minTimestamp(type, from, from + bucketWidth));
+            };
+        };
+        return min.isPresent() || buckets[1] == endTime ? min : delegate.minTimestamp(type, buckets[1], endTime);
+    }
+
+    @Override
+    public OptionalLong maxTimestamp(String type, long startTime, long endTime) {
+        long[] buckets = align(startTime, endTime);
+        if (buckets == null) {
+            return aggregate(new Key(MAX, type, startTime, endTime, 0), 1,
+                    () -> delegate.maxTimestamp(type, startTime, endTime));
+        };
+        // the last edge, bucket or edge holding an event has the maximum
+        OptionalLong max = buckets[1] < endTime ? delegate.maxTimestamp(type, buckets[1], endTime) : OptionalLong.empty();
+        if (!max.isPresent() && !mostlyCached(MAX, type, buckets[0], buckets[1])) {
+            max = extreme(MAX, type, buckets[0], buckets[1]);
+        } else {
+            for (long bucket = buckets[1] - bucketWidth; bucket >= buckets[0] && !max.isPresent(); bucket -= bucketWidth) {
+                long from = bucket;
+                max = aggregate(new Key(MAX, type, from, from + bucketWidth, 0), 1,
+                        () -> delegate.maxTimestamp(type, from, from + bucketWidth));
+            };
+        };
+        return max.isPresent() || startTime == buckets[0] ? max : delegate.maxTimestamp(type, startTime, buckets[0]);
+    }
+
+    /**
+     * @return amount of windows and buckets answered by the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return amount of windows and buckets read from the delegate
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return share of windows and buckets answered by the cache, 0 before
+     * any read
+     */
+    public double hitRate() {
+        long hits = hits();
+        long total = hits + misses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return amount of entries evicted to keep within the capacity
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return amount of entries dropped by writes
+     */
+    public long invalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return amount of entries cached
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return weight of the entries cached
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    /**
+     * Method to align a window to the buckets
+     * @param startTime
+     * @param endTime
+     * @return the start of the first whole bucket of the window and the end
+     * of the last one, null if it covers none or more than
+     * {@link #MAX_BUCKETS}
+     */
+    private long[] align(long startTime, long endTime) {
+        long offset = Math.floorMod(startTime, bucketWidth);
+        long endOffset = Math.floorMod(endTime, bucketWidth);
+        // buckets at the edges of the long range are not cached
+        if ((offset != 0 && startTime > Long.MAX_VALUE - (bucketWidth - offset))
+                || endTime < Long.MIN_VALUE + endOffset) {
+            return null;
+        };
+        long first = offset == 0 ? startTime : startTime + (bucketWidth - offset);
+        long last = endTime - endOffset;
+        // if the difference overflows, then there are too many buckets anyway
+        if (first >= last || last - first < 0 || (last - first) / bucketWidth > MAX_BUCKETS) {
+            return null;
+        };
+        return new long[]{first, last};
+    }
+
+    /**
+     * Method to read an aggregate from the cache, or from the delegate
+     * caching it
+     * @param key
+     * @param weight of the value
+     * @param read   reads the value from the delegate
+     * @return the value, shared with the cache
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T aggregate(Key key, long weight, Supplier<T> read) {
+        Object cached = cached(key);
+        if (cached != null) {
+            return (T) cached;
+        };
+        Entry entry = register(key);
+        boolean stored = false;
+        try {
+            T value = read.get();
+            stored = store(entry, value, weight);
+            return value;
+        } finally {
+            if (!stored) {
+                unregister(entry);
+            };
+        }
+    }
+
+    /**
+     * @param key
+     * @return the cached value of key, null if there is none
+     */
+    private Object cached(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && !entry.invalid) {
+            // written only when it changes, so hot entries are not written on every hit
+            long now = clock.get();
+            if (entry.used != now) {
+                entry.used = now;
+            };
+            hits.increment();
+            return entry.value;
+        };
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Method to check if most buckets of a window are cached, so reading
+     * the rest one at a time is worth it
+     * @param kind
+     * @param type
+     * @param first start of the first bucket
+     * @param last  end of the last bucket
+     * @return true if at least half of the buckets are cached
+     */
+    private boolean mostlyCached(byte kind, String type, long first, long last) {
+        long total = (last - first) / bucketWidth;
+        long cached = 0;
+        long checked = 0;
+        for (long bucket = first; bucket < last; bucket += bucketWidth) {
+            Entry entry = entries.get(new Key(kind, type, bucket, bucket + bucketWidth, 0));
+            if (entry != null && !entry.invalid) {
+                cached++;
+            };
+            checked++;
+            // stops as soon as the answer is known either way
+            if (2 * cached >= total) {
+                return true;
+            };
+            if (2 * (checked - cached) > total) {
+                return false;
+            };
+        };
+        return false;
+    }
+
+    /**
+     * Method to count the buckets of a window with a single histogram of
+     * the delegate, caching the count of each one
+     * @param type
+     * @param first start of the first bucket
+     * @param last  end of the last bucket
+     * @return amount of events of the buckets
+     */
+    private long counts(String type, long first, long last) {
+        Entry[] registered = register(COUNT, type, first, last);
+        try {
+            long[] counts = delegate.histogram(type, first, last, bucketWidth);
+            long count = 0;
+            for (int i = 0; i < registered.length; i++) {
+                count += counts[i];
+                misses.increment();
+                if (store(registered[i], counts[i], 1)) {
+                    registered[i] = null;
+                };
+            };
+            return count;
+        } finally {
+            unregister(registered);
+        }
+    }
+
+    /**
+     * Method to get the first or last timestamp of the buckets of a window
+     * with a single read of the delegate. The bucket holding it is cached,
+     * and so are the empty ones before it (after it, for the last)
+     * @param kind  {@link #MIN} or {@link #MAX}
+     * @param type
+     * @param first start of the first bucket
+     * @param last  end of the last bucket
+     * @return the timestamp, empty if the buckets have no events
+     */
+    private OptionalLong extreme(byte kind, String type, long first, long last) {
+        Entry[] registered = register(kind, type, first, last);
+        try {
+            OptionalLong value = kind == MIN ? delegate.minTimestamp(type, first, last)
+                    : delegate.maxTimestamp(type, first, last);
+            int at = value.isPresent() ? (int) ((value.getAsLong() - first) / bucketWidth)
+                    : kind == MIN ? registered.length : -1;
+            for (int i = 0; i < registered.length; i++) {
+                if (kind == MIN ? i <= at : i >= at) {
+                    misses.increment();
+                    if (store(registered[i], i == at ? value : OptionalLong.empty(), 1)) {
+                        registered[i] = null;
+                    };
+                };
+            };
+            return value;
+        } finally {
+            unregister(registered);
+        }
+    }
+
+    /**
+     * Method to register an entry for each bucket of a window
+     * @param kind
+     * @param type
+     * @param first start of the first bucket
+     * @param last  end of the last bucket
+     * @return the entries, to be stored or unregistered
+     */
+    private Entry[] register(byte kind, String type, long first, long last) {
+        Entry[] registered = new Entry[(int) ((last - first) / bucketWidth)];
+        for (int i = 0; i < registered.length; i++) {
+            long bucket = first + i * bucketWidth;
+            registered[i] = register(new Key(kind, type, bucket, bucket + bucketWidth, 0));
+        };
+        return registered;
+    }
+
+    /**
+     * Method to register an entry before reading the delegate, so writes
+     * from now on invalidate it
+     * @param key
+     * @return the entry, to be stored or unregistered
+     */
+    private Entry register(Key key) {
+        Entry entry = new Entry(key, ids.incrementAndGet());
+        windows.computeIfAbsent(key.type, type -> new ConcurrentSkipListSet<>(BY_END)).add(entry);
+        return entry;
+    }
+
+    private void unregister(Entry entry) {
+        ConcurrentSkipListSet<Entry> registered = windows.get(entry.key.type);
+        if (registered != null) {
+            registered.remove(entry);
+        };
+    }
+
+    /**
+     * Method to unregister the entries not stored
+     * @param entries null where stored
+     */
+    private void unregister(Entry[] entries) {
+        for (Entry entry : entries) {
+            if (entry != null) {
+                unregister(entry);
+            };
+        };
+    }
+
+    /**
+     * Method to cache the value of a registered entry, evicting the least
+     * recently used ones over the capacity
+     * @param entry
+     * @param value
+     * @param weight
+     * @return true if it was cached, false if it was invalidated meanwhile
+     * or is heavier than the capacity
+     */
+    private boolean store(Entry entry, Object value, long weight) {
+        if (weight > maxWeight) {
+            return false;
+        };
+        entry.value = value;
+        entry.weight = weight;
+        entry.used = clock.getAndIncrement();
+        this.weight.addAndGet(weight);
+        Entry previous = entries.put(entry.key, entry);
+        if (previous != null) {
+            this.weight.addAndGet(-previous.weight);
+            unregister(previous);
+        };
+        // checked once visible, so an invalidation either sees it cached or comes before
+        if (entry.invalid) {
+            if (entries.remove(entry.key, entry)) {
+                this.weight.addAndGet(-weight);
+            };
+            return false;
+        };
+        if (this.weight.get() > capacity) {
+            evict();
+        };
+        return true;
+    }
+
+    /**
+     * Method to evict the entries with the oldest stamps, down to 15/16 of
+     * the capacity. If another thread is already evicting, then stores go
+     * on, and a later one evicts again if still needed
+     */
+    private void evict() {
+        if (!evicting.compareAndSet(false, true)) {
+            return;
+        };
+        try {
+            List<Entry> eldest = new ArrayList<>(entries.values());
+            eldest.sort(Comparator.comparingLong(entry -> entry.used));
+            long target = capacity - capacity / 16;
+            for (int i = 0; i < eldest.size() && weight.get() > target; i++) {
+                Entry evicted = eldest.get(i);
+                if (entries.remove(evicted.key, evicted)) {
+                    weight.addAndGet(-evicted.weight);
+                    unregister(evicted);
+                    evictions.increment();
+                };
+            };
+        } finally {
+            evicting.set(false);
+        }
+    }
+
+    /**
+     * Method to drop the entries of a type whose window holds some
+     * timestamp between from and to (both inclusive)
+     * @param type
+     * @param from
+     * @param to
+     */
+    private void invalidate(String type, long from, long to) {
+        ConcurrentSkipListSet<Entry> registered = windows.get(type);
+        if (registered == null) {
+            return;
+        };
+        // entries whose window ends after from, by ascending end
+        Entry probe = new Entry(new Key(QUERY, type, 0, from, 0), Long.MAX_VALUE);
+        for (Entry entry : registered.tailSet(probe, false)) {
+            if (entry.key.startTime > to) {
+                continue;
+            };
+            entry.invalid = true;
+            registered.remove(entry);
+            if (entries.remove(entry.key, entry)) {
+                weight.addAndGet(-entry.weight);
+                invalidations.increment();
+            };
+        };
+    }
+
+    /**
+     * Read and the window it was read for
+     */
+    private static final class Key {
+        final byte kind;
+        final String type;
+        final long startTime;
+        final long endTime;
+        final long bucketWidth;
+
+        Key(byte kind, String type, long startTime, long endTime, long bucketWidth) {
+            this.kind = kind;
+            this.type = type;
+            this.startTime = startTime;
+            this.endTime = endTime;
+            this.bucketWidth = bucketWidth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            };
+            if (!(o instanceof Key)) {
+                return false;
+            };
+            Key key = (Key) o;
+            return kind == key.kind && startTime == key.startTime && endTime == key.endTime
+                    && bucketWidth == key.bucketWidth && Objects.equals(type, key.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, type, startTime, endTime, bucketWidth);
+        }
+    }
+
+    /**
+     * Cached result of a read, registered while it is being read
+     */
+    private static final class Entry {
+        final Key key;
+        final long id;
+        volatile Object value;
+        volatile long weight;
+        volatile boolean invalid = false;
+        // tick of the clock when last stored or hit
+        volatile long used = 0;
+
+        Entry(Key key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Iterator over the events of a query, walking its parts in order: the
+     * edge before the first bucket, each bucket and the edge after the last
+     * one. Buckets (or the whole window, when it is not split) are read from
+     * the cache, or from the delegate caching them as they are reached; the
+     * edges, and the rest of a bucket too big to cache, are streamed from
+     * the delegate.
+     * <p>
+     * If less than half of the buckets are cached, then a single delegate
+     * query over all of them is split at the bucket edges instead. A span
+     * entry over the buckets is registered before it, so a write landing in
+     * a bucket not registered yet keeps it from being cached
+     */
+    private final class CachedIterator implements EventIterator {
+        private final String type;
+        private final long endTime;
+        private final long firstBucket;
+        private final long lastBucket;
+        // if true, the buckets are the whole window
+        private final boolean whole;
+        // start of the next part
+        private long from;
+        // cached events of the current part, null if there are none
+        private Event[] events = null;
+        private int position = -1;
+        // positions of events removed through this iterator
+        private final BitSet removed = new BitSet();
+        // delegate iterator of the current part, after its events
+        private EventIterator live = null;
+        // end of the part live reads, past which it belongs to the next one
+        private long liveEnd = Long.MAX_VALUE;
+        // if true, live (or window, between buckets) already stands on its next event
+        private boolean standing = false;
+        private boolean onLive = false;
+        // delegate iterator over all buckets, when they are read at once
+        private EventIterator window = null;
+        private Entry span = null;
+        private boolean windowed = false;
+
+        /**
+         * @param type
+         * @param startTime
+         * @param endTime
+         * @param firstBucket start of the first bucket
+         * @param lastBucket  end of the last bucket
+         * @param whole       true if the window is cached as a single bucket
+         */
+        CachedIterator(String type, long startTime, long endTime, long firstBucket, long lastBucket, boolean whole) {
+            this.type = type;
+            this.endTime = endTime;
+            this.firstBucket = firstBucket;
+            this.lastBucket = lastBucket;
+            this.whole = whole;
+            this.from = startTime;
+        }
+
+        /**
+         * Method to read the first part
+         * @return false if the delegate does not have the type
+         */
+        boolean open() {
+            return next(true);
+        }
+
+        @Override
+        public boolean moveNext() {
+            onLive = false;
+            while (true) {
+                if (events != null) {
+                    if (position < events.length) {
+                        position++;
+                    };
+                    if (position < events.length) {
+                        return true;
+                    };
+                };
+                if (live != null) {
+                    if (standing || live.moveNext()) {
+                        if (live.current().timestamp() < liveEnd) {
+                            standing = false;
+                            onLive = true;
+                            return true;
+                        };
+                        // the window stands on the first event of the next bucket
+                        standing = true;
+                    };
+                    closeLive();
+                };
+                if (from >= endTime) {
+                    closeWindow();
+                    return false;
+                };
+                next(false);
+            }
+        }
+
+        @Override
+        public Event current() {
+            if (onLive) {
+                return live.current();
+            };
+            if (events == null || position < 0 || position >= events.length || removed.get(position)) {
+                throw new IllegalStateException();
+            };
+            return events[position];
+        }
+
+        /**
+         * Removes the current event from the delegate. For a cached event,
+         * it is the same occurrence among the equal events of its
+         * timestamp, counting those already removed through this iterator.
+         *
+         * @throws IllegalStateException if {@link #moveNext} was never called
+         *                               or its last result was {@code false}.
+         */
+        @Override
+        public void remove() {
+            tryRemove();
+        }
+
+        @Override
+        public boolean tryRemove() {
+            Event event = current();
+            boolean found = false;
+            if (onLive) {
+                found = live.tryRemove();
+            } else {
+                int occurrence = 0;
+                for (int i = position - 1; i >= 0 && events[i].timestamp() == event.timestamp(); i--) {
+                    if (!removed.get(i) && events[i].equals(event)) {
+                        occurrence++;
+                    };
+                };
+                EventIterator iterator = delegate.query(type, event.timestamp(), event.timestamp() + 1);
+                while (!found && iterator != null && iterator.moveNext()) {
+                    if (iterator.current().equals(event) && occurrence-- == 0) {
+                        found = iterator.tryRemove();
+                    };
+                };
+                removed.set(position);
+            };
+            invalidate(type, event.timestamp(), event.timestamp());
+            return found;
+        }
+
+        @Override
+        public void close() throws Exception {
+            events = null;
+            from = endTime;
+            if (live != null && live != window) {
+                live.close();
+            };
+            live = null;
+            closeWindow();
+        }
+
+        /**
+         * Method to make the next part of the window the current one
+         * @param first true for the first part, which must tell a missing
+         *              type apart
+         * @return false if the delegate does not have the type
+         */
+        private boolean next(boolean first) {
+            events = null;
+            position = -1;
+            removed.clear();
+            long to;
+            if (from < firstBucket) {
+                // edge before the buckets
+                to = firstBucket;
+            } else if (from < lastBucket) {
+                to = whole ? lastBucket : from + bucketWidth;
+                if (!whole && from == firstBucket && !mostlyCached(QUERY, type, firstBucket, lastBucket)) {
+                    windowed = true;
+                    span = register(new Key(QUERY, type, firstBucket, lastBucket, 0));
+                    window = delegate.query(type, firstBucket, lastBucket);
+                };
+                boolean found = windowed ? split(from, to) : bucket(from, to);
+                from = to;
+                return found || !first;
+            } else {
+                // edge after the buckets
+                to = endTime;
+                closeWindow();
+            };
+            live = delegate.query(type, from, to);
+            liveEnd = to;
+            from = to;
+            return live != null || !first;
+        }
+
+        /**
+         * Method to read a bucket from the cache, or from the delegate
+         * caching it if it is small enough
+         * @return false if the delegate does not have the type
+         */
+        private boolean bucket(long start, long end) {
+            Key key = new Key(QUERY, type, start, end, 0);
+            Object cached = cached(key);
+            if (cached != null) {
+                events = (Event[]) cached;
+                return true;
+            };
+            Entry entry = register(key);
+            boolean stored = false;
+            try {
+                EventIterator iterator = delegate.query(type, start, end);
+                if (iterator == null) {
+                    // not cached, an insert of any timestamp creates the type
+                    return false;
+                };
+                List<Event> read = new ArrayList<>();
+                while (iterator.moveNext()) {
+                    // if it is too big to cache, then go on with the delegate
+                    if (read.size() >= maxWeight - 1) {
+                        events = read.toArray(NO_EVENTS);
+                        live = iterator;
+                        liveEnd = end;
+                        standing = true;
+                        return true;
+                    };
+                    read.add(iterator.current());
+                };
+                events = read.toArray(NO_EVENTS);
+                stored = store(entry, events, 1 + events.length);
+                return true;
+            } finally {
+                if (!stored) {
+                    unregister(entry);
+                };
+            }
+        }
+
+        /**
+         * Method to read a bucket from the window over all buckets, caching
+         * it if it is small enough and no write came before it was
+         * registered
+         * @return false if the delegate does not have the type
+         */
+        private boolean split(long start, long end) {
+            if (window == null) {
+                closeWindow();
+                return false;
+            };
+            Entry entry = register(new Key(QUERY, type, start, end, 0));
+            boolean stored = false;
+            try {
+                misses.increment();
+                List<Event> read = new ArrayList<>();
+                while (standing || window.moveNext()) {
+                    standing = true;
+                    if (window.current().timestamp() >= end) {
+                        break;
+                    };
+                    // if it is too big to cache, then go on with the window up to its end
+                    if (read.size() >= maxWeight - 1) {
+                        events = read.toArray(NO_EVENTS);
+                        live = window;
+                        liveEnd = end;
+                        return true;
+                    };
+                    read.add(window.current());
+                    standing = false;
+                };
+                events = read.toArray(NO_EVENTS);
+                stored = !span.invalid && store(entry, events, 1 + events.length);
+                return true;
+            } finally {
+                if (!stored) {
+                    unregister(entry);
+                };
+            }
+        }
+
+        private void closeLive() {
+            // the window is closed once all buckets were read
+            if (live != window) {
+                close(live);
+            };
+            live = null;
+        }
+
+        private void closeWindow() {
+            if (span != null) {
+                unregister(span);
+                span = null;
+            };
+            if (window != null) {
+                close(window);
+                window = null;
+            };
+        }
+
+        private void close(EventIterator iterator) {
+            try {
+                iterator.close();
+            } catch (Exception e) {
+                // nothing is held by a part already read
+            };
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Insert of a batch in chunks, see {@link EventStore#insertAsync}.
+ * <p>
+ * Each chunk of at most {@link #CHUNK} events is stored with a single
+ * {@link EventStore#insertAll}, and the next one is submitted to the
+ * executor again, so a big batch never holds a thread for long. Cancelling
+ * the future stops before the next chunk; the chunks stored until then are
+ * kept.
+ */
+final class ChunkedInsert implements Runnable {
+    /**
+     * Most events stored before yielding the thread
+     */
+    static final int CHUNK = 4096;
+
+    private final EventStore store;
+    private final List<Event> events;
+    private final Executor executor;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private int from = 0;
+
+    /**
+     * @param store
+     * @param events   batch of events, copied
+     * @param executor runs the chunks
+     */
+    ChunkedInsert(EventStore store, Collection<Event> events, Executor executor) {
+        this.store = store;
+        this.events = new ArrayList<>(events);
+        this.executor = executor;
+    }
+
+    /**
+     * Method to submit the first chunk
+     * @return future completed once every chunk is stored
+     */
+    CompletableFuture<Void> start() {
+        submit();
+        return future;
+    }
+
+    @Override
+    public void run() {
+        // if it was cancelled, then the chunks left are not stored
+        if (future.isDone()) {
+            return;
+        };
+        int to = Math.min(from + CHUNK, events.size());
+        try {
+            store.insertAll(events.subList(from, to));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return;
+        };
+        from = to;
+        if (from == events.size()) {
+            future.complete(null);
+        } else {
+            submit();
+        };
+    }
+
+    private void submit() {
+        try {
+            executor.execute(this);
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        };
+    }
+}
@@ -0,0 +1,44 @@
+package net.intelie.challenges;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Background compaction of cold events, the counterpart of
+ * {@link RetentionPolicy} for events that are kept but rarely touched.
+ * <p>
+ * Every {@code period} it compacts in all types the events older than
+ * {@code minAge}, through {@link EventStore#compact(long)}. With
+ * {@link EventStoreImpl} that seals whole segments, keeping compressed
+ * timestamps instead of event objects.
+ */
+public class CompactionPolicy extends ScheduledPolicy {
+
+    /**
+     * Method to start compacting events of store, using the system clock
+     * @param store
+     * @param minAge age of events compacted, in milliseconds
+     * @param period time between runs, in milliseconds
+     */
+    public CompactionPolicy(EventStore store, long minAge, long period) {
+        this(store, minAge, period, System::currentTimeMillis);
+    }
+
+    /**
+     * @param store
+     * @param minAge age of events compacted, in the unit of the clock
+     * @param period time between runs, in milliseconds. If not positive,
+     *               nothing is scheduled and {@link #compact()} must be
+     *               called
+     * @param clock  current time, in the same unit of event timestamps
+     */
+    CompactionPolicy(EventStore store, long minAge, long period, LongSupplier clock) {
+        super("event-store-compaction", requireAge(minAge, "minAge"), period, clock, store::compact);
+    }
+
+    /**
+     * Method to compact now the events older than minAge
+     */
+    public void compact() {
+        run();
+    }
+}
@@ -1,15 +1,32 @@
 package net.intelie.challenges;
 
+import java.util.Objects;
+
 /**
- * This is just an event stub, feel free to expand it if needed.
+ * An event of a type at a timestamp, with an optional {@link Payload}.
+ * <p>
+ * The payload stays in its compact encoding inside the event, and is only
+ * decoded when its attributes are read, so scans that just look at
+ * timestamps never touch it.
  */
 public class Event {
     private final String type;
     private final long timestamp;
+    private final Payload payload;
 
     public Event(String type, long timestamp) {
+        this(type, timestamp, Payload.EMPTY);
+    }
+
+    /**
+     * @param type
+     * @param timestamp
+     * @param payload null is the same as {@link Payload#EMPTY}
+     */
+    public Event(String type, long timestamp, Payload payload) {
         this.type = type;
         this.timestamp = timestamp;
+        this.payload = payload == null ? Payload.EMPTY : payload;
     }
 
     public String type() {
@@ -19,4 +36,41 @@ public class Event {
     public long timestamp() {
         return timestamp;
     }
+
+    /**
+     * @return the payload, never null
+     */
+    public Payload payload() {
+        return payload;
+    }
+
+    /**
+     * Events are values: stores that rebuild events on read (like
+     * {@link OffHeapEventStore}) return equal, not identical, events
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        };
+        if (!(other instanceof Event)) {
+            return false;
+        };
+        Event event = (Event) other;
+        return timestamp == event.timestamp && Objects.equals(type, event.type)
+                && payload.equals(event.payload);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Objects.hashCode(type) + Long.hashCode(timestamp)) + payload.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (payload.isEmpty()) {
+            return "Event(" + type + ", " + timestamp + ")";
+        };
+        return "Event(" + type + ", " + timestamp + ", " + payload + ")";
+    }
 }
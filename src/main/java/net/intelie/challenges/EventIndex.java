@@ -0,0 +1,717 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Time-ordered index with all the events of a single type.
+ * <p>
+ * Events are split in {@link Segment}s, each one holding a fixed time bucket
+ * of {@code segmentWidth} milliseconds in primitive long[] chunks. Segments
+ * are kept in a {@link ConcurrentSkipListMap} keyed by the bucket start, so a
+ * range query seeks the segment of its start timestamp in O(log s), binary
+ * searches inside it and then walks forward until its end timestamp, costing
+ * O(log n + k) where k is the amount of events inside the range.
+ * <p>
+ * Insertions are lock-free. The segment of the last insertion is cached, so
+ * the usual in-order insertion appends to it without touching the skip list
+ * and allocates nothing; only the first event of a bucket creates a skip
+ * list entry.
+ * <p>
+ * {@link #seal} replaces cold segments by {@link SealedSegment}s, which keep
+ * compressed timestamps instead of events. A late insert into a sealed
+ * bucket thaws it back first.
+ * <p>
+ * Inserts and removals are stamped with an epoch of {@link Versions}, so
+ * snapshots read the index as it was when they were open. Segments dropped
+ * while a snapshot is open are kept aside until no snapshot needs them.
+ * <p>
+ * Given a {@link MemoryBudget}, the index accounts the bytes of each segment
+ * as events come, and {@link #evictOldest()} drops its oldest segment.
+ */
+public class EventIndex {
+    /**
+     * Default bucket width of segments, in milliseconds
+     */
+    public static final long DEFAULT_SEGMENT_WIDTH = 1000L;
+
+    /**
+     * Shallow size of an {@link Event} with compressed references, not
+     * counting its payload
+     */
+    private static final long EVENT_BYTES = 32;
+
+    /**
+     * Bytes of a slot in the chunks of a hot segment: timestamp, version and
+     * its position in the view
+     */
+    private static final long SLOT_BYTES = 2 * Long.BYTES + Integer.BYTES;
+
+    /**
+     * Fixed bytes of a segment: the segment, its skip list node and first
+     * chunk headers
+     */
+    private static final long SEGMENT_BYTES = 128;
+
+    private static final ConcurrentNavigableMap<Long, Segment> EMPTY = new ConcurrentSkipListMap<>();
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+    private static final Retired[] NO_RETIRED = new Retired[0];
+
+    private final long segmentWidth;
+    private final Versions versions;
+    private final MemoryBudget budget;
+    // bytes accounted to the budget, sum of the charged of its segments
+    private final LongAdder bytes = new LongAdder();
+    private volatile boolean released = false;
+    private volatile long lastQueried = 0;
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private volatile Segment latest;
+    private volatile Subscription[] subscriptions = NO_SUBSCRIPTIONS;
+    // segments dropped while a snapshot was open, copied on write
+    private volatile Retired[] retired = NO_RETIRED;
+
+    public EventIndex() {
+        this(DEFAULT_SEGMENT_WIDTH);
+    }
+
+    /**
+     * @param segmentWidth time width of each segment bucket
+     */
+    public EventIndex(long segmentWidth) {
+        this(segmentWidth, new Versions(), null);
+    }
+
+    /**
+     * @param segmentWidth time width of each segment bucket
+     * @param versions     epochs shared by the indexes of a store
+     * @param budget       memory budget of the store, null if unbounded
+     */
+    EventIndex(long segmentWidth, Versions versions, MemoryBudget budget) {
+        if (segmentWidth <= 0) {
+            throw new IllegalArgumentException("segmentWidth must be positive");
+        };
+        this.segmentWidth = segmentWidth;
+        this.versions = versions;
+        this.budget = budget;
+    }
+
+    /**
+     * Method to insert an event in the segment of its timestamp
+     * @param event
+     */
+    public void insert(Event event) {
+        if (event == null) {
+            return;
+        };
+        long epoch = versions.enter();
+        try {
+            Segment segment = segmentFor(event.timestamp());
+            int slot = segment.reserve(1);
+            // if the segment is being sealed, then look the bucket up again
+            while (slot < 0) {
+                Thread.yield();
+                segment = segmentFor(event.timestamp());
+                slot = segment.reserve(1);
+            };
+            // subscriptions are read after reserving and offered before
+            // publishing, see Subscription. The slot is published even if
+            // an offer throws, or it would hide the rest of the segment
+            try {
+                for (Subscription subscription : subscriptions) {
+                    subscription.offer(segment, slot, event);
+                };
+            } finally {
+                segment.publish(slot, event, epoch);
+                if (budget != null) {
+                    charge(segment, (slot == 0 ? SEGMENT_BYTES : 0) + bytesOf(event));
+                };
+            }
+        } finally {
+            versions.exit(epoch);
+        }
+    }
+
+    /**
+     * Method to insert a batch of events. The batch is sorted by timestamp
+     * (when it is not already) and each run of events of the same segment
+     * is appended with a single slot reservation
+     * @param events batch of events, it is not modified
+     */
+    public void insertAll(List<Event> events) {
+        List<Event> sorted = events;
+        for (int i = 0; i < events.size(); i++) {
+            // if some event is null or out of order, then work on a sorted copy
+            if (events.get(i) == null || (i > 0 && events.get(i).timestamp() < events.get(i - 1).timestamp())) {
+                sorted = new ArrayList<>(events.size());
+                for (Event event : events) {
+                    if (event != null) {
+                        sorted.add(event);
+                    };
+                };
+                sorted.sort(Comparator.comparingLong(Event::timestamp));
+                break;
+            };
+        };
+        int from = 0;
+        long epoch = versions.enter();
+        try {
+            while (from < sorted.size()) {
+                Segment segment = segmentFor(sorted.get(from).timestamp());
+                int to = from + 1;
+                while (to < sorted.size() && segment.contains(sorted.get(to).timestamp())) {
+                    to++;
+                };
+                int first = segment.reserve(to - from);
+                while (first < 0) {
+                    Thread.yield();
+                    segment = segmentFor(sorted.get(from).timestamp());
+                    first = segment.reserve(to - from);
+                };
+                // subscriptions are read after reserving and offered before
+                // publishing, as in insert
+                try {
+                    for (Subscription subscription : subscriptions) {
+                        for (int i = from; i < to; i++) {
+                            subscription.offer(segment, first + i - from, sorted.get(i));
+                        };
+                    };
+                } finally {
+                    segment.publishAll(first, sorted, from, to, epoch);
+                    if (budget != null) {
+                        long charged = first == 0 ? SEGMENT_BYTES : 0;
+                        for (int i = from; i < to; i++) {
+                            charged += bytesOf(sorted.get(i));
+                        };
+                        charge(segment, charged);
+                    };
+                }
+                from = to;
+            };
+        } finally {
+            versions.exit(epoch);
+        }
+    }
+
+    /**
+     * Method to remove all events before a timestamp. Segments entirely
+     * before it are dropped as a whole, without touching their events, so
+     * the cost is proportional to the amount of segments plus the events
+     * of the single segment that holds the timestamp
+     * @param timestamp first timestamp kept (exclusive bound of removal)
+     */
+    public void removeBefore(long timestamp) {
+        reclaim();
+        long epoch = versions.enter();
+        try {
+            // if a snapshot is open, then it must still find what is removed
+            boolean keep = versions.oldest() != Versions.LIVE;
+            for (Segment segment : segments.headMap(timestamp, false).values()) {
+                if (segment.last < timestamp) {
+                    unlink(segment, epoch, keep);
+                } else {
+                    segment.removeBefore(timestamp, keep ? epoch : 0);
+                };
+            };
+        } finally {
+            versions.exit(epoch);
+        }
+    }
+
+    /**
+     * Method to drop the oldest segment as a whole, as a {@link MemoryBudget}
+     * evicts. A snapshot open still reads it until it is closed
+     * @return bytes released, -1 if there is no segment
+     */
+    long evictOldest() {
+        long epoch = versions.enter();
+        try {
+            Map.Entry<Long, Segment> first = segments.firstEntry();
+            if (first == null) {
+                return -1;
+            };
+            Segment segment = first.getValue();
+            long released = segment.charged.get();
+            return unlink(segment, epoch, versions.oldest() != Versions.LIVE) ? released : 0;
+        } finally {
+            versions.exit(epoch);
+        }
+    }
+
+    /**
+     * Method to unlink a segment, releasing its bytes
+     * @param segment
+     * @param epoch of the removal
+     * @param keep  true if an open snapshot may still read it
+     * @return true if this call unlinked it
+     */
+    private boolean unlink(Segment segment, long epoch, boolean keep) {
+        // dropped first, so insertions that cached it go to the map again
+        segment.drop();
+        // retired before unlinking, so snapshots find it in one of both
+        if (keep) {
+            retire(segment, epoch);
+        };
+        if (!segments.remove(segment.start, segment)) {
+            return false;
+        };
+        // kept for snapshots or not, it is not counted anymore
+        release(segment);
+        return true;
+    }
+
+    /**
+     * Method to remove the event of a slot, as an iterator does
+     * @param segment
+     * @param slot
+     * @param event the event expected in the slot
+     * @return true if this call removed the event
+     */
+    boolean remove(Segment segment, int slot, Event event) {
+        long epoch = versions.enter();
+        try {
+            return segment.remove(slot, event, versions.oldest() != Versions.LIVE ? epoch : 0);
+        } finally {
+            versions.exit(epoch);
+        }
+    }
+
+    /**
+     * Method to forget the segments dropped before every open snapshot
+     */
+    synchronized void reclaim() {
+        Retired[] current = retired;
+        if (current.length == 0) {
+            return;
+        };
+        long oldest = versions.oldest();
+        List<Retired> next = new ArrayList<>(current.length);
+        for (Retired entry : current) {
+            if (entry.epoch > oldest) {
+                next.add(entry);
+            };
+        };
+        retired = next.toArray(NO_RETIRED);
+    }
+
+    private synchronized void retire(Segment segment, long epoch) {
+        Retired[] current = retired;
+        Retired[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = new Retired(segment, epoch);
+        retired = next;
+    }
+
+    /**
+     * Method to seal the segments entirely before a timestamp, so they
+     * take a fraction of the memory. Writers of those buckets are waited
+     * for, and inserts coming later thaw the bucket back
+     * @param timestamp first timestamp kept hot
+     * @return amount of segments sealed
+     */
+    public int seal(long timestamp) {
+        int sealed = 0;
+        for (Segment segment : segments.headMap(timestamp, false).values()) {
+            if (segment.last < timestamp && !(segment instanceof SealedSegment)) {
+                // if removeBefore unlinked it meanwhile, then it is gone anyway
+                Segment replacement = segment.seal(versions::oldest);
+                if (segments.replace(segment.start, segment, replacement)) {
+                    if (budget != null) {
+                        charge(replacement, bytesOf(replacement));
+                        release(segment);
+                    };
+                    sealed++;
+                };
+            };
+        };
+        return sealed;
+    }
+
+    /**
+     * Method to register a subscription, so every insert from now on is
+     * offered to it
+     * @param subscription
+     */
+    synchronized void subscribe(Subscription subscription) {
+        Subscription[] current = subscriptions;
+        Subscription[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = subscription;
+        subscriptions = next;
+    }
+
+    synchronized void unsubscribe(Subscription subscription) {
+        List<Subscription> next = new ArrayList<>(Arrays.asList(subscriptions));
+        if (next.remove(subscription)) {
+            subscriptions = next.toArray(NO_SUBSCRIPTIONS);
+        };
+    }
+
+    /**
+     * Method to release every byte accounted, once the index was unlinked
+     * from its store
+     */
+    void release() {
+        if (budget != null) {
+            released = true;
+            for (Segment segment : segments.values()) {
+                release(segment);
+            };
+        };
+    }
+
+    /**
+     * @return bytes accounted to the {@link MemoryBudget} of the store, 0
+     * without one
+     */
+    long chargedBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Method to stamp a query, for {@link EvictionPolicy#leastRecentlyQueried()}
+     * @param order of the query among the queries of the store
+     */
+    void queried(long order) {
+        lastQueried = order;
+    }
+
+    /**
+     * @param type of this index
+     * @return its memory, null if it has no segment
+     */
+    EvictionPolicy.TypeUsage usage(String type) {
+        Map.Entry<Long, Segment> first = segments.firstEntry();
+        if (first == null) {
+            return null;
+        };
+        return new EvictionPolicy.TypeUsage(type, bytes.sum(), first.getKey(), lastQueried);
+    }
+
+    /**
+     * @param event
+     * @return bytes accounted to a {@link MemoryBudget} for keeping it hot
+     */
+    static long bytesOf(Event event) {
+        return SLOT_BYTES + EVENT_BYTES + event.payload().encodedLength();
+    }
+
+    private void charge(Segment segment, long charged) {
+        segment.charged.addAndGet(charged);
+        bytes.add(charged);
+        budget.charge(charged);
+        // if the segment or the index was released meanwhile, then nothing
+        // else will release these bytes
+        if (segment.released || released) {
+            release(segment);
+        };
+    }
+
+    private void release(Segment segment) {
+        if (budget != null) {
+            // flagged before taking the bytes, see charge
+            segment.released = true;
+            long charged = segment.charged.getAndSet(0);
+            bytes.add(-charged);
+            budget.charge(-charged);
+        };
+    }
+
+    /**
+     * Method to end the subscriptions, once the index was unlinked from
+     * its store
+     */
+    void complete() {
+        for (Subscription subscription : subscriptions) {
+            subscription.complete();
+        };
+    }
+
+    /**
+     * @param startTime
+     * @return segments that may hold events from startTime on, ordered by
+     * time. It is a live, weakly consistent view of the index
+     */
+    Collection<Segment> segments(long startTime) {
+        Long first = segments.floorKey(startTime);
+        return segments.tailMap(first == null ? startTime : first, true).values();
+    }
+
+    /**
+     * @return amount of segments linked to this index
+     */
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Method to get the segments that may hold events between startTime
+     * (inclusive) and endTime (exclusive), ordered by time. It is a live,
+     * weakly consistent view of the index
+     * @param startTime
+     * @param endTime
+     * @return empty if startTime is not before endTime
+     */
+    Collection<Segment> segments(long startTime, long endTime) {
+        return range(startTime, endTime).values();
+    }
+
+    /**
+     * Method to get the segments a snapshot reads between startTime
+     * (inclusive) and endTime (exclusive): the linked ones plus the ones
+     * dropped after the snapshot was open
+     * @param startTime
+     * @param endTime
+     * @param epoch of the snapshot
+     * @return segments ordered by time
+     */
+    List<Segment> segments(long startTime, long endTime, long epoch) {
+        if (startTime >= endTime) {
+            return new ArrayList<>();
+        };
+        // linked first: a segment dropped meanwhile was retired before
+        List<Segment> result = new ArrayList<>(range(startTime, endTime).values());
+        for (Retired entry : retired) {
+            Segment segment = entry.segment;
+            if (entry.epoch > epoch && segment.last >= startTime && segment.start < endTime
+                    && !containsSame(result, segment)) {
+                result.add(segment);
+            };
+        };
+        result.sort(Comparator.comparingLong(segment -> segment.start));
+        return result;
+    }
+
+    private static boolean containsSame(List<Segment> segments, Segment segment) {
+        for (Segment other : segments) {
+            if (other == segment) {
+                return true;
+            };
+        };
+        return false;
+    }
+
+    private ConcurrentNavigableMap<Long, Segment> range(long startTime, long endTime) {
+        if (startTime >= endTime) {
+            return EMPTY;
+        };
+        // the segment holding startTime may start before it
+        Long first = segments.floorKey(startTime);
+        long from = first == null ? startTime : first;
+        return segments.subMap(from, true, endTime, false);
+    }
+
+    /**
+     * Method to count the events between startTime (inclusive) and endTime
+     * (exclusive). Segments inside the window answer with their counter,
+     * so only the (at most two) segments at its edges are scanned
+     * @param startTime
+     * @param endTime
+     * @return amount of events inside the window
+     */
+    public long count(long startTime, long endTime) {
+        long count = 0;
+        for (Segment segment : segments(startTime, endTime)) {
+            // if the whole segment is inside the window, then skip its events
+            if (startTime <= segment.start && segment.last < endTime) {
+                count += segment.size();
+            } else {
+                count += segment.count(startTime, endTime);
+            };
+        };
+        return count;
+    }
+
+    /**
+     * Method to count the events of each bucket of a window, see
+     * {@link Buckets}. Segments inside a single bucket answer with their
+     * counter; only segments crossing a bucket or window edge are scanned
+     * @param startTime
+     * @param endTime
+     * @param bucketWidth
+     * @return amount of events of each bucket
+     */
+    public long[] histogram(long startTime, long endTime, long bucketWidth) {
+        long[] histogram = new long[Buckets.count(startTime, endTime, bucketWidth)];
+        Segment.Cursor cursor = new Segment.Cursor();
+        for (Segment segment : segments(startTime, endTime)) {
+            if (startTime <= segment.start && segment.last < endTime
+                    && Buckets.index(segment.start, startTime, bucketWidth) == Buckets.index(segment.last, startTime, bucketWidth)) {
+                histogram[Buckets.index(segment.start, startTime, bucketWidth)] += segment.size();
+                continue;
+            };
+            int[] view = segment.view();
+            int length = segment.length(view);
+            for (int position = segment.lowerBound(view, startTime); position < length; position++) {
+                long timestamp = segment.timestamp(view[position], cursor);
+                if (timestamp >= endTime) {
+                    break;
+                };
+                if (segment.event(view[position], cursor) != Segment.REMOVED) {
+                    histogram[Buckets.index(timestamp, startTime, bucketWidth)]++;
+                };
+            };
+        };
+        return histogram;
+    }
+
+    /**
+     * Method to get the first timestamp between startTime (inclusive) and
+     * endTime (exclusive). Segments inside the window without removals
+     * answer with the first slot of their view
+     * @param startTime
+     * @param endTime
+     * @return the timestamp, empty if there are no events inside the window
+     */
+    public OptionalLong minTimestamp(long startTime, long endTime) {
+        Segment.Cursor cursor = new Segment.Cursor();
+        for (Segment segment : segments(startTime, endTime)) {
+            int[] view = segment.view();
+            int length = segment.length(view);
+            if (startTime <= segment.start && segment.last < endTime && !segment.hasRemovals()) {
+                if (length > 0) {
+                    return OptionalLong.of(segment.timestamp(view[0]));
+                };
+                continue;
+            };
+            for (int position = segment.lowerBound(view, startTime); position < length; position++) {
+                long timestamp = segment.timestamp(view[position], cursor);
+                if (timestamp >= endTime) {
+                    return OptionalLong.empty();
+                };
+                if (segment.event(view[position], cursor) != Segment.REMOVED) {
+                    return OptionalLong.of(timestamp);
+                };
+            };
+        };
+        return OptionalLong.empty();
+    }
+
+    /**
+     * Method to get the last timestamp between startTime (inclusive) and
+     * endTime (exclusive), walking segments backwards. Segments inside the
+     * window without removals answer with the last slot of their view
+     * @param startTime
+     * @param endTime
+     * @return the timestamp, empty if there are no events inside the window
+     */
+    public OptionalLong maxTimestamp(long startTime, long endTime) {
+        Segment.Cursor cursor = new Segment.Cursor();
+        for (Segment segment : range(startTime, endTime).descendingMap().values()) {
+            int[] view = segment.view();
+            int length = segment.length(view);
+            if (startTime <= segment.start && segment.last < endTime && !segment.hasRemovals()) {
+                if (length > 0) {
+                    return OptionalLong.of(segment.timestamp(view[length - 1]));
+                };
+                continue;
+            };
+            int first = segment.lowerBound(view, startTime);
+            for (int position = segment.lowerBound(view, endTime) - 1; position >= first; position--) {
+                if (segment.event(view[position], cursor) != Segment.REMOVED) {
+                    return OptionalLong.of(segment.timestamp(view[position], cursor));
+                };
+            };
+        };
+        return OptionalLong.empty();
+    }
+
+    /**
+     * @return amount of events stored in this index
+     */
+    public int size() {
+        long size = 0;
+        for (Segment segment : segments.values()) {
+            size += segment.size();
+        };
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return estimate of bytes held by this index, counting the segments
+     * and the {@link Event} objects they keep alive
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Retired entry : retired) {
+            bytes += bytesOf(entry.segment);
+        };
+        for (Segment segment : segments.values()) {
+            bytes += bytesOf(segment);
+        };
+        return bytes;
+    }
+
+    /**
+     * @param segment
+     * @return estimate of bytes held by segment, with its skip list node
+     */
+    private static long bytesOf(Segment segment) {
+        long bytes = 64 + segment.estimatedBytes();
+        // sealed segments rebuild events when read instead of keeping them
+        if (!(segment instanceof SealedSegment)) {
+            bytes += segment.size() * EVENT_BYTES;
+        };
+        return bytes;
+    }
+
+    /**
+     * @return estimated bytes per stored event, 0 if empty
+     */
+    public double bytesPerEvent() {
+        int size = size();
+        return size == 0 ? 0 : (double) estimatedBytes() / size;
+    }
+
+    /**
+     * Method to get the segment of a timestamp, creating it if needed
+     * @param timestamp
+     * @return segment whose bucket contains timestamp
+     */
+    private Segment segmentFor(long timestamp) {
+        Segment segment = latest;
+        // if it is the same bucket of the last insertion, then skip the lookup
+        if (segment != null && segment.contains(timestamp) && !segment.isDropped()) {
+            return segment;
+        };
+        long offset = Math.floorMod(timestamp, segmentWidth);
+        // buckets at the edges of the long range are clamped instead of overflowing
+        long start = timestamp < Long.MIN_VALUE + offset ? Long.MIN_VALUE : timestamp - offset;
+        long remaining = segmentWidth - 1 - offset;
+        long last = timestamp > Long.MAX_VALUE - remaining ? Long.MAX_VALUE : timestamp + remaining;
+        segment = segments.computeIfAbsent(start, key -> new Segment(start, last));
+        // if the bucket was sealed, then thaw it back to take the event
+        while (segment instanceof SealedSegment) {
+            Segment sealed = segment;
+            Segment thawed = ((SealedSegment) sealed).thaw();
+            if (segments.replace(start, sealed, thawed)) {
+                sealed.drop();
+                if (budget != null) {
+                    charge(thawed, bytesOf(thawed) + ((SealedSegment) sealed).payloadBytes());
+                    release(sealed);
+                };
+            };
+            segment = segments.computeIfAbsent(start, key -> new Segment(start, last));
+        };
+        latest = segment;
+        return segment;
+    }
+
+    /**
+     * Segment dropped while a snapshot was open, with the epoch of the drop
+     */
+    private static final class Retired {
+        final Segment segment;
+        final long epoch;
+
+        Retired(Segment segment, long epoch) {
+            this.segment = segment;
+            this.epoch = epoch;
+        }
+    }
+}
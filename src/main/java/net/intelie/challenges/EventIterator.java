@@ -27,4 +27,16 @@ public interface EventIterator extends AutoCloseable {
      *                               or its last result was {@code false}.
      */
     void remove();
+
+    /**
+     * Remove current event from its store, telling if it was still there.
+     *
+     * @return false if something else removed it first, true otherwise.
+     * @throws IllegalStateException if {@link #moveNext} was never called
+     *                               or its last result was {@code false}.
+     */
+    default boolean tryRemove() {
+        remove();
+        return true;
+    }
 }
@@ -2,21 +2,55 @@ package net.intelie.challenges;
 
 import java.util.Iterator;
 
+/**
+ * Lazy iterator over a time range of a live {@link EventIndex}.
+ * <p>
+ * Nothing is copied when the iterator is created: each {@link #moveNext()}
+ * steps through the ordered view of the current segment, so the time to get
+ * the first event does not depend on the size of the result and stepping
+ * allocates nothing. Events inserted or removed while iterating may or may
+ * not be seen, but the iterator never throws ConcurrentModificationException.
+ * <p>
+ * {@link #remove()} deletes the current event from the index itself in O(1),
+ * using the segment and slot held by the iterator as handle.
+ * <p>
+ * Created for a snapshot epoch (see {@link StoreSnapshot}), it reads exactly
+ * the events inserted and not removed by then, and cannot remove events.
+ */
 public class EventIteratorImpl implements EventIterator {
-    private final AutomaticConcurrentHashMap map;
-    private final Iterator<String> mapOrder;
-    private String selectedKey = null;
+    private final EventIndex index;
+    private Iterator<Segment> segments = null;
+    private final long startTime;
+    private final long endTime;
+    private final long epoch;
+    private Segment segment = null;
+    private int[] view = null;
+    private int length = 0;
+    private int position = 0;
+    // first position of the current view and slots stepped in former ones
+    private int first = 0;
+    private long scanned = 0;
+    private boolean finished = false;
+    private int selectedSlot = -1;
+    private Event selectedEvent = null;
+    private final Segment.Cursor cursor = new Segment.Cursor();
 
-    public EventIteratorImpl(AutomaticConcurrentHashMap map) {
-        this.map = map;
-        // if map is null or empty, than it does not have an order
-        if (this.map == null || this.map.isEmpty()) {
-            this.mapOrder = null;
-        }
-        // else, set mapOrder = iterator of map keySet
-        else {
-            this.mapOrder = this.map.keySet().iterator();
-        };
+    public EventIteratorImpl(EventIndex index, long startTime, long endTime) {
+        this(index, startTime, endTime, Versions.LIVE);
+    }
+
+    /**
+     * @param index
+     * @param startTime
+     * @param endTime
+     * @param epoch of the snapshot read, {@link Versions#LIVE} for the
+     *              current events
+     */
+    EventIteratorImpl(EventIndex index, long startTime, long endTime, long epoch) {
+        this.index = index;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.epoch = epoch;
     }
 
     /**
@@ -26,14 +60,52 @@ public class EventIteratorImpl implements EventIterator {
      */
     @Override
     public boolean moveNext() {
-        // if mapOrder null or mapOrder does not have next, then it ends
-        if (mapOrder == null || !mapOrder.hasNext()) {
-            selectedKey = null;
-            return false;
+        selectedEvent = null;
+        while (!finished) {
+            // walk the ordered view of the current segment, skipping removed events
+            while (view != null && position < length) {
+                int slot = view[position++];
+                // segments are ordered, so nothing after endTime matters
+                if (segment.timestamp(slot, cursor) >= endTime) {
+                    finished = true;
+                    return false;
+                };
+                Event event = segment.event(slot, epoch, cursor);
+                // null if inserted after the snapshot
+                if (event != null && event != Segment.REMOVED) {
+                    selectedSlot = slot;
+                    selectedEvent = event;
+                    return true;
+                };
+            };
+            // segments are only looked up on the first move, so the iterator
+            // also sees segments created after it
+            if (segments == null && index != null) {
+                segments = epoch == Versions.LIVE ? index.segments(startTime, endTime).iterator()
+                        : index.segments(startTime, endTime, epoch).iterator();
+            };
+            // if segments null or segments does not have next, then it ends
+            if (segments == null || !segments.hasNext()) {
+                finished = true;
+                return false;
+            };
+            // else, seek startTime inside the next segment
+            scanned += view == null ? 0 : position - first;
+            segment = segments.next();
+            view = epoch == Versions.LIVE ? segment.view() : segment.view(epoch);
+            length = segment.length(view);
+            position = segment.lowerBound(view, startTime);
+            first = position;
         };
-        // else, set selectedKey to next
-        selectedKey = mapOrder.next();
-        return true;
+        return false;
+    }
+
+    /**
+     * @return amount of slots stepped so far, removed events and the one
+     * past endTime included
+     */
+    long scanned() {
+        return scanned + (view == null ? 0 : position - first);
     }
 
     /**
@@ -45,12 +117,12 @@ public class EventIteratorImpl implements EventIterator {
      */
     @Override
     public Event current() {
-        // if selectedKey is null, then it does not have current
-        if (selectedKey == null) {
+        // if selectedEvent is null, then it does not have current
+        if (selectedEvent == null) {
             throw new IllegalStateException();
         };
         // else, get current
-        return map.get(selectedKey);
+        return selectedEvent;
     }
 
     /**
@@ -58,16 +130,34 @@ public class EventIteratorImpl implements EventIterator {
      *
      * @throws IllegalStateException if {@link #moveNext} was never called
      *                               or its last result was {@code false}.
+     * @throws UnsupportedOperationException if it reads a snapshot.
      */
     @Override
     public void remove() {
-        // if selectedKey is null, then it does not have current
-        if (selectedKey == null) {
+        tryRemove();
+    }
+
+    /**
+     * Remove current event from its store, telling if it was still there.
+     *
+     * @return false if another iterator or removal took its slot first.
+     * @throws IllegalStateException if {@link #moveNext} was never called
+     *                               or its last result was {@code false}.
+     * @throws UnsupportedOperationException if it reads a snapshot.
+     */
+    @Override
+    public boolean tryRemove() {
+        if (epoch != Versions.LIVE) {
+            throw new UnsupportedOperationException("snapshots are read-only");
+        };
+        // if selectedEvent is null, then it does not have current
+        if (selectedEvent == null) {
             throw new IllegalStateException();
         };
-        // else, remove current
-        map.remove(selectedKey);
-        selectedKey = null;
+        // else, remove current from its segment
+        boolean removed = index.remove(segment, selectedSlot, selectedEvent);
+        selectedEvent = null;
+        return removed;
     }
 
     /**
@@ -79,8 +169,11 @@ public class EventIteratorImpl implements EventIterator {
      */
     @Override
     public void close() throws Exception {
-        // if all conditions stops with selectedKey == null, 
-        // then just set selectedKey = null to close
-        selectedKey = null;
+        // if all conditions stops with selectedEvent == null, 
+        // then just set selectedEvent = null and stop iterating to close
+        selectedEvent = null;
+        finished = true;
+        scanned = scanned();
+        view = null;
     }
-}
\ No newline at end of file
+}
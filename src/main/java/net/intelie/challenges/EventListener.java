@@ -0,0 +1,42 @@
+package net.intelie.challenges;
+
+import java.util.List;
+
+/**
+ * Receiver of the events of a {@link Subscription}. Methods of a listener
+ * are called by one thread at a time, never concurrently.
+ */
+public interface EventListener {
+    /**
+     * Receives a batch of events: first the history, ordered by timestamp,
+     * then new inserts, in the order they were inserted.
+     *
+     * @param events the batch, owned by the listener from now on
+     */
+    void onEvents(List<Event> events);
+
+    /**
+     * Tells that new inserts were dropped because the listener did not
+     * keep up and the buffer of its subscription was full.
+     *
+     * @param count amount of events dropped since the last call
+     */
+    default void onDropped(long count) {
+    }
+
+    /**
+     * Tells that the type was removed by removeAll, so nothing else will
+     * be delivered.
+     */
+    default void onCompleted() {
+    }
+
+    /**
+     * Tells that a call to this listener threw, so it was unsubscribed and
+     * nothing else will be delivered.
+     *
+     * @param error what the listener threw
+     */
+    default void onError(Throwable error) {
+    }
+}
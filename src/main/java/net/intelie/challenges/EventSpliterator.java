@@ -0,0 +1,158 @@
+package net.intelie.challenges;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable view of a time range of a live {@link EventIndex}, for
+ * parallel streams.
+ * <p>
+ * The segments of the range are taken when the spliterator is created
+ * (only references, no events). {@link #trySplit()} hands half of the
+ * remaining segments to the new spliterator and, when a single segment is
+ * left, half of its ordered view, so a large window splits evenly whether
+ * it spans many segments or a few big ones. Like {@link EventIteratorImpl},
+ * it is weakly consistent and never throws ConcurrentModificationException.
+ */
+public class EventSpliterator implements Spliterator<Event> {
+    /**
+     * Least amount of slots of a segment worth splitting in two
+     */
+    private static final int MIN_SPLIT = 1024;
+
+    private final Segment[] segments;
+    private final long startTime;
+    private final long endTime;
+    private int index;
+    private final int fence;
+    private Segment segment = null;
+    private int[] view = null;
+    private int position = 0;
+    private int limit = 0;
+    private final Segment.Cursor cursor = new Segment.Cursor();
+
+    /**
+     * @param index
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     */
+    public EventSpliterator(EventIndex index, long startTime, long endTime) {
+        this(index.segments(startTime, endTime).toArray(new Segment[0]), 0, -1, startTime, endTime);
+    }
+
+    private EventSpliterator(Segment[] segments, int index, int fence, long startTime, long endTime) {
+        this.segments = segments;
+        this.index = index;
+        this.fence = fence < 0 ? segments.length : fence;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Event> action) {
+        while (true) {
+            if (view == null) {
+                if (index >= fence) {
+                    return false;
+                };
+                load();
+            };
+            while (position < limit) {
+                Event event = segment.event(view[position++], cursor);
+                if (event != Segment.REMOVED) {
+                    action.accept(event);
+                    return true;
+                };
+            };
+            view = null;
+            index++;
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Event> action) {
+        while (view != null || index < fence) {
+            if (view == null) {
+                load();
+            };
+            // the whole segment goes without re-checking fields per event
+            Segment current = segment;
+            int[] slots = view;
+            for (int i = position; i < limit; i++) {
+                Event event = current.event(slots[i], cursor);
+                if (event != Segment.REMOVED) {
+                    action.accept(event);
+                };
+            };
+            view = null;
+            index++;
+        };
+    }
+
+    /**
+     * Method to split the remaining range, the returned spliterator
+     * getting its first half
+     * @return null if the range is too small to split
+     */
+    @Override
+    public Spliterator<Event> trySplit() {
+        // if many segments remain, then the prefix takes half of them
+        if (fence - index > 1) {
+            int middle = (index + fence + 1) >>> 1;
+            EventSpliterator prefix = new EventSpliterator(segments, index, middle, startTime, endTime);
+            prefix.segment = segment;
+            prefix.view = view;
+            prefix.position = position;
+            prefix.limit = limit;
+            index = middle;
+            segment = null;
+            view = null;
+            return prefix;
+        };
+        if (index >= fence) {
+            return null;
+        };
+        // else, split the ordered view of the single segment left
+        if (view == null) {
+            load();
+        };
+        if (limit - position < 2 * MIN_SPLIT) {
+            return null;
+        };
+        int middle = (position + limit) >>> 1;
+        EventSpliterator prefix = new EventSpliterator(segments, index, index + 1, startTime, endTime);
+        prefix.segment = segment;
+        prefix.view = view;
+        prefix.position = position;
+        prefix.limit = middle;
+        position = middle;
+        return prefix;
+    }
+
+    /**
+     * @return events left, counting removed ones of segments not started
+     */
+    @Override
+    public long estimateSize() {
+        long size = view == null ? 0 : limit - position;
+        for (int i = view == null ? index : index + 1; i < fence; i++) {
+            size += segments[i].size();
+        };
+        return size;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | CONCURRENT;
+    }
+
+    /**
+     * Method to take the view of the current segment, bounded by the range
+     */
+    private void load() {
+        segment = segments[index];
+        view = segment.view();
+        position = segment.lowerBound(view, startTime);
+        limit = segment.lowerBound(view, endTime);
+    }
+}
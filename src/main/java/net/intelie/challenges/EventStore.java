@@ -1,5 +1,19 @@
 package net.intelie.challenges;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * An abstraction of an event store.
  * <p>
@@ -9,12 +23,49 @@ package net.intelie.challenges;
  */
 public interface EventStore {
     /**
-     * Stores an event
+     * Stores an event. Events with the same type and timestamp are all
+     * kept, and iterated in insertion order.
      *
      * @param event
      */
     void insert(Event event);
 
+    /**
+     * Stores a batch of events, possibly of many types. Implementations
+     * may apply it faster than inserting the events one by one.
+     *
+     * @param events
+     */
+    default void insertAll(Collection<Event> events) {
+        for (Event event : events) {
+            insert(event);
+        }
+    }
+
+    /**
+     * Stores a batch of events on the common pool, see
+     * {@link #insertAsync(Collection, Executor)}.
+     *
+     * @param events
+     * @return future completed once every event is stored
+     */
+    default CompletableFuture<Void> insertAsync(Collection<Event> events) {
+        return insertAsync(events, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Stores a batch of events on an executor, in chunks stored with
+     * {@link #insertAll}. Each chunk is a new task, so the executor runs
+     * other work between them. Cancelling the future stops before the
+     * next chunk, keeping the ones already stored.
+     *
+     * @param events   batch of events, copied
+     * @param executor runs the chunks
+     * @return future completed once every event is stored
+     */
+    default CompletableFuture<Void> insertAsync(Collection<Event> events, Executor executor) {
+        return new ChunkedInsert(this, events, executor).start();
+    }
 
     /**
      * Removes all events of specific type.
@@ -23,6 +74,42 @@ public interface EventStore {
      */
     void removeAll(String type);
 
+    /**
+     * Removes all events of specific type older than a timestamp.
+     *
+     * @param type
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    default void removeBefore(String type, long timestamp) {
+        EventIterator iterator = query(type, Long.MIN_VALUE, timestamp);
+        while (iterator != null && iterator.moveNext()) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all events of every type older than a timestamp. The default
+     * one removes them type by type, from {@link #types()}.
+     *
+     * @param timestamp First timestamp kept (events before it are removed).
+     * @throws UnsupportedOperationException if the store cannot list its
+     *                                       types
+     */
+    default void removeBefore(long timestamp) {
+        for (String type : types()) {
+            removeBefore(type, timestamp);
+        }
+    }
+
+    /**
+     * Moves the events of every type older than a timestamp to compact,
+     * read-mostly storage, if the store has one. The default does nothing.
+     *
+     * @param timestamp First timestamp kept as is.
+     */
+    default void compact(long timestamp) {
+    }
+
     /**
      * Retrieves an iterator for events based on their type and timestamp.
      *
@@ -34,4 +121,237 @@ public interface EventStore {
      * (inclusive) and {@param endTime} (exclusive).
      */
     EventIterator query(String type, long startTime, long endTime);
+
+    /**
+     * Retrieves one iterator for events of many types, ordered by
+     * timestamp. Events with the same timestamp come in the order of
+     * their types in the collection.
+     *
+     * @param types     The types we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A lazy merge of the queries of each type, never null.
+     */
+    default EventIterator query(Collection<String> types, long startTime, long endTime) {
+        List<EventIterator> iterators = new ArrayList<>(types.size());
+        for (String type : types) {
+            iterators.add(query(type, startTime, endTime));
+        }
+        return new MergingEventIterator(iterators);
+    }
+
+    /**
+     * Retrieves one iterator for events of every type, ordered by
+     * timestamp.
+     *
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A lazy merge of the queries of each type, never null.
+     */
+    default EventIterator queryAll(long startTime, long endTime) {
+        return query(types(), startTime, endTime);
+    }
+
+    /**
+     * Publishes the events of a query on the common pool, see
+     * {@link #queryAsync(String, long, long, Executor)}.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A publisher of the events of the query.
+     */
+    default Flow.Publisher<Event> queryAsync(String type, long startTime, long endTime) {
+        return queryAsync(type, startTime, endTime, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Publishes the events of a query, ordered by timestamp. Each
+     * subscriber runs its own query on the executor, delivering only as
+     * many events as it requested, in bounded chunks that are each a new
+     * task. Cancelling stops before the next event.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @param executor  runs the deliveries
+     * @return A publisher of the events of the query, completing at once
+     * if the type has no events.
+     */
+    default Flow.Publisher<Event> queryAsync(String type, long startTime, long endTime, Executor executor) {
+        return new QueryPublisher(this, type, startTime, endTime, executor);
+    }
+
+    /**
+     * Subscribes to a type: its history from fromTimestamp on is delivered
+     * first, then every new insert, without polling. Inserting threads
+     * never wait for listeners.
+     *
+     * @param type
+     * @param fromTimestamp first timestamp of the history delivered
+     * @param listener
+     * @return the subscription, to be closed when done
+     * @throws UnsupportedOperationException if the store has no live tail
+     */
+    default Subscription subscribe(String type, long fromTimestamp, EventListener listener) {
+        throw new UnsupportedOperationException("subscriptions are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * @return the types with events stored, weakly consistent
+     * @throws UnsupportedOperationException if the store cannot list them
+     */
+    default Collection<String> types() {
+        throw new UnsupportedOperationException("types are not listed by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Retrieves a spliterator for events based on their type and
+     * timestamp, ordered by timestamp. The default one walks a query and
+     * splits it in batches; implementations may split the range itself.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A spliterator of the events of the query, empty if the type
+     * has no events.
+     */
+    default Spliterator<Event> spliterator(String type, long startTime, long endTime) {
+        EventIterator iterator = query(type, startTime, endTime);
+        if (iterator == null) {
+            return Spliterators.emptySpliterator();
+        }
+        return new Spliterators.AbstractSpliterator<Event>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Event> action) {
+                if (!iterator.moveNext()) {
+                    return false;
+                }
+                action.accept(iterator.current());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Retrieves a sequential stream for events based on their type and
+     * timestamp, ordered by timestamp. Call {@code parallel()} on it to
+     * scan the range on many threads.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A stream of the events of the query.
+     */
+    default Stream<Event> stream(String type, long startTime, long endTime) {
+        return StreamSupport.stream(spliterator(type, startTime, endTime), false);
+    }
+
+    /**
+     * Counts the events of a type between startTime (inclusive) and
+     * endTime (exclusive). Implementations may answer without iterating
+     * the events.
+     *
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return amount of events inside the window
+     */
+    default long count(String type, long startTime, long endTime) {
+        long count = 0;
+        EventIterator iterator = query(type, startTime, endTime);
+        while (iterator != null && iterator.moveNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the events of a type in buckets of bucketWidth, the first one
+     * starting at startTime and the last one cut at endTime (exclusive).
+     *
+     * @param type
+     * @param startTime   Start timestamp (inclusive).
+     * @param endTime     End timestamp (exclusive).
+     * @param bucketWidth
+     * @return amount of events of each bucket, empty if the window is
+     * empty
+     * @throws IllegalArgumentException if bucketWidth is not positive
+     */
+    default long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+        long[] histogram = new long[Buckets.count(startTime, endTime, bucketWidth)];
+        EventIterator iterator = query(type, startTime, endTime);
+        while (iterator != null && iterator.moveNext()) {
+            histogram[Buckets.index(iterator.current().timestamp(), startTime, bucketWidth)]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return the first timestamp of a type inside the window, empty if
+     * there are no events
+     */
+    default OptionalLong minTimestamp(String type, long startTime, long endTime) {
+        EventIterator iterator = query(type, startTime, endTime);
+        if (iterator != null && iterator.moveNext()) {
+            return OptionalLong.of(iterator.current().timestamp());
+        }
+        return OptionalLong.empty();
+    }
+
+    /**
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return the last timestamp of a type inside the window, empty if
+     * there are no events
+     */
+    default OptionalLong maxTimestamp(String type, long startTime, long endTime) {
+        OptionalLong max = OptionalLong.empty();
+        EventIterator iterator = query(type, startTime, endTime);
+        while (iterator != null && iterator.moveNext()) {
+            max = OptionalLong.of(iterator.current().timestamp());
+        }
+        return max;
+    }
+
+    /**
+     * Resolves a type once, for repeated operations on it. The default
+     * handle just calls the methods of the store by name.
+     *
+     * @param type
+     * @return handle of type
+     */
+    default TypeHandle typeHandle(String type) {
+        EventStore store = this;
+        return new TypeHandle() {
+            @Override
+            public String type() {
+                return type;
+            }
+
+            @Override
+            public void insert(long timestamp) {
+                store.insert(new Event(type, timestamp));
+            }
+
+            @Override
+            public void removeAll() {
+                store.removeAll(type);
+            }
+
+            @Override
+            public void removeBefore(long timestamp) {
+                store.removeBefore(type, timestamp);
+            }
+
+            @Override
+            public EventIterator query(long startTime, long endTime) {
+                return store.query(type, startTime, endTime);
+            }
+        };
+    }
 }
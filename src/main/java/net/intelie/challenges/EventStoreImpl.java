@@ -1,28 +1,190 @@
 package net.intelie.challenges;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * In-memory event store, keeping one {@link EventIndex} per type.
+ * <p>
+ * Types are kept in a {@link TypeDictionary}, whose entry of each type links
+ * its current index. {@link #typeHandle} resolves the entry once, so
+ * operations through the handle skip hashing the type String.
+ * <p>
+ * Concurrent operations are ordered as follows:
+ * <ul>
+ * <li>{@link #removeAll} takes effect when it unlinks the index of the type
+ * from its entry. An index is never linked again once unlinked.</li>
+ * <li>{@link #insert} takes effect when it looks up (or atomically links)
+ * the index of its type. If that index is unlinked by a concurrent
+ * removeAll before the event is appended, the insert is ordered before the
+ * removeAll and the event goes away with the index. An insert that starts
+ * after removeAll returned always lands in a new index.</li>
+ * <li>{@link #query} iterates the index it looked up, weakly consistent.</li>
+ * <li>{@link #snapshot} reads every type exactly as it was when the
+ * snapshot was open, see {@link Versions}. Indexes removed by removeAll
+ * while a snapshot is open are kept aside until it is closed.</li>
+ * </ul>
+ * <p>
+ * Built with metrics enabled, the store counts and times its operations in
+ * a {@link StoreMetrics}; otherwise each operation only checks a null field.
+ * <p>
+ * Built with a {@link MemoryBudget}, inserts are admitted against it first,
+ * evicting whole segments or refusing the insert when it is exceeded.
+ */
 public class EventStoreImpl implements EventStore {  
 
-  private final ConcurrentHashMap<String, AutomaticConcurrentHashMap> events = new ConcurrentHashMap<>();
+  private final TypeDictionary<EventIndex> types = new TypeDictionary<>();
+  private final Versions versions = new Versions();
+  // indexes removed while a snapshot was open, guarded by itself
+  private final List<Retired> retired = new ArrayList<>();
+  private final long segmentWidth;
+  private final StoreMetrics metrics;
+  private final MemoryBudget budget;
+  private volatile ExecutorService deliveries;
+
+  public EventStoreImpl() {
+    this(EventIndex.DEFAULT_SEGMENT_WIDTH);
+  }
+
+  /**
+   * @param segmentWidth time width of the segments of each type. Expiring
+   * events with {@link #removeBefore} costs one step per segment
+   */
+  public EventStoreImpl(long segmentWidth) {
+    this(segmentWidth, false);
+  }
+
+  /**
+   * @param segmentWidth time width of the segments of each type
+   * @param metrics true to keep the {@link #metrics()} of the store
+   */
+  public EventStoreImpl(long segmentWidth, boolean metrics) {
+    this(segmentWidth, metrics, null);
+  }
+
+  /**
+   * @param segmentWidth time width of the segments of each type
+   * @param metrics true to keep the {@link #metrics()} of the store
+   * @param budget memory the store may keep, null if unbounded. A budget
+   * belongs to a single store
+   */
+  public EventStoreImpl(long segmentWidth, boolean metrics, MemoryBudget budget) {
+    if(segmentWidth <= 0) {
+      throw new IllegalArgumentException("segmentWidth must be positive");
+    };
+    if(budget != null) {
+      budget.bind();
+    };
+    this.segmentWidth = segmentWidth;
+    this.metrics = metrics ? new StoreMetrics(types) : null;
+    this.budget = budget;
+  }
+
+  /**
+   * @return the memory budget of the store, null if it is unbounded
+   */
+  public MemoryBudget budget() {
+    return budget;
+  }
+
+  /**
+   * @return the metrics of the store, null if it was built without them
+   */
+  public StoreMetrics metrics() {
+    return metrics;
+  }
 
   /**
-     * Stores an event
+     * Stores an event. Events with the same type and timestamp are all
+     * kept, and iterated in insertion order.
      *
      * @param event
+     * @throws IllegalStateException if the memory budget is exceeded and
+     * nothing can be evicted
      */
     public void insert(Event event) {
-      // if already have event type, then just get and add to it
-      if(events.containsKey(event.type())) {
-        events.get(event.type()).autoKeyPut(event);
-      } 
-      // else, create the new concurrenthashmap and insert new event to it
-      else {
-        AutomaticConcurrentHashMap newEvent = new AutomaticConcurrentHashMap();
-        newEvent.autoKeyPut(event);
-        events.put(event.type(), newEvent);
+      insert(types.entry(event.type()), event);
+    };
+
+    /**
+     * Method to insert an event in the index of its type, admitted against
+     * the memory budget first. The index is looked up once admitted, so a
+     * removal of the type while waiting for room is seen
+     * @param entry of the type of event
+     * @param event
+     */
+    private void insert(TypeDictionary.Entry<EventIndex> entry, Event event) {
+      if(budget == null) {
+        indexFor(entry).insert(event);
+      } else {
+        long bytes = EventIndex.bytesOf(event);
+        budget.admit(bytes, this::evictOne);
+        try {
+          indexFor(entry).insert(event);
+        } finally {
+          budget.settle(bytes);
+        }
+      };
+      if(metrics != null) {
+        metrics.inserted(1);
+      };
+    };
+
+    /**
+     * Stores a batch of events. Events are grouped by type, so each type
+     * index is looked up once, and each group is appended in bulk.
+     *
+     * @param batch
+     * @throws IllegalStateException if the memory budget is exceeded and
+     * nothing can be evicted, then no event of the batch is stored
+     */
+    public void insertAll(Collection<Event> batch) {
+      long started = clock();
+      Map<String, List<Event>> groups = new HashMap<>();
+      String lastType = null;
+      List<Event> lastGroup = null;
+      long bytes = 0;
+      for(Event event : batch) {
+        if(event == null) {
+          continue;
+        };
+        if(budget != null) {
+          bytes += EventIndex.bytesOf(event);
+        };
+        // batches usually come in runs of the same type, skip hashing them
+        if(!event.type().equals(lastType)) {
+          lastType = event.type();
+          lastGroup = groups.computeIfAbsent(lastType, type -> new ArrayList<>());
+        };
+        lastGroup.add(event);
+      };
+      if(budget != null) {
+        budget.admit(bytes, this::evictOne);
       };
+      // counts only what was stored: nulls are skipped, and a group may fail
+      long inserted = 0;
+      try {
+        for(Map.Entry<String, List<Event>> group : groups.entrySet()) {
+          indexFor(types.entry(group.getKey())).insertAll(group.getValue());
+          inserted += group.getValue().size();
+        };
+      } finally {
+        if(budget != null) {
+          budget.settle(bytes);
+        };
+        if(metrics != null) {
+          metrics.batch(inserted, started);
+        };
+      }
     };
 
 
@@ -32,7 +194,67 @@ public class EventStoreImpl implements EventStore {
      * @param type
      */
     public void removeAll(String type) {
-      events.remove(type);
+      long started = clock();
+      TypeDictionary.Entry<EventIndex> entry = types.find(type);
+      if(entry != null) {
+        unlink(entry);
+      };
+      if(metrics != null) {
+        metrics.removed(started);
+      };
+    };
+
+    /**
+     * Removes all events of specific type older than a timestamp, dropping
+     * whole segments when possible.
+     *
+     * @param type
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    public void removeBefore(String type, long timestamp) {
+      long started = clock();
+      EventIndex index = indexOf(type);
+      if(index != null) {
+        index.removeBefore(timestamp);
+      };
+      if(metrics != null) {
+        metrics.removed(started);
+      };
+    };
+
+    /**
+     * Removes all events of every type older than a timestamp, dropping
+     * whole segments when possible.
+     *
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    public void removeBefore(long timestamp) {
+      long started = clock();
+      for(TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+        EventIndex index = entry.get();
+        if(index != null) {
+          index.removeBefore(timestamp);
+        };
+      };
+      if(metrics != null) {
+        metrics.removed(started);
+      };
+    };
+
+    /**
+     * Seals the segments of every type entirely older than a timestamp, so
+     * they keep compressed timestamps instead of events, see
+     * {@link SealedSegment}. Queries on them rebuild equal events.
+     *
+     * @param timestamp First timestamp kept as is.
+     */
+    public void compact(long timestamp) {
+      for(TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+        EventIndex index = entry.get();
+        if(index != null) {
+          index.seal(timestamp);
+        };
+      };
     };
 
     /**
@@ -46,21 +268,413 @@ public class EventStoreImpl implements EventStore {
      * (inclusive) and {@param endTime} (exclusive).
      */
     public EventIterator query(String type, long startTime, long endTime) {
-      if(type != null && events.containsKey(type)) {
-        AutomaticConcurrentHashMap result = new AutomaticConcurrentHashMap();
-        // get the concurrenthashmap with all events of determinated type
-        // for each entry in map, check if timestamp is between
-        // startTime (inclusive) and endTime (exclusive)
-        for(Map.Entry<String, Event> entry : events.get(type).entrySet()) {
-          Event auxEvent = entry.getValue();
-          long timestamp = auxEvent.timestamp();
-          if(timestamp >= startTime && timestamp < endTime) {
-            result.autoKeyPut(entry.getValue());
-          };
-        };
-        return new EventIteratorImpl(result);
+      long started = clock();
+      // single read of the entry, so a concurrent removeAll cannot
+      // unlink the index between checking and getting it
+      EventIndex index = indexOf(type);
+      if(index != null) {
+        touch(index);
+        // get the time index with all events of determinated type and
+        // iterate lazily from startTime (inclusive) to endTime (exclusive),
+        // without copying the events to another structure
+        EventIteratorImpl iterator = new EventIteratorImpl(index, startTime, endTime);
+        return metrics == null ? iterator : metrics.query(iterator, started);
       };
       // if events don't have type key, so just return null
       return null;
     };
-}
\ No newline at end of file
+
+    /**
+     * Opens a point-in-time view of every type. Nothing is copied: inserts
+     * and removals made from now on are stamped with a later epoch, which
+     * the snapshot skips. Writers never wait for snapshots.
+     *
+     * @return the snapshot, to be closed when done so removed events can
+     * be released
+     */
+    public StoreSnapshot snapshot() {
+      return new StoreSnapshot(this, versions.open());
+    };
+
+    /**
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @param epoch     of an open snapshot
+     * @return iterator of the events of type at epoch, null if the type
+     * has no index, now or removed since epoch
+     */
+    EventIterator query(String type, long startTime, long endTime, long epoch) {
+      // linked one read first: if it is removed meanwhile, it was retired before
+      EventIndex linked = indexOf(type);
+      List<EventIndex> indexes = new ArrayList<>();
+      synchronized(retired) {
+        // removed indexes come first, they hold the oldest events
+        for(Retired entry : retired) {
+          if(entry.epoch > epoch && entry.type.equals(type) && entry.index != linked && !indexes.contains(entry.index)) {
+            indexes.add(entry.index);
+          };
+        };
+      };
+      if(linked != null) {
+        indexes.add(linked);
+      };
+      if(indexes.isEmpty()) {
+        return null;
+      };
+      List<EventIterator> iterators = new ArrayList<>(indexes.size());
+      for(EventIndex index : indexes) {
+        iterators.add(new EventIteratorImpl(index, startTime, endTime, epoch));
+      };
+      return iterators.size() == 1 ? iterators.get(0) : new MergingEventIterator(iterators);
+    };
+
+    /**
+     * Method to close a snapshot, releasing what only it still needed
+     * @param epoch
+     */
+    void release(long epoch) {
+      versions.close(epoch);
+      long oldest = versions.oldest();
+      synchronized(retired) {
+        retired.removeIf(entry -> entry.epoch <= oldest);
+      };
+      for(TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+        EventIndex index = entry.get();
+        if(index != null) {
+          index.reclaim();
+        };
+      };
+    };
+
+    /**
+     * Retrieves a spliterator splitting the range by segments and, for a
+     * single segment, by halves of its ordered view.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A spliterator of the events of the query.
+     */
+    public Spliterator<Event> spliterator(String type, long startTime, long endTime) {
+      EventIndex index = indexOf(type);
+      if(index == null) {
+        return Spliterators.emptySpliterator();
+      };
+      touch(index);
+      return new EventSpliterator(index, startTime, endTime);
+    };
+
+    /**
+     * Subscribes to a type, delivering to the listener on a shared pool of
+     * daemon threads.
+     *
+     * @param type
+     * @param fromTimestamp first timestamp of the history delivered
+     * @param listener
+     * @return the subscription, to be closed when done
+     */
+    public Subscription subscribe(String type, long fromTimestamp, EventListener listener) {
+      return subscribe(type, fromTimestamp, listener, deliveries(), Subscription.DEFAULT_CAPACITY);
+    };
+
+    /**
+     * Subscribes to a type, see {@link Subscription}.
+     *
+     * @param type
+     * @param fromTimestamp first timestamp of the history delivered
+     * @param listener
+     * @param executor runs the deliveries of the subscription
+     * @param capacity amount of new events buffered before dropping
+     * @return the subscription, to be closed when done
+     */
+    public Subscription subscribe(String type, long fromTimestamp, EventListener listener,
+                                  Executor executor, int capacity) {
+      TypeDictionary.Entry<EventIndex> entry = types.entry(type);
+      EventIndex index = indexFor(entry);
+      Subscription subscription = new Subscription(index, fromTimestamp, listener, executor, capacity);
+      index.subscribe(subscription);
+      // if removeAll unlinked the index meanwhile, then it is already over
+      if(entry.get() != index) {
+        subscription.complete();
+      };
+      subscription.start();
+      return subscription;
+    };
+
+    /**
+     * @return the types with an index linked, weakly consistent
+     */
+    public Collection<String> types() {
+      List<String> names = new ArrayList<>();
+      for(TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+        if(entry.get() != null) {
+          names.add(entry.type());
+        };
+      };
+      return names;
+    };
+
+    /**
+     * Counts the events of a type inside a window, from the counters of
+     * its segments; only segments at the edges of the window are scanned.
+     *
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return amount of events inside the window
+     */
+    public long count(String type, long startTime, long endTime) {
+      long started = clock();
+      EventIndex index = touch(indexOf(type));
+      long count = index == null ? 0 : index.count(startTime, endTime);
+      if(metrics != null) {
+        metrics.aggregated(started);
+      };
+      return count;
+    };
+
+    /**
+     * Counts the events of a type in buckets, from the counters of the
+     * segments inside a single bucket.
+     *
+     * @param type
+     * @param startTime   Start timestamp (inclusive).
+     * @param endTime     End timestamp (exclusive).
+     * @param bucketWidth
+     * @return amount of events of each bucket
+     */
+    public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+      long started = clock();
+      EventIndex index = touch(indexOf(type));
+      long[] histogram = index == null ? new long[Buckets.count(startTime, endTime, bucketWidth)]
+          : index.histogram(startTime, endTime, bucketWidth);
+      if(metrics != null) {
+        metrics.aggregated(started);
+      };
+      return histogram;
+    };
+
+    public OptionalLong minTimestamp(String type, long startTime, long endTime) {
+      long started = clock();
+      EventIndex index = touch(indexOf(type));
+      OptionalLong min = index == null ? OptionalLong.empty() : index.minTimestamp(startTime, endTime);
+      if(metrics != null) {
+        metrics.aggregated(started);
+      };
+      return min;
+    };
+
+    public OptionalLong maxTimestamp(String type, long startTime, long endTime) {
+      long started = clock();
+      EventIndex index = touch(indexOf(type));
+      OptionalLong max = index == null ? OptionalLong.empty() : index.maxTimestamp(startTime, endTime);
+      if(metrics != null) {
+        metrics.aggregated(started);
+      };
+      return max;
+    };
+
+    /**
+     * Resolves a type once. Operations through the handle go straight to
+     * the entry of the type, without hashing its name.
+     *
+     * @param type
+     * @return handle of type
+     */
+    public TypeHandle typeHandle(String type) {
+      return new Handle(types.entry(type));
+    };
+
+    /**
+     * Method to stamp a query on the index it reads, when the store has a
+     * memory budget
+     * @param index
+     * @return the index
+     */
+    private EventIndex touch(EventIndex index) {
+      if(budget != null && index != null) {
+        index.queried(budget.queried());
+      };
+      return index;
+    };
+
+    /**
+     * Method to evict the oldest segment of the type chosen by the
+     * eviction policy of the budget
+     * @return bytes released, -1 if nothing was evicted
+     */
+    private long evictOne() {
+      List<EvictionPolicy.TypeUsage> usages = new ArrayList<>();
+      Map<String, EventIndex> indexes = new HashMap<>();
+      for(TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+        EventIndex index = entry.get();
+        EvictionPolicy.TypeUsage usage = index == null ? null : index.usage(entry.type());
+        if(usage != null) {
+          usages.add(usage);
+          indexes.put(entry.type(), index);
+        };
+      };
+      String type = budget.eviction().select(usages);
+      EventIndex index = type == null ? null : indexes.get(type);
+      return index == null ? -1 : index.evictOldest();
+    };
+
+    /**
+     * @return current time in nanoseconds, or 0 without metrics
+     */
+    private long clock() {
+      return metrics == null ? 0 : System.nanoTime();
+    };
+
+    /**
+     * @return the pool delivering to subscriptions, created on first use
+     */
+    private ExecutorService deliveries() {
+      ExecutorService executor = deliveries;
+      if(executor == null) {
+        synchronized(this) {
+          if(deliveries == null) {
+            deliveries = Executors.newCachedThreadPool(runnable -> {
+              Thread thread = new Thread(runnable, "event-store-subscription");
+              thread.setDaemon(true);
+              return thread;
+            });
+          };
+          executor = deliveries;
+        };
+      };
+      return executor;
+    };
+
+    /**
+     * Method to unlink the index of a type, keeping it aside if a snapshot
+     * is open
+     * @param entry
+     */
+    private void unlink(TypeDictionary.Entry<EventIndex> entry) {
+      long epoch = versions.enter();
+      try {
+        boolean keep = versions.oldest() != Versions.LIVE;
+        EventIndex index = entry.get();
+        while(index != null) {
+          // retired before unlinking, so snapshots find it in one of both
+          Retired removed = keep ? new Retired(entry.type(), index, epoch) : null;
+          if(keep) {
+            synchronized(retired) {
+              retired.add(removed);
+            };
+          };
+          if(entry.compareAndSet(index, null)) {
+            index.complete();
+            index.release();
+            return;
+          };
+          // a concurrent removeAll won, so it is not ours to keep
+          if(keep) {
+            synchronized(retired) {
+              retired.remove(removed);
+            };
+          };
+          index = entry.get();
+        };
+      } finally {
+        versions.exit(epoch);
+      }
+    };
+
+    /**
+     * @param type
+     * @return the index linked to type, null if there is none
+     */
+    private EventIndex indexOf(String type) {
+      TypeDictionary.Entry<EventIndex> entry = types.find(type);
+      return entry == null ? null : entry.get();
+    };
+
+    /**
+     * Method to get the time index of a type, creating it if needed
+     * @param entry
+     * @return the index linked to entry
+     */
+    private EventIndex indexFor(TypeDictionary.Entry<EventIndex> entry) {
+      // if already have event type, then just read it
+      EventIndex index = entry.get();
+      // else, link the new time index atomically, so concurrent first
+      // inserts of a type all get the same index
+      while(index == null) {
+        EventIndex created = new EventIndex(segmentWidth, versions, budget);
+        index = entry.compareAndSet(null, created) ? created : entry.get();
+      };
+      return index;
+    };
+
+    /**
+     * Handle of a type, bound to its dictionary entry
+     */
+    private final class Handle implements TypeHandle {
+      private final TypeDictionary.Entry<EventIndex> entry;
+
+      Handle(TypeDictionary.Entry<EventIndex> entry) {
+        this.entry = entry;
+      }
+
+      @Override
+      public String type() {
+        return entry.type();
+      }
+
+      @Override
+      public void insert(long timestamp) {
+        EventStoreImpl.this.insert(entry, new Event(entry.type(), timestamp));
+      }
+
+      @Override
+      public void removeAll() {
+        long started = clock();
+        unlink(entry);
+        if(metrics != null) {
+          metrics.removed(started);
+        };
+      }
+
+      @Override
+      public void removeBefore(long timestamp) {
+        long started = clock();
+        EventIndex index = entry.get();
+        if(index != null) {
+          index.removeBefore(timestamp);
+        };
+        if(metrics != null) {
+          metrics.removed(started);
+        };
+      }
+
+      @Override
+      public EventIterator query(long startTime, long endTime) {
+        long started = clock();
+        EventIndex index = entry.get();
+        if(index == null) {
+          return null;
+        };
+        touch(index);
+        EventIteratorImpl iterator = new EventIteratorImpl(index, startTime, endTime);
+        return metrics == null ? iterator : metrics.query(iterator, started);
+      }
+    }
+
+    /**
+     * Index removed while a snapshot was open, with the epoch of the removal
+     */
+    private static final class Retired {
+      final String type;
+      final EventIndex index;
+      final long epoch;
+
+      Retired(String type, EventIndex index, long epoch) {
+        this.type = type;
+        this.index = index;
+        this.epoch = epoch;
+      }
+    }
+}
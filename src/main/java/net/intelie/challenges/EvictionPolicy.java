@@ -0,0 +1,119 @@
+package net.intelie.challenges;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses what a {@link MemoryBudget} evicts when a store goes over it.
+ * <p>
+ * Eviction drops the oldest segment of a type as a whole, so each step
+ * costs the same whatever the amount of events; the policy only picks the
+ * type. It is called again until the store fits its budget.
+ */
+public interface EvictionPolicy {
+    /**
+     * @param usages every type with some segment
+     * @return type whose oldest segment is evicted next, null to evict
+     * nothing more
+     */
+    String select(List<TypeUsage> usages);
+
+    /**
+     * @return policy evicting the oldest segment among every type
+     */
+    static EvictionPolicy oldestSegment() {
+        return usages -> {
+            TypeUsage oldest = null;
+            for (TypeUsage usage : usages) {
+                if (oldest == null || usage.getOldestTimestamp() < oldest.getOldestTimestamp()) {
+                    oldest = usage;
+                };
+            };
+            return oldest == null ? null : oldest.getType();
+        };
+    }
+
+    /**
+     * @param quotas       bytes each type may keep
+     * @param defaultQuota bytes kept by types without a quota
+     * @return policy evicting from the type most over its quota, and
+     * nothing while every type is within it
+     */
+    static EvictionPolicy typeQuotas(Map<String, Long> quotas, long defaultQuota) {
+        Map<String, Long> copy = new HashMap<>(quotas);
+        return usages -> {
+            TypeUsage worst = null;
+            long worstExcess = 0;
+            for (TypeUsage usage : usages) {
+                long excess = usage.getBytes() - copy.getOrDefault(usage.getType(), defaultQuota);
+                if (excess > worstExcess) {
+                    worst = usage;
+                    worstExcess = excess;
+                };
+            };
+            return worst == null ? null : worst.getType();
+        };
+    }
+
+    /**
+     * @return policy evicting from the type queried longest ago, types
+     * never queried first, and the oldest segment among ties
+     */
+    static EvictionPolicy leastRecentlyQueried() {
+        return usages -> {
+            TypeUsage least = null;
+            for (TypeUsage usage : usages) {
+                if (least == null || usage.getLastQueried() < least.getLastQueried()
+                        || (usage.getLastQueried() == least.getLastQueried()
+                        && usage.getOldestTimestamp() < least.getOldestTimestamp())) {
+                    least = usage;
+                };
+            };
+            return least == null ? null : least.getType();
+        };
+    }
+
+    /**
+     * Memory of a type, as accounted by its store
+     */
+    final class TypeUsage {
+        private final String type;
+        private final long bytes;
+        private final long oldestTimestamp;
+        private final long lastQueried;
+
+        TypeUsage(String type, long bytes, long oldestTimestamp, long lastQueried) {
+            this.type = type;
+            this.bytes = bytes;
+            this.oldestTimestamp = oldestTimestamp;
+            this.lastQueried = lastQueried;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return bytes accounted to the type
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return start of the bucket of its oldest segment
+         */
+        public long getOldestTimestamp() {
+            return oldestTimestamp;
+        }
+
+        /**
+         * @return order of its last query among the queries of the store,
+         * 0 if never queried
+         */
+        public long getLastQueried() {
+            return lastQueried;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds.
+ * <p>
+ * Buckets are laid out like HdrHistogram: values below
+ * {@code 2 * SUB_BUCKETS} get a bucket each, and every power of two above
+ * them is split in {@code SUB_BUCKETS} linear buckets, so a percentile is
+ * reported with a relative error under {@code 1 / SUB_BUCKETS} whatever its
+ * magnitude. Recording is one {@link LongAdder} increment, which stays
+ * cheap when many threads record at once.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Method to record a latency
+     * @param nanos negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets[bucket(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return copy of the counts. Recordings running meanwhile may or may
+     * not be included
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
+    }
+
+    /**
+     * @param value non-negative
+     * @return bucket of value
+     */
+    static int bucket(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @param bucket
+     * @return greatest value recorded in bucket
+     */
+    static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable copy of a histogram. Getters are exposed as a composite
+     * attribute through JMX
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return amount of latencies recorded
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return mean latency in nanoseconds, 0 if none was recorded
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @return greatest latency in nanoseconds
+         */
+        public long getMax() {
+            return max;
+        }
+
+        public long getP50() {
+            return percentile(50);
+        }
+
+        public long getP90() {
+            return percentile(90);
+        }
+
+        public long getP99() {
+            return percentile(99);
+        }
+
+        public long getP999() {
+            return percentile(99.9);
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         * @return latency in nanoseconds that percentile of the recordings
+         * did not exceed, 0 if none was recorded
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Memory limit of an {@link EventStoreImpl}, with what to do when it is
+ * reached.
+ * <p>
+ * The store accounts the bytes of each type as it goes: each insert adds the
+ * slot, event and payload it keeps, each segment its fixed overhead, and
+ * dropping, sealing or thawing a segment adjusts its type by the difference.
+ * So checking the budget costs an add and a sum, never a scan. Removing
+ * single events releases nothing, only whole segments do. The accounting
+ * is an estimate, like {@link EventIndex#estimatedBytes()}.
+ * <p>
+ * An insert that would go over the limit first evicts, one whole segment at
+ * a time, from the types its {@link EvictionPolicy} selects. If there is no
+ * policy, or it finds nothing more to evict, the insert is refused with
+ * IllegalStateException ({@link Admission#REJECT}) or waits for memory
+ * released by removals, retention or compaction ({@link Admission#BLOCK}).
+ * Only one insert evicts at a time.
+ * <p>
+ * Admitting an insert reserves its bytes with a compare-and-set, so
+ * concurrent inserts never admit more than the limit together. The store
+ * gives the reservation back once the insert has charged what it keeps.
+ * <p>
+ * A budget belongs to a single store.
+ */
+public final class MemoryBudget {
+    /**
+     * What an insert does when eviction cannot make room
+     */
+    public enum Admission {
+        /**
+         * Refuse the insert at once
+         */
+        REJECT,
+        /**
+         * Wait for room up to the maximum wait, then refuse it
+         */
+        BLOCK
+    }
+
+    private final long limit;
+    private final EvictionPolicy eviction;
+    private final Admission admission;
+    private final long maxWaitNanos;
+    private final LongAdder used = new LongAdder();
+    // bytes admitted but not charged yet
+    private final AtomicLong reserved = new AtomicLong();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicBoolean bound = new AtomicBoolean();
+    private volatile int waiting = 0;
+
+    /**
+     * @param limit    bytes the store may keep
+     * @param eviction policy choosing what to evict, null to never evict
+     */
+    public MemoryBudget(long limit, EvictionPolicy eviction) {
+        this(limit, eviction, Admission.REJECT, 0);
+    }
+
+    /**
+     * @param limit     bytes the store may keep
+     * @param eviction  policy choosing what to evict, null to never evict
+     * @param admission what inserts do when eviction cannot make room
+     * @param maxWait   longest an insert waits for room with
+     *                  {@link Admission#BLOCK}, in milliseconds
+     */
+    public MemoryBudget(long limit, EvictionPolicy eviction, Admission admission, long maxWait) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        };
+        if (maxWait < 0) {
+            throw new IllegalArgumentException("maxWait must not be negative");
+        };
+        this.limit = limit;
+        this.eviction = eviction;
+        this.admission = admission;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWait);
+    }
+
+    /**
+     * @return bytes the store may keep
+     */
+    public long limit() {
+        return limit;
+    }
+
+    /**
+     * @return bytes accounted to the store now
+     */
+    public long used() {
+        return used.sum();
+    }
+
+    /**
+     * @return amount of segments evicted so far
+     */
+    public long evicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * @return amount of inserts refused so far
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    EvictionPolicy eviction() {
+        return eviction;
+    }
+
+    /**
+     * Method to bind the budget to its store, once
+     */
+    void bind() {
+        if (!bound.compareAndSet(false, true)) {
+            throw new IllegalArgumentException("budget already belongs to a store");
+        };
+    }
+
+    /**
+     * @return the next position in the order of queries, for
+     * {@link EvictionPolicy#leastRecentlyQueried()}
+     */
+    long queried() {
+        return queries.incrementAndGet();
+    }
+
+    /**
+     * @param bytes added to the store, negative if released
+     */
+    void charge(long bytes) {
+        used.add(bytes);
+        if (bytes < 0) {
+            signal();
+        };
+    }
+
+    /**
+     * Method to give back the reservation of an admitted insert, once it
+     * charged what it keeps or failed
+     * @param bytes given to {@link #admit}
+     */
+    void settle(long bytes) {
+        reserved.addAndGet(-bytes);
+        signal();
+    }
+
+    /**
+     * Method to make room for an insert, evicting if needed, and reserve
+     * it. The reservation must be given back with {@link #settle}
+     * @param bytes about to be inserted
+     * @param evictOne evicts one segment chosen by the policy, returning
+     *                 the bytes released or -1 if nothing was evicted
+     * @throws IllegalStateException if there is no room
+     */
+    void admit(long bytes, LongSupplier evictOne) {
+        if (reserve(bytes)) {
+            return;
+        };
+        if (eviction != null) {
+            boolean admitted;
+            synchronized (this) {
+                // another insert may have evicted meanwhile
+                while (!(admitted = reserve(bytes))) {
+                    if (evictOne.getAsLong() < 0) {
+                        break;
+                    };
+                    evicted.increment();
+                };
+            };
+            if (admitted) {
+                return;
+            };
+        };
+        if (admission == Admission.BLOCK && await(bytes)) {
+            return;
+        };
+        rejected.increment();
+        throw new IllegalStateException("memory budget of " + limit + " bytes exceeded");
+    }
+
+    /**
+     * @return true if the bytes fit and were reserved
+     */
+    private boolean reserve(long bytes) {
+        long current;
+        do {
+            current = reserved.get();
+            if (used.sum() + current + bytes > limit) {
+                return false;
+            };
+        } while (!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    private void signal() {
+        if (waiting > 0) {
+            synchronized (this) {
+                notifyAll();
+            };
+        };
+    }
+
+    /**
+     * @return true if room was released before the maximum wait
+     */
+    private synchronized boolean await(long bytes) {
+        long deadline = System.nanoTime() + maxWaitNanos;
+        boolean interrupted = false;
+        waiting++;
+        try {
+            while (!reserve(bytes)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                };
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                };
+            };
+            return true;
+        } finally {
+            waiting--;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            };
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package net.intelie.challenges;
+
+import java.util.List;
+
+/**
+ * Lazy k-way merge of iterators that are each ordered by timestamp.
+ * <p>
+ * The sources are kept in a binary min-heap keyed by the timestamp of
+ * their current event, so each {@link #moveNext()} advances one source
+ * and sifts it down in O(log k), without copying any event. Events with
+ * the same timestamp come in the order of their sources.
+ * <p>
+ * {@link #remove()} removes the current event through the source it came
+ * from.
+ */
+public class MergingEventIterator implements EventIterator {
+    private final List<EventIterator> sources;
+    private Source[] heap;
+    private int size = 0;
+    private boolean selected = false;
+
+    /**
+     * @param sources iterators ordered by timestamp, null ones are ignored.
+     *                They are only moved by this iterator from now on
+     */
+    public MergingEventIterator(List<EventIterator> sources) {
+        this.sources = sources;
+    }
+
+    /**
+     * Move the iterator to the next event, if any.
+     *
+     * @return false if the iterator has reached the end, true otherwise.
+     */
+    @Override
+    public boolean moveNext() {
+        if (heap == null) {
+            // sources are only started on the first call, keeping it lazy
+            heap = new Source[sources.size()];
+            for (int i = 0; i < sources.size(); i++) {
+                EventIterator iterator = sources.get(i);
+                if (iterator != null && iterator.moveNext()) {
+                    heap[size++] = new Source(iterator, i);
+                };
+            };
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            };
+        } else if (selected) {
+            Source top = heap[0];
+            if (top.advance()) {
+                siftDown(0);
+            } else {
+                heap[0] = heap[--size];
+                heap[size] = null;
+                siftDown(0);
+            };
+        };
+        selected = size > 0;
+        return selected;
+    }
+
+    /**
+     * Gets the current event of the iterator.
+     *
+     * @return the event itself.
+     */
+    @Override
+    public Event current() {
+        if (!selected) {
+            throw new IllegalStateException();
+        };
+        return heap[0].iterator.current();
+    }
+
+    /**
+     * Removes the current event from its source.
+     */
+    @Override
+    public void remove() {
+        if (!selected) {
+            throw new IllegalStateException();
+        };
+        heap[0].iterator.remove();
+    }
+
+    @Override
+    public boolean tryRemove() {
+        if (!selected) {
+            throw new IllegalStateException();
+        };
+        return heap[0].iterator.tryRemove();
+    }
+
+    /**
+     * Closes every source, rethrowing the first failure after all of
+     * them were closed.
+     */
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (EventIterator iterator : sources) {
+            try {
+                if (iterator != null) {
+                    iterator.close();
+                };
+            } catch (Exception e) {
+                failure = failure == null ? e : failure;
+            };
+        };
+        selected = false;
+        size = 0;
+        heap = new Source[0];
+        if (failure != null) {
+            throw failure;
+        };
+    }
+
+    private void siftDown(int index) {
+        Source source = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            };
+            if (child + 1 < size && heap[child + 1].before(heap[child])) {
+                child++;
+            };
+            if (!heap[child].before(source)) {
+                break;
+            };
+            heap[index] = heap[child];
+            index = child;
+        };
+        if (index < size) {
+            heap[index] = source;
+        };
+    }
+
+    /**
+     * Source iterator with the timestamp of its current event as key
+     */
+    private static final class Source {
+        final EventIterator iterator;
+        final int order;
+        long timestamp;
+
+        Source(EventIterator iterator, int order) {
+            this.iterator = iterator;
+            this.order = order;
+            this.timestamp = iterator.current().timestamp();
+        }
+
+        boolean advance() {
+            if (!iterator.moveNext()) {
+                return false;
+            };
+            timestamp = iterator.current().timestamp();
+            return true;
+        }
+
+        boolean before(Source other) {
+            return timestamp < other.timestamp || (timestamp == other.timestamp && order < other.order);
+        }
+    }
+}
@@ -0,0 +1,611 @@
+package net.intelie.challenges;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Event store that keeps events outside of the Java heap.
+ * <p>
+ * Each type is a partition of fixed size slabs of direct {@link ByteBuffer}s,
+ * holding 24 byte records (timestamp, insertion sequence, type id and flags)
+ * sorted by timestamp and sequence. There are no per-event objects, so the
+ * garbage collector only sees a few objects per slab, whatever the amount of
+ * events. {@link Event} objects are only created when
+ * {@link EventIterator#current()} is called.
+ * <p>
+ * Slabs are allocated up to a configurable memory cap; past it, inserts fail
+ * with IllegalStateException. Freed slabs return their bytes to the cap right
+ * away, while the native memory itself is released when their buffer is
+ * collected.
+ * <p>
+ * In-order inserts append to the last slab. Late events are shifted into
+ * place inside their slab, which is split when full. Each partition is
+ * guarded by a read-write lock: readers step iterators concurrently, writers
+ * of the same type are serialized. Iterators are weakly consistent: when
+ * records move under them they seek again after the (timestamp, sequence)
+ * of their current record.
+ * <p>
+ * Type ids come from a {@link TypeDictionary}, and events rebuilt by
+ * iterators share the canonical type String of the dictionary.
+ * <p>
+ * Records have no room for a {@link Payload}, so events with one are
+ * refused.
+ */
+public class OffHeapEventStore implements EventStore {
+    /**
+     * Default amount of records of each slab
+     */
+    public static final int DEFAULT_SLAB_RECORDS = 4096;
+
+    static final int RECORD_BYTES = 24;
+    private static final int TIMESTAMP = 0;
+    private static final int SEQUENCE = 8;
+    private static final int TYPE_ID = 16;
+    private static final int FLAGS = 20;
+    private static final int REMOVED = 1;
+
+    private final long memoryCap;
+    private final int slabRecords;
+    private final AtomicLong allocated = new AtomicLong();
+    private final TypeDictionary<Partition> types = new TypeDictionary<>();
+
+    /**
+     * @param memoryCap maximum bytes of off-heap memory used by slabs
+     */
+    public OffHeapEventStore(long memoryCap) {
+        this(memoryCap, DEFAULT_SLAB_RECORDS);
+    }
+
+    /**
+     * @param memoryCap   maximum bytes of off-heap memory used by slabs
+     * @param slabRecords amount of records of each slab
+     */
+    public OffHeapEventStore(long memoryCap, int slabRecords) {
+        if (slabRecords < 2 || slabRecords > Integer.MAX_VALUE / RECORD_BYTES) {
+            throw new IllegalArgumentException("invalid slabRecords");
+        };
+        this.memoryCap = memoryCap;
+        this.slabRecords = slabRecords;
+    }
+
+    /**
+     * Stores an event. Events with the same type and timestamp are all
+     * kept, and iterated in insertion order.
+     *
+     * @param event
+     * @throws IllegalStateException if the memory cap was reached
+     * @throws IllegalArgumentException if the event has a payload
+     */
+    @Override
+    public void insert(Event event) {
+        if (!event.payload().isEmpty()) {
+            throw new IllegalArgumentException("payloads are not kept off-heap");
+        };
+        // a partition closed by a concurrent removeAll refuses the insert,
+        // so it is retried on the new partition of the type
+        while (!partitionFor(event.type()).insert(event.timestamp())) {
+            Thread.yield();
+        };
+    }
+
+    /**
+     * Removes all events of specific type, releasing its slabs.
+     *
+     * @param type
+     */
+    @Override
+    public void removeAll(String type) {
+        TypeDictionary.Entry<Partition> entry = types.find(type);
+        Partition partition = entry == null ? null : entry.getAndSet(null);
+        if (partition != null) {
+            partition.close();
+        };
+    }
+
+    /**
+     * Removes all events of specific type older than a timestamp.
+     *
+     * @param type
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    @Override
+    public void removeBefore(String type, long timestamp) {
+        Partition partition = partitionOf(type);
+        if (partition != null) {
+            partition.removeBefore(timestamp);
+        };
+    }
+
+    /**
+     * Removes all events of every type older than a timestamp.
+     *
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    @Override
+    public void removeBefore(long timestamp) {
+        for (TypeDictionary.Entry<Partition> entry : types.entries()) {
+            Partition partition = entry.get();
+            if (partition != null) {
+                partition.removeBefore(timestamp);
+            };
+        };
+    }
+
+    /**
+     * Retrieves an iterator for events based on their type and timestamp.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator where all its events have same type as
+     * {@param type} and timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive). Null if the type
+     * has no events.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime) {
+        Partition partition = partitionOf(type);
+        if (partition == null) {
+            return null;
+        };
+        return new Cursor(partition, startTime, endTime);
+    }
+
+    /**
+     * @return the types with a partition, weakly consistent
+     */
+    @Override
+    public Collection<String> types() {
+        List<String> names = new ArrayList<>();
+        for (TypeDictionary.Entry<Partition> entry : types.entries()) {
+            if (entry.get() != null) {
+                names.add(entry.type());
+            };
+        };
+        return names;
+    }
+
+    /**
+     * @return bytes of off-heap memory taken by slabs
+     */
+    public long allocatedBytes() {
+        return allocated.get();
+    }
+
+    private Partition partitionFor(String type) {
+        TypeDictionary.Entry<Partition> entry = types.entry(type);
+        Partition partition = entry.get();
+        while (partition == null) {
+            Partition created = new Partition(entry.type(), entry.id());
+            partition = entry.compareAndSet(null, created) ? created : entry.get();
+        };
+        return partition;
+    }
+
+    private Partition partitionOf(String type) {
+        TypeDictionary.Entry<Partition> entry = types.find(type);
+        return entry == null ? null : entry.get();
+    }
+
+    /**
+     * Method to take a new slab from the memory cap
+     */
+    private Slab allocate() {
+        long bytes = (long) slabRecords * RECORD_BYTES;
+        if (allocated.addAndGet(bytes) > memoryCap) {
+            allocated.addAndGet(-bytes);
+            throw new IllegalStateException("off-heap memory cap of " + memoryCap + " bytes reached");
+        };
+        return new Slab(ByteBuffer.allocateDirect((int) bytes));
+    }
+
+    private void release(Slab slab) {
+        allocated.addAndGet(-(long) slab.buffer.capacity());
+    }
+
+    /**
+     * Sorted run of records inside a direct buffer
+     */
+    private static final class Slab {
+        final ByteBuffer buffer;
+        int count = 0;
+        int live = 0;
+
+        Slab(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        long timestamp(int record) {
+            return buffer.getLong(record * RECORD_BYTES + TIMESTAMP);
+        }
+
+        long sequence(int record) {
+            return buffer.getLong(record * RECORD_BYTES + SEQUENCE);
+        }
+
+        boolean isRemoved(int record) {
+            return (buffer.getInt(record * RECORD_BYTES + FLAGS) & REMOVED) != 0;
+        }
+
+        void markRemoved(int record) {
+            buffer.putInt(record * RECORD_BYTES + FLAGS, REMOVED);
+            live--;
+        }
+
+        void write(int record, long timestamp, long sequence, int typeId) {
+            int offset = record * RECORD_BYTES;
+            buffer.putLong(offset + TIMESTAMP, timestamp);
+            buffer.putLong(offset + SEQUENCE, sequence);
+            buffer.putInt(offset + TYPE_ID, typeId);
+            buffer.putInt(offset + FLAGS, 0);
+        }
+
+        /**
+         * Method to copy records [from, to) of source to the given position
+         */
+        void copy(Slab source, int from, int to, int position) {
+            // backwards, so it also works when moving right inside the same slab
+            for (int i = to - from - 1; i >= 0; i--) {
+                int sourceOffset = (from + i) * RECORD_BYTES;
+                int targetOffset = (position + i) * RECORD_BYTES;
+                buffer.putLong(targetOffset + TIMESTAMP, source.buffer.getLong(sourceOffset + TIMESTAMP));
+                buffer.putLong(targetOffset + SEQUENCE, source.buffer.getLong(sourceOffset + SEQUENCE));
+                // type id and flags together
+                buffer.putLong(targetOffset + TYPE_ID, source.buffer.getLong(sourceOffset + TYPE_ID));
+            };
+        }
+
+        /**
+         * @return first record with timestamp equal or after the given one
+         */
+        int lowerBound(long timestamp) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamp(middle) < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                };
+            };
+            return low;
+        }
+
+        /**
+         * @return first record with timestamp after the given one
+         */
+        int upperBound(long timestamp) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamp(middle) <= timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                };
+            };
+            return low;
+        }
+    }
+
+    /**
+     * All events of a type. Fields are guarded by the lock
+     */
+    private final class Partition {
+        final String type;
+        final int typeId;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        final ArrayList<Slab> slabs = new ArrayList<>();
+        long sequence = 0;
+        // changes whenever records move, so iterators know they must seek again
+        long version = 0;
+        boolean closed = false;
+
+        Partition(String type, int typeId) {
+            this.type = type;
+            this.typeId = typeId;
+        }
+
+        /**
+         * @return false if the partition was closed by removeAll
+         */
+        boolean insert(long timestamp) {
+            lock.writeLock().lock();
+            try {
+                if (closed) {
+                    return false;
+                };
+                Slab slab;
+                int record;
+                int index = slabs.size() - 1;
+                // if empty or in order, then it appends to the last slab
+                if (index < 0 || slabs.get(index).timestamp(slabs.get(index).count - 1) <= timestamp) {
+                    slab = index < 0 ? null : slabs.get(index);
+                    if (slab == null || slab.count == slabRecords) {
+                        slab = allocate();
+                        slabs.add(slab);
+                    };
+                    record = slab.count;
+                }
+                // else, it is shifted into the slab of its timestamp
+                else {
+                    index = slabIndex(timestamp);
+                    slab = slabs.get(index);
+                    record = slab.upperBound(timestamp);
+                    if (slab.count == slabRecords) {
+                        Slab upper = split(index);
+                        if (record > slab.count) {
+                            record -= slab.count;
+                            slab = upper;
+                        };
+                    };
+                    slab.copy(slab, record, slab.count, record + 1);
+                    version++;
+                };
+                slab.write(record, timestamp, sequence++, typeId);
+                slab.count++;
+                slab.live++;
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void removeBefore(long timestamp) {
+            lock.writeLock().lock();
+            try {
+                while (!slabs.isEmpty()) {
+                    Slab slab = slabs.get(0);
+                    // if the whole slab is older, then drop it at once
+                    if (slab.timestamp(slab.count - 1) < timestamp) {
+                        slabs.remove(0);
+                        release(slab);
+                        version++;
+                        continue;
+                    };
+                    for (int record = 0; record < slab.count && slab.timestamp(record) < timestamp; record++) {
+                        if (!slab.isRemoved(record)) {
+                            slab.markRemoved(record);
+                        };
+                    };
+                    dropIfEmpty(0);
+                    break;
+                };
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        void close() {
+            lock.writeLock().lock();
+            try {
+                closed = true;
+                for (Slab slab : slabs) {
+                    release(slab);
+                };
+                slabs.clear();
+                version++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        /**
+         * @return index of the last slab whose first timestamp is not after
+         * the given one, or 0
+         */
+        int slabIndex(long timestamp) {
+            int low = 0;
+            int high = slabs.size() - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (slabs.get(middle).timestamp(0) <= timestamp) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                };
+            };
+            return low;
+        }
+
+        /**
+         * Method to move the upper half of a full slab into a new one
+         * @return the new slab, placed right after the split one
+         */
+        Slab split(int index) {
+            Slab slab = slabs.get(index);
+            Slab upper = allocate();
+            int half = slab.count / 2;
+            upper.copy(slab, half, slab.count, 0);
+            upper.count = slab.count - half;
+            slab.count = half;
+            // removed flags are copied along, so live counters are recounted
+            for (int record = 0; record < upper.count; record++) {
+                if (!upper.isRemoved(record)) {
+                    upper.live++;
+                };
+            };
+            slab.live -= upper.live;
+            slabs.add(index + 1, upper);
+            version++;
+            return upper;
+        }
+
+        /**
+         * Method to drop a slab whose records were all removed
+         */
+        void dropIfEmpty(int index) {
+            Slab slab = slabs.get(index);
+            if (slab.live == 0) {
+                slabs.remove(index);
+                release(slab);
+                version++;
+            };
+        }
+    }
+
+    /**
+     * Weakly consistent iterator over a partition. It keeps the position of
+     * its current record and, when the partition version changed, seeks
+     * again by (timestamp, sequence).
+     */
+    private static final class Cursor implements EventIterator {
+        private final Partition partition;
+        private final long startTime;
+        private final long endTime;
+        private long version = -1;
+        private int slabIndex = 0;
+        private int record = -1;
+        private boolean started = false;
+        private boolean finished = false;
+        private boolean selected = false;
+        private long timestamp;
+        private long sequence;
+
+        Cursor(Partition partition, long startTime, long endTime) {
+            this.partition = partition;
+            this.startTime = startTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public boolean moveNext() {
+            selected = false;
+            if (finished) {
+                return false;
+            };
+            partition.lock.readLock().lock();
+            try {
+                if (!started) {
+                    seek(startTime, Long.MIN_VALUE, false);
+                    started = true;
+                } else if (version != partition.version) {
+                    seek(timestamp, sequence, true);
+                } else {
+                    record++;
+                };
+                version = partition.version;
+                while (slabIndex < partition.slabs.size()) {
+                    Slab slab = partition.slabs.get(slabIndex);
+                    if (record >= slab.count) {
+                        slabIndex++;
+                        record = 0;
+                        continue;
+                    };
+                    if (slab.timestamp(record) >= endTime) {
+                        break;
+                    };
+                    if (!slab.isRemoved(record)) {
+                        timestamp = slab.timestamp(record);
+                        sequence = slab.sequence(record);
+                        selected = true;
+                        return true;
+                    };
+                    record++;
+                };
+                finished = true;
+                return false;
+            } finally {
+                partition.lock.readLock().unlock();
+            }
+        }
+
+        @Override
+        public Event current() {
+            if (!selected) {
+                throw new IllegalStateException();
+            };
+            return new Event(partition.type, timestamp);
+        }
+
+        @Override
+        public void remove() {
+            tryRemove();
+        }
+
+        @Override
+        public boolean tryRemove() {
+            if (!selected) {
+                throw new IllegalStateException();
+            };
+            boolean removed = false;
+            partition.lock.writeLock().lock();
+            try {
+                // if records moved, then find the current one again
+                if (version != partition.version) {
+                    seek(timestamp, sequence, false);
+                    version = partition.version;
+                };
+                if (slabIndex < partition.slabs.size()) {
+                    Slab slab = partition.slabs.get(slabIndex);
+                    if (record < slab.count && slab.sequence(record) == sequence
+                            && slab.timestamp(record) == timestamp && !slab.isRemoved(record)) {
+                        slab.markRemoved(record);
+                        partition.dropIfEmpty(slabIndex);
+                        removed = true;
+                    };
+                };
+            } finally {
+                partition.lock.writeLock().unlock();
+            }
+            selected = false;
+            return removed;
+        }
+
+        @Override
+        public void close() {
+            selected = false;
+            finished = true;
+        }
+
+        /**
+         * Method to position on the first record at or after
+         * (timestamp, sequence), or strictly after it
+         */
+        private void seek(long timestamp, long sequence, boolean after) {
+            List<Slab> slabs = partition.slabs;
+            slabIndex = 0;
+            record = 0;
+            // first slab whose last record is not before the timestamp
+            int low = 0;
+            int high = slabs.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                Slab slab = slabs.get(middle);
+                if (slab.timestamp(slab.count - 1) < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                };
+            };
+            slabIndex = low;
+            if (slabIndex == slabs.size()) {
+                return;
+            };
+            record = slabs.get(slabIndex).lowerBound(timestamp);
+            // skip records of the same timestamp inserted before the sequence
+            while (slabIndex < slabs.size()) {
+                Slab slab = slabs.get(slabIndex);
+                if (record >= slab.count) {
+                    slabIndex++;
+                    record = 0;
+                    continue;
+                };
+                if (slab.timestamp(record) != timestamp) {
+                    return;
+                };
+                long current = slab.sequence(record);
+                if (after ? current > sequence : current >= sequence) {
+                    return;
+                };
+                record++;
+            };
+        }
+    }
+}
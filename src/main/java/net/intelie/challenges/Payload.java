@@ -0,0 +1,384 @@
+package net.intelie.challenges;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable payload of an {@link Event}: opaque bytes or key/value
+ * attributes, kept in the compact encoding of the store.
+ * <p>
+ * The encoding is a marker byte followed by either the opaque bytes or the
+ * amount of attributes and, for each of them, its UTF-8 key and a tagged
+ * value (strings and byte arrays with their length, integers as zigzag
+ * varints, doubles as their 8 bytes). The empty payload has no bytes at all.
+ * <p>
+ * Nothing is decoded up front: {@link #get(String)} walks the encoding and
+ * decodes only the value asked for, and {@link #attributes()} decodes all of
+ * them on each call. Stores that keep many payloads in one array (like
+ * {@link SealedSegment}) hand out slices of it, so reading an event that
+ * carries a payload does not copy or touch its bytes.
+ */
+public final class Payload {
+    /**
+     * Payload of the events created without one
+     */
+    public static final Payload EMPTY = new Payload(new byte[0], 0, 0);
+
+    private static final byte OPAQUE = 0;
+    private static final byte ATTRIBUTES = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte BYTES = 6;
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    private Payload(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @param bytes opaque content, copied
+     * @return payload of the bytes
+     */
+    public static Payload wrap(byte[] bytes) {
+        if (bytes.length == 0) {
+            return EMPTY;
+        };
+        byte[] data = new byte[bytes.length + 1];
+        data[0] = OPAQUE;
+        System.arraycopy(bytes, 0, data, 1, bytes.length);
+        return new Payload(data, 0, data.length);
+    }
+
+    /**
+     * @param attributes values may be null, String, Boolean, byte[] or any
+     *                   Number: Float and Double are kept as Double, the
+     *                   other numbers as Long
+     * @return payload of the attributes, in their iteration order
+     * @throws IllegalArgumentException if a key is null or a value has
+     * another type
+     */
+    public static Payload of(Map<String, ?> attributes) {
+        if (attributes.isEmpty()) {
+            return EMPTY;
+        };
+        Encoder encoder = new Encoder();
+        encoder.write(ATTRIBUTES);
+        encoder.writeVarint(attributes.size());
+        for (Map.Entry<String, ?> attribute : attributes.entrySet()) {
+            if (attribute.getKey() == null) {
+                throw new IllegalArgumentException("attribute keys must not be null");
+            };
+            encoder.writeBytes(attribute.getKey().getBytes(StandardCharsets.UTF_8));
+            encoder.writeValue(attribute.getValue());
+        };
+        return new Payload(encoder.buffer, 0, encoder.length);
+    }
+
+    /**
+     * @param data     holds the encoding, not copied
+     * @param offset   start of the encoding in data
+     * @param length   length of the encoding, see {@link #encodedLength()}
+     * @return payload over a slice of data
+     */
+    static Payload decode(byte[] data, int offset, int length) {
+        if (length == 0) {
+            return EMPTY;
+        };
+        if (offset < 0 || length < 0 || offset + length > data.length
+                || (data[offset] != OPAQUE && data[offset] != ATTRIBUTES)) {
+            throw new IllegalArgumentException("not a payload encoding");
+        };
+        return new Payload(data, offset, length);
+    }
+
+    /**
+     * @return true if there are no bytes and no attributes
+     */
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * @return true if made of attributes, false if opaque or empty
+     */
+    public boolean hasAttributes() {
+        return length > 0 && data[offset] == ATTRIBUTES;
+    }
+
+    /**
+     * @return copy of the opaque bytes, empty if the payload is empty
+     * @throws IllegalStateException if the payload is made of attributes
+     */
+    public byte[] bytes() {
+        if (hasAttributes()) {
+            throw new IllegalStateException("payload has attributes, not opaque bytes");
+        };
+        return length == 0 ? new byte[0] : Arrays.copyOfRange(data, offset + 1, offset + length);
+    }
+
+    /**
+     * Decodes the value of a single attribute, skipping over the others.
+     *
+     * @param key
+     * @return the value, null if absent or null
+     * @throws IllegalStateException if the payload is opaque
+     */
+    public Object get(String key) {
+        Decoder decoder = attributeDecoder();
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        for (int i = decoder.readVarint(); i > 0; i--) {
+            int keyLength = decoder.readVarint();
+            boolean found = keyLength == wanted.length && regionEquals(decoder.position, wanted);
+            decoder.position += keyLength;
+            if (found) {
+                return decoder.readValue();
+            };
+            decoder.skipValue();
+        };
+        return null;
+    }
+
+    /**
+     * @return every attribute, decoded anew on each call, in the order they
+     * were given
+     * @throws IllegalStateException if the payload is opaque
+     */
+    public Map<String, Object> attributes() {
+        Decoder decoder = attributeDecoder();
+        int count = decoder.readVarint();
+        Map<String, Object> attributes = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            int keyLength = decoder.readVarint();
+            String key = new String(data, decoder.position, keyLength, StandardCharsets.UTF_8);
+            decoder.position += keyLength;
+            attributes.put(key, decoder.readValue());
+        };
+        return Collections.unmodifiableMap(attributes);
+    }
+
+    /**
+     * @return length of the encoding
+     */
+    int encodedLength() {
+        return length;
+    }
+
+    /**
+     * Method to copy the encoding, to be read back by {@link #decode}
+     * @param target
+     * @param at first index written in target
+     */
+    void copyTo(byte[] target, int at) {
+        System.arraycopy(data, offset, target, at, length);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        };
+        if (!(other instanceof Payload)) {
+            return false;
+        };
+        Payload payload = (Payload) other;
+        return length == payload.length && payload.regionEquals(payload.offset, data, offset, length);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        };
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        if (hasAttributes()) {
+            return attributes().toString();
+        };
+        return "Payload(" + Math.max(0, length - 1) + " bytes)";
+    }
+
+    private Decoder attributeDecoder() {
+        if (length > 0 && !hasAttributes()) {
+            throw new IllegalStateException("payload is opaque, it has no attributes");
+        };
+        // the empty payload reads as zero attributes
+        return length == 0 ? new Decoder(new byte[] {0}, 0) : new Decoder(data, offset + 1);
+    }
+
+    private boolean regionEquals(int position, byte[] other) {
+        return regionEquals(position, other, 0, other.length);
+    }
+
+    private boolean regionEquals(int position, byte[] other, int otherOffset, int otherLength) {
+        for (int i = 0; i < otherLength; i++) {
+            if (data[position + i] != other[otherOffset + i]) {
+                return false;
+            };
+        };
+        return true;
+    }
+
+    /**
+     * Growing buffer for {@link #of}
+     */
+    private static final class Encoder {
+        byte[] buffer = new byte[64];
+        int length = 0;
+
+        void write(int b) {
+            ensure(1);
+            buffer[length++] = (byte) b;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            };
+            buffer[length++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            writeVarint(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, length, bytes.length);
+            length += bytes.length;
+        }
+
+        void writeValue(Object value) {
+            if (value == null) {
+                write(NULL);
+            } else if (value instanceof String) {
+                write(STRING);
+                writeBytes(((String) value).getBytes(StandardCharsets.UTF_8));
+            } else if (value instanceof Boolean) {
+                write((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof byte[]) {
+                write(BYTES);
+                writeBytes((byte[]) value);
+            } else if (value instanceof Double || value instanceof Float) {
+                write(DOUBLE);
+                ensure(8);
+                long bits = Double.doubleToRawLongBits(((Number) value).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    buffer[length++] = (byte) (bits >>> shift);
+                };
+            } else if (value instanceof Number) {
+                write(LONG);
+                long number = ((Number) value).longValue();
+                writeVarint((number << 1) ^ (number >> 63));
+            } else {
+                throw new IllegalArgumentException("unsupported attribute value " + value.getClass().getName());
+            };
+        }
+
+        private void ensure(int more) {
+            if (buffer.length - length < more) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + more));
+            };
+        }
+    }
+
+    /**
+     * Cursor over the attributes of an encoding
+     */
+    private static final class Decoder {
+        final byte[] data;
+        int position;
+
+        Decoder(byte[] data, int position) {
+            this.data = data;
+            this.position = position;
+        }
+
+        int readVarint() {
+            return (int) readLong();
+        }
+
+        long readLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        Object readValue() {
+            byte tag = data[position++];
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING: {
+                    int length = readVarint();
+                    String value = new String(data, position, length, StandardCharsets.UTF_8);
+                    position += length;
+                    return value;
+                }
+                case LONG: {
+                    long zigzag = readLong();
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                case DOUBLE: {
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = bits << 8 | (data[position++] & 0xFF);
+                    };
+                    return Double.longBitsToDouble(bits);
+                }
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case BYTES: {
+                    int length = readVarint();
+                    byte[] value = Arrays.copyOfRange(data, position, position + length);
+                    position += length;
+                    return value;
+                }
+                default:
+                    throw new IllegalStateException("corrupt payload, unknown tag " + tag);
+            }
+        }
+
+        void skipValue() {
+            byte tag = data[position++];
+            switch (tag) {
+                case STRING:
+                case BYTES:
+                    int length = readVarint();
+                    position += length;
+                    break;
+                case LONG:
+                    readLong();
+                    break;
+                case DOUBLE:
+                    position += 8;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,907 @@
+package net.intelie.challenges;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Event store that survives restarts, decorating an in-memory store.
+ * <p>
+ * Every insert and removal is appended to a write-ahead log
+ * ({@code wal-<generation>.log}) before returning. Appends are group
+ * committed: a single flusher thread writes and forces everything that was
+ * appended while the previous force was running, so concurrent writers
+ * share one fsync.
+ * <p>
+ * {@link #checkpoint()} (also run periodically) starts a new log generation
+ * and writes one compact file per type, with its sorted timestamps, to
+ * {@code snapshot-<generation>/}; older logs and snapshots are then deleted.
+ * On startup the newest snapshot is memory-mapped and bulk loaded through
+ * {@link EventStore#insertAll}, and only the logs written after it are
+ * replayed. A torn record at the end of a log (a crash in the middle of a
+ * write) is detected by its checksum and ignored.
+ * <p>
+ * Payloads are logged with their insert and removal. In a snapshot, the payloads of a
+ * type go to a {@code .pay} file next to its timestamps, holding only the
+ * positions that have one, so types without payloads keep the plain
+ * format.
+ * <p>
+ * Inserts commute, so they log and apply concurrently; removals are
+ * exclusive, so that the log order is the order they were applied. Events
+ * with timestamp {@link Long#MAX_VALUE} cannot be queried, so checkpoints
+ * do not keep them.
+ */
+public class PersistentEventStore implements EventStore, AutoCloseable {
+    /**
+     * Default time between checkpoints, in milliseconds
+     */
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 10 * 60 * 1000L;
+
+    private static final String LOG = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String PAYLOAD_SUFFIX = ".pay";
+    private static final int SEGMENT_MAGIC = 0x45565347;
+    private static final int LOAD_BATCH = 1 << 16;
+
+    private static final Logger LOGGER = Logger.getLogger(PersistentEventStore.class.getName());
+
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte REMOVE_ALL = 3;
+    private static final byte REMOVE_BEFORE = 4;
+    private static final byte REMOVE_BEFORE_ALL = 5;
+    private static final byte INSERT_PAYLOAD = 6;
+    private static final byte REMOVE_PAYLOAD = 7;
+
+    private final EventStore delegate;
+    private final Path directory;
+    private final Set<String> types = ConcurrentHashMap.newKeySet();
+    private final ReentrantReadWriteLock order = new ReentrantReadWriteLock();
+
+    // appended records waiting for the flusher, guarded by commitLock
+    private final Object commitLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended = 0;
+    private long durable = 0;
+    private boolean closed = false;
+    private IOException failure;
+
+    // current log file, guarded by logLock
+    private final Object logLock = new Object();
+    private FileChannel log;
+    private long generation;
+    private volatile Exception checkpointFailure = null;
+
+    private final Thread flusher;
+    private final ScheduledExecutorService checkpointer;
+
+    /**
+     * Method to open a store in directory, recovering its events
+     * @param delegate empty store that keeps the events in memory
+     * @param directory
+     * @throws IOException
+     */
+    public PersistentEventStore(EventStore delegate, Path directory) throws IOException {
+        this(delegate, directory, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param delegate           empty store that keeps the events in memory
+     * @param directory
+     * @param checkpointInterval time between checkpoints, in milliseconds.
+     *                           If not positive, {@link #checkpoint()} must be
+     *                           called explicitly
+     * @throws IOException
+     */
+    public PersistentEventStore(EventStore delegate, Path directory, long checkpointInterval) throws IOException {
+        this.delegate = delegate;
+        this.directory = directory;
+        recover();
+        this.flusher = new Thread(this::flushLoop, "event-store-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        if (checkpointInterval <= 0) {
+            this.checkpointer = null;
+        } else {
+            this.checkpointer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "event-store-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.checkpointer.scheduleWithFixedDelay(this::scheduledCheckpoint,
+                    checkpointInterval, checkpointInterval, TimeUnit.MILLISECONDS);
+        };
+    }
+
+    /**
+     * Stores an event, returning once it is durable in the log.
+     *
+     * @param event
+     */
+    @Override
+    public void insert(Event event) {
+        long sequence;
+        order.readLock().lock();
+        try {
+            checkOpen();
+            // applied first, so an event the delegate refuses is never logged
+            delegate.insert(event);
+            types.add(event.type());
+            sequence = append(insertRecord(event));
+        } finally {
+            order.readLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Stores a batch of events with a single wait for the log.
+     *
+     * @param events
+     */
+    @Override
+    public void insertAll(Collection<Event> events) {
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int count = 0;
+        for (Event event : events) {
+            if (event != null) {
+                byte[] record = insertRecord(event);
+                batch.write(record, 0, record.length);
+                count++;
+            };
+        };
+        if (count == 0) {
+            return;
+        };
+        long sequence;
+        order.readLock().lock();
+        try {
+            checkOpen();
+            delegate.insertAll(events);
+            for (Event event : events) {
+                if (event != null) {
+                    types.add(event.type());
+                };
+            };
+            sequence = append(batch.toByteArray());
+        } finally {
+            order.readLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Removes all events of specific type.
+     *
+     * @param type
+     */
+    @Override
+    public void removeAll(String type) {
+        long sequence;
+        order.writeLock().lock();
+        try {
+            types.remove(type);
+            sequence = append(record(REMOVE_ALL, type, 0L));
+            delegate.removeAll(type);
+        } finally {
+            order.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Removes all events of specific type older than a timestamp.
+     *
+     * @param type
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    @Override
+    public void removeBefore(String type, long timestamp) {
+        long sequence;
+        order.writeLock().lock();
+        try {
+            sequence = append(record(REMOVE_BEFORE, type, timestamp));
+            delegate.removeBefore(type, timestamp);
+        } finally {
+            order.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Removes all events of every type older than a timestamp.
+     *
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    @Override
+    public void removeBefore(long timestamp) {
+        long sequence;
+        order.writeLock().lock();
+        try {
+            sequence = append(record(REMOVE_BEFORE_ALL, null, timestamp));
+            delegate.removeBefore(timestamp);
+        } finally {
+            order.writeLock().unlock();
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Compacts the events kept in memory. The events stay the same, so
+     * nothing is logged.
+     *
+     * @param timestamp First timestamp kept as is.
+     */
+    @Override
+    public void compact(long timestamp) {
+        delegate.compact(timestamp);
+    }
+
+    /**
+     * Retrieves an iterator for events based on their type and timestamp.
+     * Removals through the iterator are logged too.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator where all its events have same type as
+     * {@param type} and timestamp between {@param startTime}
+     * (inclusive) and {@param endTime} (exclusive).
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime) {
+        EventIterator iterator = delegate.query(type, startTime, endTime);
+        return iterator == null ? null : new LoggedIterator(type, iterator);
+    }
+
+    /**
+     * Read only, so it is the spliterator of the delegate.
+     */
+    @Override
+    public Spliterator<Event> spliterator(String type, long startTime, long endTime) {
+        return delegate.spliterator(type, startTime, endTime);
+    }
+
+    @Override
+    public Subscription subscribe(String type, long fromTimestamp, EventListener listener) {
+        return delegate.subscribe(type, fromTimestamp, listener);
+    }
+
+    @Override
+    public Collection<String> types() {
+        return delegate.types();
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime) {
+        return delegate.count(type, startTime, endTime);
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+        return delegate.histogram(type, startTime, endTime, bucketWidth);
+    }
+
+    @Override
+    public OptionalLong minTimestamp(String type, long startTime, long endTime) {
+        return delegate.minTimestamp(type, startTime, endTime);
+    }
+
+    @Override
+    public OptionalLong maxTimestamp(String type, long startTime, long endTime) {
+        return delegate.maxTimestamp(type, startTime, endTime);
+    }
+
+    /**
+     * Method to write a snapshot of every type and drop the logs before it.
+     * Writers are only blocked while the log is rotated; the snapshot files
+     * are written from a cut of the delegate taken then
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        long next;
+        Path temporary;
+        List<String> cutTypes;
+        StoreSnapshot cut = null;
+        order.writeLock().lock();
+        try {
+            flush();
+            synchronized (logLock) {
+                next = generation + 1;
+                FileChannel previous = log;
+                log = openLog(next);
+                generation = next;
+                previous.close();
+            };
+            temporary = directory.resolve(SNAPSHOT + next + TEMPORARY_SUFFIX);
+            cutTypes = new ArrayList<>(types);
+            // a snapshot of the delegate is the cut, so writers go on while it is written
+            if (delegate instanceof EventStoreImpl) {
+                cut = ((EventStoreImpl) delegate).snapshot();
+            } else {
+                writeSnapshot(temporary, cutTypes, type -> delegate.query(type, Long.MIN_VALUE, Long.MAX_VALUE));
+            };
+        } finally {
+            order.writeLock().unlock();
+        }
+        if (cut != null) {
+            try (StoreSnapshot snapshot = cut) {
+                writeSnapshot(temporary, cutTypes, type -> snapshot.query(type, Long.MIN_VALUE, Long.MAX_VALUE));
+            };
+        };
+        // the rename makes the snapshot visible to recovery at once
+        Files.move(temporary, directory.resolve(SNAPSHOT + next), StandardCopyOption.ATOMIC_MOVE);
+        for (Path path : list()) {
+            long pathGeneration = generationOf(path);
+            if (pathGeneration >= 0 && pathGeneration < next) {
+                delete(path);
+            };
+        };
+    }
+
+    /**
+     * @return the failure of the last periodic checkpoint that failed, null
+     * if none did
+     */
+    public Exception lastCheckpointFailure() {
+        return checkpointFailure;
+    }
+
+    private void scheduledCheckpoint() {
+        // the logs still hold everything, next run tries again; an exception
+        // would cancel every later run
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            checkpointFailure = e;
+            LOGGER.log(Level.WARNING, "checkpoint of " + directory + " failed", e);
+        };
+    }
+
+    /**
+     * Method to flush pending records and release the files
+     */
+    @Override
+    public void close() throws IOException {
+        if (checkpointer != null) {
+            checkpointer.shutdownNow();
+        };
+        synchronized (commitLock) {
+            closed = true;
+            commitLock.notifyAll();
+        };
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        };
+        synchronized (logLock) {
+            flush();
+            log.close();
+        };
+    }
+
+    /**
+     * Method to append records to the pending group
+     * @return sequence to wait for, see {@link #awaitDurable}
+     */
+    private long append(byte[] records) {
+        synchronized (commitLock) {
+            if (closed) {
+                throw new IllegalStateException("store is closed");
+            };
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            };
+            pending.write(records, 0, records.length);
+            commitLock.notifyAll();
+            return ++appended;
+        }
+    }
+
+    private void checkOpen() {
+        synchronized (commitLock) {
+            if (closed) {
+                throw new IllegalStateException("store is closed");
+            };
+        }
+    }
+
+    private void awaitDurable(long sequence) {
+        synchronized (commitLock) {
+            boolean interrupted = false;
+            while (durable < sequence && failure == null) {
+                try {
+                    commitLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                };
+            };
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            };
+            if (durable < sequence) {
+                throw new UncheckedIOException(failure);
+            };
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            synchronized (commitLock) {
+                while (!closed && pending.size() == 0) {
+                    try {
+                        commitLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    };
+                };
+                if (closed) {
+                    return;
+                };
+            };
+            try {
+                flush();
+            } catch (IOException e) {
+                synchronized (commitLock) {
+                    failure = e;
+                    commitLock.notifyAll();
+                };
+                return;
+            };
+        }
+    }
+
+    /**
+     * Method to write and force the pending group. Records appended while
+     * it forces make the next group
+     */
+    private void flush() throws IOException {
+        synchronized (logLock) {
+            ByteBuffer group;
+            long sequence;
+            synchronized (commitLock) {
+                if (pending.size() == 0) {
+                    return;
+                };
+                group = ByteBuffer.wrap(pending.toByteArray());
+                pending = new ByteArrayOutputStream();
+                sequence = appended;
+            };
+            while (group.hasRemaining()) {
+                log.write(group);
+            };
+            log.force(false);
+            synchronized (commitLock) {
+                durable = sequence;
+                commitLock.notifyAll();
+            };
+        }
+    }
+
+    private static byte[] insertRecord(Event event) {
+        if (event.payload().isEmpty()) {
+            return record(INSERT, event.type(), event.timestamp(), null);
+        };
+        return record(INSERT_PAYLOAD, event.type(), event.timestamp(), event.payload());
+    }
+
+    private static byte[] removeRecord(Event event) {
+        if (event.payload().isEmpty()) {
+            return record(REMOVE, event.type(), event.timestamp(), null);
+        };
+        return record(REMOVE_PAYLOAD, event.type(), event.timestamp(), event.payload());
+    }
+
+    private static byte[] record(byte operation, String type, long timestamp) {
+        return record(operation, type, timestamp, null);
+    }
+
+    /**
+     * Method to encode a log record as length, checksum and payload
+     */
+    private static byte[] record(byte operation, String type, long timestamp, Payload content) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        try (DataOutputStream payload = new DataOutputStream(bytes)) {
+            payload.writeInt(0);
+            payload.writeInt(0);
+            payload.writeByte(operation);
+            if (operation != REMOVE_BEFORE_ALL) {
+                payload.writeUTF(type);
+            };
+            payload.writeLong(timestamp);
+            if (content != null) {
+                byte[] encoded = new byte[content.encodedLength()];
+                content.copyTo(encoded, 0);
+                payload.writeInt(encoded.length);
+                payload.write(encoded);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        };
+        ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(0, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Method to load the newest snapshot and replay the logs after it,
+     * then start a new log generation
+     */
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        long snapshot = -1;
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        for (Path path : list()) {
+            String name = path.getFileName().toString();
+            if (name.endsWith(TEMPORARY_SUFFIX)) {
+                // an interrupted checkpoint, its logs are still there
+                delete(path);
+            } else if (name.startsWith(SNAPSHOT)) {
+                snapshot = Math.max(snapshot, generationOf(path));
+            } else if (name.startsWith(LOG)) {
+                logs.put(generationOf(path), path);
+            };
+        };
+        generation = Math.max(snapshot, 0);
+        if (snapshot >= 0) {
+            loadSnapshot(directory.resolve(SNAPSHOT + snapshot));
+        };
+        for (Path path : logs.tailMap(generation, true).values()) {
+            replay(path);
+        };
+        if (!logs.isEmpty()) {
+            generation = Math.max(generation, logs.lastKey());
+        };
+        // a torn tail may end the last log, so new records go to a new one
+        generation++;
+        log = openLog(generation);
+    }
+
+    private void loadSnapshot(Path snapshot) throws IOException {
+        for (Path path : list(snapshot)) {
+            String file = path.getFileName().toString();
+            if (!file.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            };
+            Path payloadPath = path.resolveSibling(file.substring(0, file.length() - SEGMENT_SUFFIX.length()) + PAYLOAD_SUFFIX);
+            ByteBuffer payloads = ByteBuffer.allocate(0);
+            if (Files.exists(payloadPath)) {
+                try (FileChannel channel = FileChannel.open(payloadPath, StandardOpenOption.READ)) {
+                    payloads = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                };
+            };
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (segment.getInt() != SEGMENT_MAGIC) {
+                    throw new IOException("not a segment file: " + path);
+                };
+                byte[] name = new byte[segment.getInt()];
+                segment.get(name);
+                String type = new String(name, StandardCharsets.UTF_8);
+                long count = segment.getLong();
+                LongBuffer timestamps = segment.asLongBuffer();
+                types.add(type);
+                List<Event> batch = new ArrayList<>((int) Math.min(count, LOAD_BATCH));
+                // positions with a payload, in order
+                long next = payloads.hasRemaining() ? payloads.getLong() : -1;
+                for (long i = 0; i < count; i++) {
+                    Payload payload = Payload.EMPTY;
+                    if (i == next) {
+                        byte[] encoded = new byte[payloads.getInt()];
+                        payloads.get(encoded);
+                        payload = Payload.decode(encoded, 0, encoded.length);
+                        next = payloads.hasRemaining() ? payloads.getLong() : -1;
+                    };
+                    batch.add(new Event(type, timestamps.get(), payload));
+                    if (batch.size() == LOAD_BATCH) {
+                        delegate.insertAll(batch);
+                        batch.clear();
+                    };
+                };
+                delegate.insertAll(batch);
+            };
+        };
+    }
+
+    /**
+     * Method to write the events of each type to a snapshot directory
+     * @param snapshot
+     * @param types
+     * @param events   gives an iterator over every event of a type, null if
+     *                 it has none
+     * @throws IOException
+     */
+    private void writeSnapshot(Path snapshot, Collection<String> types, Function<String, EventIterator> events)
+            throws IOException {
+        Files.createDirectories(snapshot);
+        int file = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(LOAD_BATCH * 8);
+        for (String type : types) {
+            EventIterator iterator = events.apply(type);
+            if (iterator == null) {
+                continue;
+            };
+            byte[] name = type.getBytes(StandardCharsets.UTF_8);
+            Path path = snapshot.resolve(file + SEGMENT_SUFFIX);
+            Path payloadPath = snapshot.resolve(file++ + PAYLOAD_SUFFIX);
+            FileChannel payloadChannel = null;
+            DataOutputStream payloads = null;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(16 + name.length);
+                header.putInt(SEGMENT_MAGIC).putInt(name.length).put(name).putLong(0L);
+                header.flip();
+                write(channel, header);
+                long count = 0;
+                while (iterator.moveNext()) {
+                    Event event = iterator.current();
+                    buffer.putLong(event.timestamp());
+                    if (!event.payload().isEmpty()) {
+                        if (payloads == null) {
+                            payloadChannel = FileChannel.open(payloadPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                            payloads = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(payloadChannel)));
+                        };
+                        byte[] encoded = new byte[event.payload().encodedLength()];
+                        event.payload().copyTo(encoded, 0);
+                        payloads.writeLong(count);
+                        payloads.writeInt(encoded.length);
+                        payloads.write(encoded);
+                    };
+                    count++;
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        write(channel, buffer);
+                        buffer.clear();
+                    };
+                };
+                buffer.flip();
+                write(channel, buffer);
+                buffer.clear();
+                // the count is only known at the end
+                header.clear();
+                header.putLong(0, count);
+                header.position(0).limit(8);
+                channel.write(header, 8 + name.length);
+                channel.force(true);
+                if (payloads != null) {
+                    payloads.flush();
+                    payloadChannel.force(true);
+                };
+            } finally {
+                if (payloads != null) {
+                    payloads.close();
+                };
+            };
+        };
+    }
+
+    /**
+     * Method to apply the records of a log, up to its first torn record.
+     * Runs of inserts are applied in bulk
+     */
+    private void replay(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            List<Event> inserts = new ArrayList<>();
+            while (records.remaining() >= 8) {
+                int length = records.getInt();
+                int checksum = records.getInt();
+                if (length <= 0 || length > records.remaining()) {
+                    break;
+                };
+                byte[] payload = new byte[length];
+                records.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                };
+                DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+                byte operation = input.readByte();
+                String type = operation == REMOVE_BEFORE_ALL ? null : input.readUTF();
+                long timestamp = input.readLong();
+                Payload content = Payload.EMPTY;
+                if (operation == INSERT_PAYLOAD || operation == REMOVE_PAYLOAD) {
+                    byte[] encoded = new byte[input.readInt()];
+                    input.readFully(encoded);
+                    content = Payload.decode(encoded, 0, encoded.length);
+                };
+                if (operation == INSERT || operation == INSERT_PAYLOAD) {
+                    types.add(type);
+                    inserts.add(new Event(type, timestamp, content));
+                    if (inserts.size() == LOAD_BATCH) {
+                        delegate.insertAll(inserts);
+                        inserts.clear();
+                    };
+                    continue;
+                };
+                // removals must see every insert logged before them
+                delegate.insertAll(inserts);
+                inserts.clear();
+                apply(operation, type, timestamp, content);
+            };
+            delegate.insertAll(inserts);
+        }
+    }
+
+    private void apply(byte operation, String type, long timestamp, Payload content) {
+        switch (operation) {
+            case REMOVE:
+            case REMOVE_PAYLOAD:
+                removeEqual(new Event(type, timestamp, content));
+                break;
+            case REMOVE_ALL:
+                types.remove(type);
+                delegate.removeAll(type);
+                break;
+            case REMOVE_BEFORE:
+                delegate.removeBefore(type, timestamp);
+                break;
+            case REMOVE_BEFORE_ALL:
+                delegate.removeBefore(timestamp);
+                break;
+            default:
+                throw new IllegalStateException("unknown log operation " + operation);
+        }
+    }
+
+    /**
+     * Method to remove the first event equal to the one logged. Equal
+     * events cannot be told apart, so any of them is the one removed live
+     * @param event
+     */
+    private void removeEqual(Event event) {
+        if (event.timestamp() == Long.MAX_VALUE) {
+            return;
+        };
+        EventIterator iterator = delegate.query(event.type(), event.timestamp(), event.timestamp() + 1);
+        while (iterator != null && iterator.moveNext()) {
+            if (iterator.current().equals(event)) {
+                iterator.remove();
+                return;
+            };
+        };
+    }
+
+    private FileChannel openLog(long generation) throws IOException {
+        return FileChannel.open(directory.resolve(LOG + generation + LOG_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return generation of a log or snapshot, -1 for other files
+     */
+    private static long generationOf(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            if (name.startsWith(LOG) && name.endsWith(LOG_SUFFIX)) {
+                return Long.parseLong(name.substring(LOG.length(), name.length() - LOG_SUFFIX.length()));
+            };
+            if (name.startsWith(SNAPSHOT) && !name.endsWith(TEMPORARY_SUFFIX)) {
+                return Long.parseLong(name.substring(SNAPSHOT.length()));
+            };
+        } catch (NumberFormatException e) {
+            // not one of ours
+        };
+        return -1;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        };
+    }
+
+    private List<Path> list() throws IOException {
+        return list(directory);
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                paths.add(path);
+            };
+        };
+        return paths;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (Path child : list(path)) {
+                delete(child);
+            };
+        };
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Iterator that logs its removals
+     */
+    private final class LoggedIterator implements EventIterator {
+        private final String type;
+        private final EventIterator iterator;
+
+        LoggedIterator(String type, EventIterator iterator) {
+            this.type = type;
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean moveNext() {
+            return iterator.moveNext();
+        }
+
+        @Override
+        public Event current() {
+            return iterator.current();
+        }
+
+        @Override
+        public void remove() {
+            tryRemove();
+        }
+
+        @Override
+        public boolean tryRemove() {
+            Event event = iterator.current();
+            long sequence;
+            order.writeLock().lock();
+            try {
+                checkOpen();
+                // logged once applied, so a removal that fails or finds the
+                // event already gone is never replayed
+                if (!iterator.tryRemove()) {
+                    return false;
+                };
+                sequence = append(removeRecord(event));
+            } finally {
+                order.writeLock().unlock();
+            }
+            awaitDurable(sequence);
+            return true;
+        }
+
+        @Override
+        public void close() throws Exception {
+            iterator.close();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package net.intelie.challenges;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publisher of the events of a query, see {@link EventStore#queryAsync}.
+ * <p>
+ * Each subscriber gets its own query, started on the executor once it asks
+ * for events. Events are delivered on the executor in chunks of at most
+ * {@link #CHUNK}, as many as asked for; after each chunk the delivery is
+ * submitted again instead of going on, so a long query never holds a thread
+ * for long, and other tasks of the executor run between chunks. Cancelling
+ * stops the delivery before the next event.
+ * <p>
+ * Deliveries of a subscriber never overlap: a counter of pending signals
+ * lets a single task run at a time, and requests or cancels arriving while
+ * it runs are handled by it before it stops.
+ */
+final class QueryPublisher implements Flow.Publisher<Event> {
+    /**
+     * Most events delivered before yielding the thread
+     */
+    static final int CHUNK = 256;
+
+    private final EventStore store;
+    private final String type;
+    private final long startTime;
+    private final long endTime;
+    private final Executor executor;
+
+    QueryPublisher(EventStore store, String type, long startTime, long endTime, Executor executor) {
+        this.store = store;
+        this.type = type;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Event> subscriber) {
+        Objects.requireNonNull(subscriber);
+        subscriber.onSubscribe(new Delivery(subscriber));
+    }
+
+    /**
+     * Query of a single subscriber, delivered as it asks
+     */
+    private final class Delivery implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Event> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // signals not handled yet, the task runs while it is positive
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile IllegalArgumentException invalid = null;
+        // only touched by the running task
+        private EventIterator iterator;
+        private Event next;
+        private boolean started = false;
+
+        Delivery(Flow.Subscriber<? super Event> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalid = new IllegalArgumentException("request must be positive, was " + n);
+            } else {
+                // unbounded once it overflows
+                requested.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            };
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                submit();
+            };
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+                subscriber.onError(e);
+            };
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                if (cancelled) {
+                    close();
+                    return;
+                };
+                if (invalid != null) {
+                    fail(invalid);
+                    return;
+                };
+                try {
+                    if (!started) {
+                        started = true;
+                        iterator = store.query(type, startTime, endTime);
+                        advance();
+                    };
+                    long demand = requested.get();
+                    int emitted = 0;
+                    while (next != null && emitted < demand && emitted < CHUNK && !cancelled) {
+                        Event event = next;
+                        advance();
+                        subscriber.onNext(event);
+                        emitted++;
+                    };
+                    if (demand != Long.MAX_VALUE) {
+                        requested.addAndGet(-emitted);
+                    };
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                };
+                if (next == null && !cancelled) {
+                    cancelled = true;
+                    close();
+                    subscriber.onComplete();
+                    return;
+                };
+                // if there is still demand, then yield and go on in a new task
+                if (!cancelled && requested.get() > 0) {
+                    submit();
+                    return;
+                };
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Method to read the event after the one delivered, so the end of
+         * the query is signaled without waiting for demand
+         */
+        private void advance() {
+            next = iterator != null && iterator.moveNext() ? iterator.current() : null;
+        }
+
+        private void fail(Throwable error) {
+            cancelled = true;
+            close();
+            subscriber.onError(error);
+        }
+
+        private void close() {
+            next = null;
+            if (iterator != null) {
+                try {
+                    iterator.close();
+                } catch (Exception e) {
+                    // nothing is held by a query that is not delivered anymore
+                };
+                iterator = null;
+            };
+        }
+    }
+}
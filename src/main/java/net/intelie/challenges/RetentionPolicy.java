@@ -0,0 +1,43 @@
+package net.intelie.challenges;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Background expiry of old events, keeping the memory of a store bounded
+ * under continuous ingest.
+ * <p>
+ * Every {@code period} it removes from all types the events older than
+ * {@code maxAge}, through {@link EventStore#removeBefore(long)}. With
+ * {@link EventStoreImpl} that drops whole segments, so each run costs one
+ * step per expired segment instead of one per expired event.
+ */
+public class RetentionPolicy extends ScheduledPolicy {
+
+    /**
+     * Method to start expiring events of store, using the system clock
+     * @param store
+     * @param maxAge maximum age of events, in milliseconds
+     * @param period time between runs, in milliseconds
+     */
+    public RetentionPolicy(EventStore store, long maxAge, long period) {
+        this(store, maxAge, period, System::currentTimeMillis);
+    }
+
+    /**
+     * @param store
+     * @param maxAge maximum age of events, in the unit of the clock
+     * @param period time between runs, in milliseconds. If not positive,
+     *               nothing is scheduled and {@link #expire()} must be called
+     * @param clock  current time, in the same unit of event timestamps
+     */
+    RetentionPolicy(EventStore store, long maxAge, long period, LongSupplier clock) {
+        super("event-store-retention", requireAge(maxAge, "maxAge"), period, clock, store::removeBefore);
+    }
+
+    /**
+     * Method to remove now the events older than maxAge
+     */
+    public void expire() {
+        run();
+    }
+}
@@ -0,0 +1,95 @@
+package net.intelie.challenges;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Periodic store task applied to the events older than an age, shared by
+ * {@link RetentionPolicy} and {@link CompactionPolicy}.
+ * <p>
+ * A run that throws is logged and the schedule goes on, so a transient
+ * failure of the store does not stop the policy for good.
+ */
+abstract class ScheduledPolicy implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ScheduledPolicy.class.getName());
+
+    private final long age;
+    private final LongSupplier clock;
+    private final LongConsumer action;
+    private final String name;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param name   name of the scheduler thread
+     * @param age    age of the events the action is applied to, in the
+     *               unit of the clock
+     * @param period time between runs, in milliseconds. If not positive,
+     *               nothing is scheduled and {@link #run()} must be called
+     * @param clock  current time, in the same unit of event timestamps
+     * @param action applied to the events before a cutoff timestamp
+     */
+    ScheduledPolicy(String name, long age, long period, LongSupplier clock, LongConsumer action) {
+        this.age = age;
+        this.clock = clock;
+        this.action = action;
+        this.name = name;
+        // if there is no period, then it just runs on demand
+        if (period <= 0) {
+            this.scheduler = null;
+        } else {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.scheduler.scheduleWithFixedDelay(this::scheduled, period, period, TimeUnit.MILLISECONDS);
+        };
+    }
+
+    /**
+     * Method to check the age given to a policy
+     * @param age
+     * @param label name of the argument, for the message
+     * @return age
+     */
+    static long requireAge(long age, String label) {
+        if (age < 0) {
+            throw new IllegalArgumentException(label + " must not be negative");
+        };
+        return age;
+    }
+
+    /**
+     * Method to apply the action now to the events older than the age
+     */
+    void run() {
+        long now = clock.getAsLong();
+        // clamped, so a huge age just selects nothing
+        long cutoff = now < Long.MIN_VALUE + age ? Long.MIN_VALUE : now - age;
+        action.accept(cutoff);
+    }
+
+    private void scheduled() {
+        // an exception would cancel every later run
+        try {
+            run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, name + " run failed", e);
+        };
+    }
+
+    /**
+     * Method to stop the background runs
+     */
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        };
+    }
+}
@@ -0,0 +1,529 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-only, compressed copy of a cold {@link Segment}.
+ * <p>
+ * Events are not kept: only their timestamps, ordered, in a byte[] column
+ * split in blocks of {@code BLOCK} events. Each block keeps its first
+ * timestamp as is and every next one as the zigzag varint of its
+ * delta-of-delta, so events at a steady rate cost one byte each. Removals
+ * are a bitset. Events are rebuilt by {@link #event(int)} when read, so they
+ * are equal to the stored ones but not the same objects.
+ * <p>
+ * When some event has a {@link Payload}, their encodings are concatenated
+ * in another column with the offset of each position. Rebuilt events get a
+ * slice of it, so payloads are neither copied nor decoded on reads.
+ * <p>
+ * Slots are positions in timestamp order, so the view is just 0..size-1,
+ * a prefix of one identity array shared by every sealed segment. Readers
+ * decode one block at a time into the buffer of their {@link Cursor}, so a
+ * range scan decodes each block once and a seek walks a single block after
+ * a binary search over the first timestamps of the blocks.
+ * <p>
+ * Epochs (see {@link Versions}) are only kept for the snapshots open when it
+ * was sealed: a column of insert epochs, when some insert came after the
+ * oldest of them, and the epochs of removals made while one is open.
+ * <p>
+ * A late insert into the bucket {@link #thaw()}s it back into a hot segment;
+ * removals that still come through this segment are forwarded to it.
+ */
+final class SealedSegment extends Segment {
+    private static final int BLOCK_BITS = 7;
+    private static final int BLOCK = 1 << BLOCK_BITS;
+    // identity view shared by every sealed segment, only ever grown
+    private static volatile int[] positions = new int[0];
+
+    private final String type;
+    private final int count;
+    private final long[] blockFirst;
+    private final int[] blockOffset;
+    private final byte[] data;
+    private final int[] payloadOffset;
+    private final byte[] payloads;
+    private final long[] versions;
+    private final AtomicLongArray tombstones;
+    private final AtomicInteger removals = new AtomicInteger();
+    // epochs of removals some snapshot needs, created on the first one
+    private volatile AtomicLongArray removedAt = null;
+    private volatile Segment thawedInto = null;
+
+    /**
+     * @param hot     a segment not taking new events anymore
+     * @param view    its final view
+     * @param settled epoch of the oldest open snapshot, see {@link Versions}
+     */
+    SealedSegment(Segment hot, int[] view, long settled) {
+        super(hot.start, hot.last);
+        this.count = view.length;
+        this.tombstones = new AtomicLongArray((count + 63) >>> 6);
+        int blocks = (count + BLOCK - 1) >>> BLOCK_BITS;
+        this.blockFirst = new long[blocks];
+        this.blockOffset = new int[blocks];
+        byte[] buffer = new byte[Math.max(16, count + 16)];
+        int length = 0;
+        String type = null;
+        long[] versions = null;
+        long previous = 0;
+        long delta = 0;
+        for (int position = 0; position < count; position++) {
+            long timestamp = hot.timestamp(view[position]);
+            Event event = hot.stored(view[position]);
+            long removed = hot.removedAt(view[position]);
+            if (removed >= 0) {
+                tombstones.set(position >>> 6, tombstones.get(position >>> 6) | 1L << position);
+                removals.incrementAndGet();
+                if (removed > settled) {
+                    if (removedAt == null) {
+                        removedAt = new AtomicLongArray(count);
+                    };
+                    removedAt.set(position, removed);
+                };
+            };
+            if (event != REMOVED && type == null) {
+                type = event.type();
+            };
+            // if every open snapshot sees every insert, then drop their epochs
+            if (hot.version(view[position]) > settled && versions == null) {
+                versions = new long[count];
+                for (int before = 0; before < position; before++) {
+                    versions[before] = hot.version(view[before]);
+                };
+            };
+            if (versions != null) {
+                versions[position] = hot.version(view[position]);
+            };
+            if ((position & (BLOCK - 1)) == 0) {
+                blockFirst[position >>> BLOCK_BITS] = timestamp;
+                blockOffset[position >>> BLOCK_BITS] = length;
+                delta = 0;
+            } else {
+                // differences wrap around, and decoding wraps them back
+                long next = timestamp - previous;
+                long zigzag = ((next - delta) << 1) ^ ((next - delta) >> 63);
+                delta = next;
+                if (buffer.length - length < 10) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                };
+                while ((zigzag & ~0x7FL) != 0) {
+                    buffer[length++] = (byte) ((zigzag & 0x7F) | 0x80);
+                    zigzag >>>= 7;
+                };
+                buffer[length++] = (byte) zigzag;
+            };
+            previous = timestamp;
+        };
+        this.data = Arrays.copyOf(buffer, length);
+        this.type = type;
+        this.versions = versions;
+        int payloadBytes = 0;
+        for (int position = 0; position < count; position++) {
+            payloadBytes += hot.stored(view[position]).payload().encodedLength();
+        };
+        if (payloadBytes == 0) {
+            this.payloadOffset = null;
+            this.payloads = null;
+        } else {
+            this.payloadOffset = new int[count + 1];
+            this.payloads = new byte[payloadBytes];
+            int offset = 0;
+            for (int position = 0; position < count; position++) {
+                Payload payload = hot.stored(view[position]).payload();
+                payloadOffset[position] = offset;
+                payload.copyTo(payloads, offset);
+                offset += payload.encodedLength();
+            };
+            payloadOffset[count] = offset;
+        };
+    }
+
+    @Override
+    int reserve(int count) {
+        return -1;
+    }
+
+    @Override
+    void publish(int slot, Event event, long version) {
+        throw new IllegalStateException("segment is sealed");
+    }
+
+    @Override
+    void publishAll(int first, List<Event> events, int from, int to, long version) {
+        throw new IllegalStateException("segment is sealed");
+    }
+
+    @Override
+    int reservedSlots() {
+        return count;
+    }
+
+    /**
+     * @param slot
+     * @return a new event equal to the one stored, {@link #REMOVED} if it
+     * was removed
+     */
+    @Override
+    Event event(int slot) {
+        return isRemoved(slot) ? REMOVED : new Event(type, timestamp(slot), payload(slot));
+    }
+
+    @Override
+    Event event(int slot, Cursor cursor) {
+        return isRemoved(slot) ? REMOVED : new Event(type, timestamp(slot, cursor), payload(slot));
+    }
+
+    @Override
+    Event event(int slot, long epoch) {
+        return event(slot, epoch, null);
+    }
+
+    @Override
+    Event event(int slot, long epoch, Cursor cursor) {
+        if (versions != null && versions[slot] > epoch) {
+            return null;
+        };
+        if (isRemoved(slot) && removedAt(slot) <= epoch) {
+            return REMOVED;
+        };
+        return new Event(type, timestamp(slot, cursor), payload(slot));
+    }
+
+    @Override
+    Event stored(int slot) {
+        return new Event(type, timestamp(slot), payload(slot));
+    }
+
+    @Override
+    long version(int slot) {
+        return versions == null ? 0 : versions[slot];
+    }
+
+    @Override
+    long removedAt(int slot) {
+        if (!isRemoved(slot)) {
+            return -1;
+        };
+        AtomicLongArray epochs = removedAt;
+        return epochs == null ? 0 : epochs.get(slot);
+    }
+
+    /**
+     * @param slot
+     * @return timestamp of slot, walking its block up to it. Readers of
+     * many slots go through a {@link Cursor} instead
+     */
+    @Override
+    long timestamp(int slot) {
+        return timestamp(slot, null);
+    }
+
+    @Override
+    long timestamp(int slot, Cursor cursor) {
+        int block = slot >>> BLOCK_BITS;
+        if ((slot & (BLOCK - 1)) == 0) {
+            return blockFirst[block];
+        };
+        if (cursor == null) {
+            return walk(block, slot & (BLOCK - 1));
+        };
+        if (cursor.segment != this || cursor.block != block) {
+            if (cursor.timestamps == null) {
+                cursor.timestamps = new long[BLOCK];
+            };
+            decode(block, cursor.timestamps);
+            cursor.segment = this;
+            cursor.block = block;
+        };
+        return cursor.timestamps[slot & (BLOCK - 1)];
+    }
+
+    @Override
+    boolean remove(int slot, Event event, long epoch) {
+        return event != REMOVED && removeAt(slot, epoch);
+    }
+
+    /**
+     * Method to remove the event of a position, if it is still there
+     * @param position
+     * @param epoch of the removal, or 0 if no open snapshot needs the event
+     * @return true if this call removed the event
+     */
+    boolean removeAt(int position, long epoch) {
+        // locked, so readers never see the removal without its epoch
+        synchronized (this) {
+            if (isRemoved(position)) {
+                return false;
+            };
+            if (epoch > 0) {
+                if (removedAt == null) {
+                    removedAt = new AtomicLongArray(count);
+                };
+                removedAt.set(position, epoch);
+            };
+            tombstones.set(position >>> 6, tombstones.get(position >>> 6) | 1L << position);
+            removals.incrementAndGet();
+        };
+        // read after the removal, so either it is forwarded here or thaw()
+        // sees it when it copies the removals
+        Segment thawed = thawedInto;
+        if (thawed != null) {
+            thawed.remove(position, thawed.event(position), epoch);
+        };
+        return true;
+    }
+
+    @Override
+    void removeBefore(long timestamp, long epoch) {
+        int end = lowerBound(null, timestamp);
+        for (int position = 0; position < end; position++) {
+            removeAt(position, epoch);
+        };
+    }
+
+    @Override
+    int count(long startTime, long endTime) {
+        int from = lowerBound(null, startTime);
+        int to = Math.max(from, lowerBound(null, endTime));
+        int count = to - from;
+        for (int position = from; position < to; position++) {
+            if (isRemoved(position)) {
+                count--;
+            };
+        };
+        return count;
+    }
+
+    @Override
+    boolean hasRemovals() {
+        return removals.get() > 0;
+    }
+
+    @Override
+    int size() {
+        return count - removals.get();
+    }
+
+    /**
+     * @return the shared identity view, holding 0..size-1 and maybe more,
+     * see {@link #length(int[])}
+     */
+    @Override
+    int[] view() {
+        int[] view = positions;
+        return view.length < count ? grow(count) : view;
+    }
+
+    /**
+     * @param epoch
+     * @return the same as {@link #view()}, nothing is being written
+     */
+    @Override
+    int[] view(long epoch) {
+        return view();
+    }
+
+    @Override
+    int length(int[] view) {
+        return count;
+    }
+
+    /**
+     * @param view ignored, positions are already ordered
+     * @param startTime
+     * @return first position with timestamp equal or after startTime
+     */
+    @Override
+    int lowerBound(int[] view, long startTime) {
+        // first block starting at or after startTime, the answer is in the
+        // block before it or at its start
+        int low = 0;
+        int high = blockFirst.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blockFirst[middle] < startTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            };
+        };
+        if (low == 0) {
+            return 0;
+        };
+        return ((low - 1) << BLOCK_BITS) + seek(low - 1, startTime);
+    }
+
+    /**
+     * @return estimate of bytes held by this segment, counting the empty
+     * fields inherited from Segment
+     */
+    @Override
+    long estimatedBytes() {
+        return 224 + 16 + data.length + 16 + blockFirst.length * (long) Long.BYTES
+                + 16 + blockOffset.length * (long) Integer.BYTES + 16 + tombstones.length() * (long) Long.BYTES
+                + (payloads == null ? 0 : 16 + payloads.length + 16 + payloadOffset.length * (long) Integer.BYTES)
+                + (versions == null ? 0 : 16 + versions.length * (long) Long.BYTES)
+                + (removedAt == null ? 0 : 16 + count * (long) Long.BYTES);
+    }
+
+    /**
+     * @return bytes of the payload column, which events of the thawed
+     * segment keep alive as slices
+     */
+    int payloadBytes() {
+        return payloads == null ? 0 : payloads.length;
+    }
+
+    @Override
+    SealedSegment seal() {
+        return this;
+    }
+
+    /**
+     * Method to copy the events back into a hot segment, so the bucket
+     * takes new events again. Epochs are copied too
+     * @return the hot segment, the same one if called again
+     */
+    synchronized Segment thaw() {
+        if (thawedInto != null) {
+            return thawedInto;
+        };
+        Segment hot = new Segment(start, last);
+        Cursor cursor = new Cursor();
+        // positions of this segment become the slots of the hot one
+        hot.reserve(count);
+        for (int position = 0; position < count; position++) {
+            hot.publish(position, new Event(type, timestamp(position, cursor), payload(position)), version(position));
+        };
+        thawedInto = hot;
+        for (int position = 0; position < count; position++) {
+            long epoch = removedAt(position);
+            if (epoch >= 0) {
+                hot.remove(position, hot.event(position), epoch);
+            };
+        };
+        return hot;
+    }
+
+    /**
+     * @param position
+     * @return slice of the payload column, not decoded
+     */
+    private Payload payload(int position) {
+        if (payloads == null) {
+            return Payload.EMPTY;
+        };
+        int offset = payloadOffset[position];
+        return Payload.decode(payloads, offset, payloadOffset[position + 1] - offset);
+    }
+
+    private boolean isRemoved(int position) {
+        return (tombstones.get(position >>> 6) & 1L << position) != 0;
+    }
+
+    /**
+     * Method to decode the timestamps of a block
+     * @param block
+     * @param timestamps receives the timestamps from index 0
+     */
+    private void decode(int block, long[] timestamps) {
+        int size = Math.min(BLOCK, count - (block << BLOCK_BITS));
+        int offset = blockOffset[block];
+        long timestamp = blockFirst[block];
+        long delta = 0;
+        timestamps[0] = timestamp;
+        for (int i = 1; i < size; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            delta += (zigzag >>> 1) ^ -(zigzag & 1);
+            timestamp += delta;
+            timestamps[i] = timestamp;
+        };
+    }
+
+    /**
+     * Method to walk a block up to an index, without a buffer
+     * @param block
+     * @param index inside the block
+     * @return timestamp at index
+     */
+    private long walk(int block, int index) {
+        int offset = blockOffset[block];
+        long timestamp = blockFirst[block];
+        long delta = 0;
+        for (int i = 1; i <= index; i++) {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            delta += (zigzag >>> 1) ^ -(zigzag & 1);
+            timestamp += delta;
+        };
+        return timestamp;
+    }
+
+    /**
+     * Method to walk a block up to the first timestamp equal or after
+     * startTime, without a buffer
+     * @param block
+     * @param startTime
+     * @return index inside the block, or its size if there is none
+     */
+    private int seek(int block, long startTime) {
+        int size = Math.min(BLOCK, count - (block << BLOCK_BITS));
+        int offset = blockOffset[block];
+        long timestamp = blockFirst[block];
+        long delta = 0;
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                long zigzag = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    zigzag |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                delta += (zigzag >>> 1) ^ -(zigzag & 1);
+                timestamp += delta;
+            };
+            if (timestamp >= startTime) {
+                return i;
+            };
+        };
+        return size;
+    }
+
+    /**
+     * Method to grow the shared identity view
+     * @param count least length needed
+     * @return the identity view, at least count long
+     */
+    private static synchronized int[] grow(int count) {
+        int[] view = positions;
+        if (view.length < count) {
+            // doubled, so segments of growing sizes copy it a few times only
+            int length = (int) Math.min(MAX_SLOTS, Math.max(count, 2L * view.length));
+            int[] grown = Arrays.copyOf(view, length);
+            for (int i = view.length; i < length; i++) {
+                grown[i] = i;
+            };
+            positions = grown;
+            view = grown;
+        };
+        return view;
+    }
+}
@@ -0,0 +1,712 @@
+package net.intelie.challenges;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+
+/**
+ * Append-only storage of the events of one type inside a time bucket
+ * [start, last].
+ * <p>
+ * Timestamps are kept in primitive long[] chunks with the event references
+ * alongside, so an insertion allocates no key, entry or node objects. Chunks
+ * double in size (16, 32, 64...), so small segments stay small and a chunk
+ * is never copied or moved once allocated. A slot is reserved with a single
+ * atomic increment and published by a volatile write of its event, so
+ * concurrent appends are lock-free. The slot number is the handle used by
+ * iterators to remove an event in O(1).
+ * <p>
+ * Slots are kept in arrival order. Readers get them ordered by timestamp
+ * through {@link #view()}, an array of slots that is rebuilt only when new
+ * slots were published since the last one, merging the new slots into it.
+ * So the slots past the view are a staging area: appends never pay for
+ * ordering, and late events are sorted in a batch when a reader comes.
+ * Events come mostly in order or a bit late, so the batch lands among the
+ * last slots of the view: the prefix before it is copied as is, and only
+ * the slots after it are compared.
+ * <p>
+ * Each slot also keeps the epoch of its insert (see {@link Versions}), and a
+ * removal made while a snapshot is open leaves a {@link Removal} with the
+ * removed event and the epoch of the removal, so {@link #event(int, long)}
+ * still finds it for the snapshots that came before. Otherwise removals
+ * leave the shared {@link #REMOVED} marker.
+ * <p>
+ * Once its bucket goes cold, {@link #seal()} turns it into a compact
+ * {@link SealedSegment}: new reservations are refused, so writers look the
+ * bucket up again, and removals that still come through this segment are
+ * forwarded to the sealed one.
+ */
+class Segment {
+    /**
+     * Marker left in the slot of a removed event
+     */
+    static final Event REMOVED = new Event(null, 0L);
+
+    private static final int FIRST_CHUNK_BITS = 4;
+    private static final int MAX_CHUNKS = 31 - FIRST_CHUNK_BITS;
+    static final int MAX_SLOTS = ((1 << MAX_CHUNKS) - 1) << FIRST_CHUNK_BITS;
+    private static final int[] EMPTY_VIEW = new int[0];
+
+    final long start;
+    final long last;
+    private final AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger reserved = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+    private volatile int[] view = EMPTY_VIEW;
+    private volatile boolean dropped = false;
+    private volatile boolean closed = false;
+    private volatile int closedAt = -1;
+    private volatile SealedSegment sealedInto = null;
+    // bytes accounted to a memory budget by the index, see MemoryBudget;
+    // once released, bytes charged late are refunded by their charger
+    final AtomicLong charged = new AtomicLong();
+    volatile boolean released = false;
+
+    Segment(long start, long last) {
+        this.start = start;
+        this.last = last;
+    }
+
+    /**
+     * @param timestamp
+     * @return true if the timestamp belongs to this segment bucket
+     */
+    boolean contains(long timestamp) {
+        return timestamp >= start && timestamp <= last;
+    }
+
+    /**
+     * Method to mark this segment as unlinked from its index, so new
+     * insertions stop using it
+     */
+    void drop() {
+        dropped = true;
+    }
+
+    /**
+     * @return true if this segment was unlinked from its index
+     */
+    boolean isDropped() {
+        return dropped;
+    }
+
+    /**
+     * Method to append an event to the next free slot, seen by every
+     * snapshot
+     * @param event
+     * @return the slot where the event was stored
+     */
+    int append(Event event) {
+        int slot = reserve(1);
+        publish(slot, event, 0);
+        return slot;
+    }
+
+    /**
+     * Method to append a run of events reserving all their slots at once
+     * @param events
+     * @param from first event of the run (inclusive)
+     * @param to last event of the run (exclusive)
+     * @return the slot of the first event of the run
+     */
+    int appendAll(List<Event> events, int from, int to) {
+        int first = reserve(to - from);
+        publishAll(first, events, from, to, 0);
+        return first;
+    }
+
+    /**
+     * Method to store a run of events in the slots reserved for it
+     * @param first the first slot reserved
+     * @param events
+     * @param from first event of the run (inclusive)
+     * @param to last event of the run (exclusive)
+     * @param version epoch of the insert
+     */
+    void publishAll(int first, List<Event> events, int from, int to, long version) {
+        for (int i = from; i < to; i++) {
+            Event event = events.get(i);
+            Chunk chunk = chunk(chunkIndex(first + i - from), true);
+            int offset = chunkOffset(first + i - from);
+            chunk.timestamps[offset] = event.timestamp();
+            chunk.versions[offset] = version;
+            // ordered write is enough to publish the timestamp to readers
+            chunk.events.lazySet(offset, event);
+        };
+    }
+
+    /**
+     * Method to reserve slots, to be published later. Readers stop at the
+     * first slot reserved and not published yet
+     * @param count
+     * @return the first slot reserved, or -1 if this segment was sealed and
+     * the bucket must be looked up again
+     */
+    int reserve(int count) {
+        int first = reserved.getAndAdd(count);
+        // sealing sets the sign bit, so late writers find it negative
+        if (first < 0 && closed) {
+            reserved.getAndAdd(-count);
+            return -1;
+        };
+        // if all chunks were used, then there is no room for the run
+        if (first < 0 || first > MAX_SLOTS - count) {
+            // given back, or readers would wait for slots never published
+            reserved.getAndAdd(-count);
+            throw new IllegalStateException("segment is full");
+        };
+        return first;
+    }
+
+    /**
+     * Method to store an event in a reserved slot, making it visible
+     * @param slot
+     * @param event
+     * @param version epoch of the insert
+     */
+    void publish(int slot, Event event, long version) {
+        Chunk chunk = chunk(chunkIndex(slot), true);
+        int offset = chunkOffset(slot);
+        chunk.timestamps[offset] = event.timestamp();
+        chunk.versions[offset] = version;
+        // volatile write publishes the timestamp and version written above
+        chunk.events.set(offset, event);
+    }
+
+    /**
+     * @return amount of slots reserved, published or not
+     */
+    int reservedSlots() {
+        int at = closedAt;
+        return at >= 0 ? at : Math.min(reserved.get() & Integer.MAX_VALUE, MAX_SLOTS);
+    }
+
+    /**
+     * @param slot
+     * @return event stored in slot, {@link #REMOVED} if it was removed
+     * or null if it was not published yet
+     */
+    Event event(int slot) {
+        Chunk chunk = chunk(chunkIndex(slot), false);
+        if (chunk == null) {
+            return null;
+        };
+        Event event = chunk.events.get(chunkOffset(slot));
+        return event instanceof Removal ? REMOVED : event;
+    }
+
+    /**
+     * @param slot
+     * @param cursor of the reader, see {@link Cursor}
+     * @return same as {@link #event(int)}
+     */
+    Event event(int slot, Cursor cursor) {
+        return event(slot);
+    }
+
+    /**
+     * @param slot
+     * @param epoch of a snapshot, or {@link Versions#LIVE}
+     * @return event of slot as seen at epoch, {@link #REMOVED} if it was
+     * removed by then or null if it was not inserted by then
+     */
+    Event event(int slot, long epoch) {
+        Chunk chunk = chunk(chunkIndex(slot), false);
+        if (chunk == null) {
+            return null;
+        };
+        int offset = chunkOffset(slot);
+        Event event = chunk.events.get(offset);
+        // the volatile read above makes the version written before it visible
+        if (event == null || (epoch != Versions.LIVE && chunk.versions[offset] > epoch)) {
+            return null;
+        };
+        if (event instanceof Removal) {
+            Removal removal = (Removal) event;
+            return removal.epoch > epoch ? removal.event : REMOVED;
+        };
+        return event;
+    }
+
+    /**
+     * @param slot
+     * @param epoch
+     * @param cursor of the reader, see {@link Cursor}
+     * @return same as {@link #event(int, long)}
+     */
+    Event event(int slot, long epoch, Cursor cursor) {
+        return event(slot, epoch);
+    }
+
+    /**
+     * @param slot a slot already published
+     * @return the event stored in slot, even if removed while a snapshot
+     * was open, or {@link #REMOVED}
+     */
+    Event stored(int slot) {
+        Event event = chunks.get(chunkIndex(slot)).events.get(chunkOffset(slot));
+        return event instanceof Removal ? ((Removal) event).event : event;
+    }
+
+    /**
+     * @param slot a slot already published
+     * @return epoch of the insert of slot
+     */
+    long version(int slot) {
+        return chunks.get(chunkIndex(slot)).versions[chunkOffset(slot)];
+    }
+
+    /**
+     * @param slot a slot already published
+     * @return epoch of the removal of slot, 0 if no snapshot needed it or
+     * -1 if it was not removed
+     */
+    long removedAt(int slot) {
+        Event event = chunks.get(chunkIndex(slot)).events.get(chunkOffset(slot));
+        if (event instanceof Removal) {
+            return ((Removal) event).epoch;
+        };
+        return event == REMOVED ? 0 : -1;
+    }
+
+    /**
+     * @param slot a slot already published
+     * @return timestamp stored in slot
+     */
+    long timestamp(int slot) {
+        return chunks.get(chunkIndex(slot)).timestamps[chunkOffset(slot)];
+    }
+
+    /**
+     * @param slot a slot already published
+     * @param cursor of the reader, see {@link Cursor}
+     * @return same as {@link #timestamp(int)}
+     */
+    long timestamp(int slot, Cursor cursor) {
+        return timestamp(slot);
+    }
+
+    /**
+     * Method to remove the event of a slot for every snapshot, if it is
+     * still there
+     * @param slot
+     * @param event the event expected in the slot
+     * @return true if this call removed the event
+     */
+    boolean remove(int slot, Event event) {
+        return remove(slot, event, 0);
+    }
+
+    /**
+     * Method to remove the event of a slot, if it is still there
+     * @param slot
+     * @param event the event expected in the slot
+     * @param epoch of the removal, or 0 if no open snapshot needs the event
+     * @return true if this call removed the event
+     */
+    boolean remove(int slot, Event event, long epoch) {
+        Chunk chunk = chunk(chunkIndex(slot), false);
+        if (chunk != null && event != REMOVED
+                && chunk.events.compareAndSet(chunkOffset(slot), event, epoch == 0 ? REMOVED : new Removal(event, epoch))) {
+            removed.incrementAndGet();
+            // read after the removal, so either it is forwarded here or
+            // seal() sees it when it re-checks the removals
+            SealedSegment sealed = sealedInto;
+            if (sealed != null) {
+                sealed.removeAt(position(slot), epoch);
+            };
+            return true;
+        };
+        return false;
+    }
+
+    /**
+     * Method to remove every published event before a timestamp
+     * @param timestamp first timestamp kept (exclusive bound of removal)
+     * @param epoch of the removal, or 0 if no open snapshot needs the events
+     */
+    void removeBefore(long timestamp, long epoch) {
+        int[] view = view();
+        for (int position = 0; position < view.length && timestamp(view[position]) < timestamp; position++) {
+            remove(view[position], event(view[position]), epoch);
+        };
+    }
+
+    /**
+     * Method to count the published events between startTime (inclusive)
+     * and endTime (exclusive) by scanning the view. Only needed when the
+     * segment is partially inside the window, else {@link #size()} is it
+     * @param startTime
+     * @param endTime
+     * @return amount of events not removed inside the window
+     */
+    int count(long startTime, long endTime) {
+        int[] view = view();
+        int count = 0;
+        for (int position = lowerBound(view, startTime); position < view.length; position++) {
+            if (timestamp(view[position]) >= endTime) {
+                break;
+            };
+            if (event(view[position]) != REMOVED) {
+                count++;
+            };
+        };
+        return count;
+    }
+
+    /**
+     * @return true if some event of this segment was removed, so the ends
+     * of the view are no longer its minimum and maximum timestamps
+     */
+    boolean hasRemovals() {
+        return removed.get() > 0;
+    }
+
+    /**
+     * @return amount of events stored and not removed. Slots being
+     * written by concurrent appends are already counted
+     */
+    int size() {
+        return reservedSlots() - removed.get();
+    }
+
+    /**
+     * Method to get the published slots ordered by timestamp and, for equal
+     * timestamps, by slot. The returned array must not be modified
+     * @return slots ordered by timestamp
+     */
+    int[] view() {
+        int[] current = view;
+        int published = current.length;
+        int limit = reservedSlots();
+        // slots are only visible up to the first one still being written
+        while (published < limit && event(published) != null) {
+            published++;
+        };
+        if (published == current.length) {
+            return current;
+        };
+        int[] next = merge(current, published);
+        // concurrent rebuilders may race here, any of them is a valid prefix
+        if (view.length < next.length) {
+            view = next;
+        };
+        return next;
+    }
+
+    /**
+     * Method to get the slots to read at an epoch ordered by timestamp.
+     * Past {@link #view()}, a slot still being written may come before
+     * slots the snapshot sees, so those are merged into a copy. Slots the
+     * epoch does not see are filtered by {@link #event(int, long)}
+     * @param epoch of a snapshot
+     * @return slots ordered by timestamp
+     */
+    int[] view(long epoch) {
+        int[] current = view();
+        int limit = reservedSlots();
+        int[] tail = null;
+        long[] tailTimestamps = null;
+        int count = 0;
+        for (int slot = current.length; slot < limit; slot++) {
+            if (event(slot, epoch) == null) {
+                continue;
+            };
+            if (tail == null) {
+                tail = new int[limit - slot];
+                tailTimestamps = new long[limit - slot];
+            };
+            // insertion sort, there are only the few slots being written
+            long timestamp = timestamp(slot);
+            int at = count++;
+            while (at > 0 && tailTimestamps[at - 1] > timestamp) {
+                tail[at] = tail[at - 1];
+                tailTimestamps[at] = tailTimestamps[at - 1];
+                at--;
+            };
+            tail[at] = slot;
+            tailTimestamps[at] = timestamp;
+        };
+        if (tail == null) {
+            return current;
+        };
+        return merge(current, tail, tailTimestamps, count);
+    }
+
+    /**
+     * @param view a view of this segment
+     * @return amount of positions of view holding slots of this segment,
+     * which may be less than its length when the view is shared
+     */
+    int length(int[] view) {
+        return view.length;
+    }
+
+    /**
+     * Method to find the first position of a view with timestamp after
+     * a timestamp
+     * @param view
+     * @param timestamp
+     * @return position between 0 and view.length
+     */
+    private int upperBound(int[] view, long timestamp) {
+        int low = 0;
+        int high = view.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamp(view[middle]) <= timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            };
+        };
+        return low;
+    }
+
+    /**
+     * Method to find the first position of a view with timestamp equal
+     * or after startTime
+     * @param view
+     * @param startTime
+     * @return position between 0 and view.length
+     */
+    int lowerBound(int[] view, long startTime) {
+        int low = 0;
+        int high = view.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestamp(view[middle]) < startTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            };
+        };
+        return low;
+    }
+
+    /**
+     * @return estimate of bytes held by this segment, assuming compressed
+     * references. The events themselves are not included
+     */
+    long estimatedBytes() {
+        long bytes = 64;
+        for (int i = 0; i < MAX_CHUNKS; i++) {
+            Chunk chunk = chunks.get(i);
+            if (chunk == null) {
+                break;
+            };
+            bytes += 64 + (long) chunk.timestamps.length * (2 * Long.BYTES + Integer.BYTES);
+        };
+        return bytes + 16 + (long) view.length * Integer.BYTES;
+    }
+
+    /**
+     * Method to seal a segment that no snapshot reads
+     * @return the sealed copy, the same one if called again
+     */
+    SealedSegment seal() {
+        return seal(() -> Versions.LIVE);
+    }
+
+    /**
+     * Method to turn this segment into a {@link SealedSegment}. Slots being
+     * written are waited for; slots reserved from now on are refused
+     * @param oldest epoch of the oldest open snapshot, read once every slot
+     *               was written: changes after it keep their epochs
+     * @return the sealed copy, the same one if called again
+     */
+    synchronized SealedSegment seal(LongSupplier oldest) {
+        if (sealedInto != null) {
+            return sealedInto;
+        };
+        // dropped first, so insertions that cached it go to the map again
+        drop();
+        closed = true;
+        int count = Math.min(Math.max(reserved.getAndAdd(Integer.MIN_VALUE), 0), MAX_SLOTS);
+        closedAt = count;
+        for (int slot = 0; slot < count; slot++) {
+            while (event(slot) == null) {
+                Thread.yield();
+            };
+        };
+        int[] view = view();
+        long settled = oldest.getAsLong();
+        SealedSegment sealed = new SealedSegment(this, view, settled);
+        sealedInto = sealed;
+        // removals made while copying were not forwarded, so check again
+        for (int position = 0; position < view.length; position++) {
+            long removedAt = removedAt(view[position]);
+            if (removedAt >= 0) {
+                sealed.removeAt(position, removedAt > settled ? removedAt : 0);
+            };
+        };
+        return sealed;
+    }
+
+    /**
+     * @param slot a slot of a sealed segment
+     * @return position of slot in the final view
+     */
+    private int position(int slot) {
+        int[] view = view();
+        int position = lowerBound(view, timestamp(slot));
+        while (view[position] != slot) {
+            position++;
+        };
+        return position;
+    }
+
+    /**
+     * Method to merge the slots published after the current view into it
+     * @param current
+     * @param published
+     * @return new view with all slots before published
+     */
+    private int[] merge(int[] current, int published) {
+        int count = published - current.length;
+        int[] added = new int[count];
+        long[] addedTimestamps = new long[count];
+        boolean sorted = true;
+        for (int i = 0; i < count; i++) {
+            added[i] = current.length + i;
+            addedTimestamps[i] = timestamp(added[i]);
+            if (i > 0 && addedTimestamps[i] < addedTimestamps[i - 1]) {
+                sorted = false;
+            };
+        };
+        // arrival order is usually timestamp order, so sorting is rare
+        if (!sorted) {
+            sort(addedTimestamps, added, new long[count], new int[count], 0, count);
+        };
+        return merge(current, added, addedTimestamps, count);
+    }
+
+    /**
+     * Method to merge sorted slots into a view. The slots of the view
+     * before the first added one are copied in bulk, so merging slots
+     * newer than the whole view or a bit late costs a binary search and
+     * a copy, plus the slots of the view after the first added one
+     * @param current
+     * @param added           slots ordered by timestamp
+     * @param addedTimestamps their timestamps
+     * @param count           amount of added slots
+     * @return new view with the slots of both
+     */
+    private int[] merge(int[] current, int[] added, long[] addedTimestamps, int count) {
+        int[] next = new int[current.length + count];
+        // on equal timestamps older slots come first, keeping arrival order
+        int i = upperBound(current, addedTimestamps[0]);
+        System.arraycopy(current, 0, next, 0, i);
+        int j = 0;
+        int k = i;
+        while (i < current.length && j < count) {
+            if (timestamp(current[i]) <= addedTimestamps[j]) {
+                next[k++] = current[i++];
+            } else {
+                next[k++] = added[j++];
+            };
+        };
+        System.arraycopy(current, i, next, k, current.length - i);
+        System.arraycopy(added, j, next, k + current.length - i, count - j);
+        return next;
+    }
+
+    /**
+     * Stable merge sort of slots by timestamp
+     */
+    private static void sort(long[] timestamps, int[] slots, long[] bufferTimestamps, int[] bufferSlots,
+                             int from, int to) {
+        if (to - from < 2) {
+            return;
+        };
+        int middle = (from + to) >>> 1;
+        sort(timestamps, slots, bufferTimestamps, bufferSlots, from, middle);
+        sort(timestamps, slots, bufferTimestamps, bufferSlots, middle, to);
+        // if halves are already in order, then there is nothing to merge
+        if (timestamps[middle - 1] <= timestamps[middle]) {
+            return;
+        };
+        System.arraycopy(timestamps, from, bufferTimestamps, from, to - from);
+        System.arraycopy(slots, from, bufferSlots, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && bufferTimestamps[i] <= bufferTimestamps[j])) {
+                timestamps[k] = bufferTimestamps[i];
+                slots[k] = bufferSlots[i++];
+            } else {
+                timestamps[k] = bufferTimestamps[j];
+                slots[k] = bufferSlots[j++];
+            };
+        };
+    }
+
+    /**
+     * Method to get a chunk, allocating it if needed. Concurrent allocations
+     * race with a CAS and the losers just use the winner's chunk
+     */
+    private Chunk chunk(int index, boolean allocate) {
+        Chunk chunk = chunks.get(index);
+        if (chunk == null && allocate) {
+            chunk = new Chunk(1 << (index + FIRST_CHUNK_BITS));
+            if (!chunks.compareAndSet(index, null, chunk)) {
+                chunk = chunks.get(index);
+            };
+        };
+        return chunk;
+    }
+
+    /**
+     * Chunk k holds 16 * 2^k slots, starting at slot 16 * (2^k - 1)
+     */
+    private static int chunkIndex(int slot) {
+        return 31 - Integer.numberOfLeadingZeros((slot >>> FIRST_CHUNK_BITS) + 1);
+    }
+
+    private static int chunkOffset(int slot) {
+        int index = chunkIndex(slot);
+        return slot - (((1 << index) - 1) << FIRST_CHUNK_BITS);
+    }
+
+    /**
+     * State of one reader walking segments in order, so a
+     * {@link SealedSegment} decodes each block of timestamps once for it
+     * instead of once per event. Not thread-safe: each iterator keeps its own
+     */
+    static final class Cursor {
+        Segment segment = null;
+        int block = -1;
+        long[] timestamps = null;
+    }
+
+    /**
+     * Fixed size block of slots
+     */
+    private static final class Chunk {
+        final long[] timestamps;
+        final long[] versions;
+        final AtomicReferenceArray<Event> events;
+
+        Chunk(int capacity) {
+            this.timestamps = new long[capacity];
+            this.versions = new long[capacity];
+            this.events = new AtomicReferenceArray<>(capacity);
+        }
+    }
+
+    /**
+     * Marker of an event removed while some snapshot still reads it
+     */
+    private static final class Removal extends Event {
+        final Event event;
+        final long epoch;
+
+        Removal(Event event, long epoch) {
+            super(null, 0L);
+            this.event = event;
+            this.epoch = epoch;
+        }
+    }
+}
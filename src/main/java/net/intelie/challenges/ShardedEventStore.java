@@ -0,0 +1,296 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Event store splitting hot types in write shards, for types taking most
+ * of the inserts.
+ * <p>
+ * Each shard is an {@link EventStoreImpl} of its own. An insert of a
+ * sharded type goes to the shard of the inserting thread, so writers on
+ * different shards never touch the same segment and insert throughput
+ * grows with the threads up to the amount of shards. Queries merge the
+ * shards lazily with a {@link MergingEventIterator}, in timestamp order;
+ * counts and histograms add the counters of the shards up. Types not
+ * sharded live in the first shard only and behave as in EventStoreImpl.
+ * <p>
+ * Trade-offs of a sharded type:
+ * <ul>
+ * <li>Events with the same timestamp come in insertion order only when
+ * inserted by the same thread; otherwise they come by shard.</li>
+ * <li>Removals go through the shards one by one, so an insert concurrent
+ * with {@link #removeAll} may survive in a shard already cleared, as if it
+ * came right after it.</li>
+ * <li>{@link #subscribe} is not supported, since the shards would call the
+ * listener concurrently.</li>
+ * </ul>
+ */
+public class ShardedEventStore implements EventStore {
+
+    private final EventStoreImpl[] shards;
+    private final EventStoreImpl[] firstShard;
+    private final Set<String> shardedTypes;
+
+    /**
+     * Shards every type
+     * @param shards amount of write shards, usually the amount of writers
+     */
+    public ShardedEventStore(int shards) {
+        this(EventIndex.DEFAULT_SEGMENT_WIDTH, shards, null);
+    }
+
+    /**
+     * @param segmentWidth time width of the segments of each shard
+     * @param shards       amount of write shards, usually the amount of
+     *                     writers
+     * @param shardedTypes hot types split in shards, null to shard every
+     *                     type
+     */
+    public ShardedEventStore(long segmentWidth, int shards, Collection<String> shardedTypes) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards must be positive");
+        };
+        this.shards = new EventStoreImpl[shards];
+        for (int i = 0; i < shards; i++) {
+            this.shards[i] = new EventStoreImpl(segmentWidth);
+        };
+        this.firstShard = new EventStoreImpl[]{this.shards[0]};
+        this.shardedTypes = shardedTypes == null ? null : new HashSet<>(shardedTypes);
+    }
+
+    @Override
+    public void insert(Event event) {
+        (sharded(event.type()) ? local() : shards[0]).insert(event);
+    }
+
+    /**
+     * Stores a batch, its sharded types in the shard of the calling thread.
+     *
+     * @param events
+     */
+    @Override
+    public void insertAll(Collection<Event> events) {
+        if (shardedTypes == null) {
+            local().insertAll(events);
+            return;
+        };
+        List<Event> hot = new ArrayList<>();
+        List<Event> cold = new ArrayList<>();
+        for (Event event : events) {
+            if (event != null) {
+                (sharded(event.type()) ? hot : cold).add(event);
+            };
+        };
+        local().insertAll(hot);
+        shards[0].insertAll(cold);
+    }
+
+    @Override
+    public void removeAll(String type) {
+        for (EventStore shard : shardsOf(type)) {
+            shard.removeAll(type);
+        };
+    }
+
+    @Override
+    public void removeBefore(String type, long timestamp) {
+        for (EventStore shard : shardsOf(type)) {
+            shard.removeBefore(type, timestamp);
+        };
+    }
+
+    @Override
+    public void removeBefore(long timestamp) {
+        for (EventStore shard : shards) {
+            shard.removeBefore(timestamp);
+        };
+    }
+
+    @Override
+    public void compact(long timestamp) {
+        for (EventStore shard : shards) {
+            shard.compact(timestamp);
+        };
+    }
+
+    /**
+     * Retrieves an iterator for events based on their type and timestamp,
+     * merging the shards of a sharded type.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator ordered by timestamp, null if no shard has the
+     * type.
+     */
+    @Override
+    public EventIterator query(String type, long startTime, long endTime) {
+        if (!sharded(type)) {
+            return shards[0].query(type, startTime, endTime);
+        };
+        List<EventIterator> iterators = new ArrayList<>(shards.length);
+        boolean found = false;
+        for (EventStore shard : shards) {
+            EventIterator iterator = shard.query(type, startTime, endTime);
+            found |= iterator != null;
+            iterators.add(iterator);
+        };
+        return found ? new MergingEventIterator(iterators) : null;
+    }
+
+    /**
+     * Subscribes to a type that is not sharded.
+     *
+     * @throws UnsupportedOperationException if the type is sharded
+     */
+    @Override
+    public Subscription subscribe(String type, long fromTimestamp, EventListener listener) {
+        if (sharded(type)) {
+            throw new UnsupportedOperationException("sharded types cannot be subscribed");
+        };
+        return shards[0].subscribe(type, fromTimestamp, listener);
+    }
+
+    @Override
+    public Collection<String> types() {
+        Set<String> types = new LinkedHashSet<>();
+        for (EventStore shard : shards) {
+            types.addAll(shard.types());
+        };
+        return types;
+    }
+
+    @Override
+    public long count(String type, long startTime, long endTime) {
+        long count = 0;
+        for (EventStore shard : shardsOf(type)) {
+            count += shard.count(type, startTime, endTime);
+        };
+        return count;
+    }
+
+    @Override
+    public long[] histogram(String type, long startTime, long endTime, long bucketWidth) {
+        long[] histogram = new long[Buckets.count(startTime, endTime, bucketWidth)];
+        for (EventStore shard : shardsOf(type)) {
+            long[] counts = shard.histogram(type, startTime, endTime, bucketWidth);
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += counts[i];
+            };
+        };
+        return histogram;
+    }
+
+    @Override
+    public OptionalLong minTimestamp(String type, long startTime, long endTime) {
+        OptionalLong min = OptionalLong.empty();
+        for (EventStore shard : shardsOf(type)) {
+            OptionalLong timestamp = shard.minTimestamp(type, startTime, endTime);
+            if (timestamp.isPresent() && (!min.isPresent() || timestamp.getAsLong() < min.getAsLong())) {
+                min = timestamp;
+            };
+        };
+        return min;
+    }
+
+    @Override
+    public OptionalLong maxTimestamp(String type, long startTime, long endTime) {
+        OptionalLong max = OptionalLong.empty();
+        for (EventStore shard : shardsOf(type)) {
+            OptionalLong timestamp = shard.maxTimestamp(type, startTime, endTime);
+            if (timestamp.isPresent() && (!max.isPresent() || timestamp.getAsLong() > max.getAsLong())) {
+                max = timestamp;
+            };
+        };
+        return max;
+    }
+
+    /**
+     * Resolves a type once in every shard, so inserts through the handle
+     * skip hashing the type String too.
+     *
+     * @param type
+     * @return handle of type
+     */
+    @Override
+    public TypeHandle typeHandle(String type) {
+        if (!sharded(type)) {
+            return shards[0].typeHandle(type);
+        };
+        TypeHandle[] handles = new TypeHandle[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            handles[i] = shards[i].typeHandle(type);
+        };
+        return new TypeHandle() {
+            @Override
+            public String type() {
+                return type;
+            }
+
+            @Override
+            public void insert(long timestamp) {
+                handles[shardIndex()].insert(timestamp);
+            }
+
+            @Override
+            public void removeAll() {
+                for (TypeHandle handle : handles) {
+                    handle.removeAll();
+                };
+            }
+
+            @Override
+            public void removeBefore(long timestamp) {
+                for (TypeHandle handle : handles) {
+                    handle.removeBefore(timestamp);
+                };
+            }
+
+            @Override
+            public EventIterator query(long startTime, long endTime) {
+                return ShardedEventStore.this.query(type, startTime, endTime);
+            }
+        };
+    }
+
+    /**
+     * @return amount of write shards
+     */
+    public int shards() {
+        return shards.length;
+    }
+
+    private boolean sharded(String type) {
+        return shardedTypes == null || shardedTypes.contains(type);
+    }
+
+    /**
+     * @param type
+     * @return every shard if type is sharded, else only the first one
+     */
+    private EventStoreImpl[] shardsOf(String type) {
+        return sharded(type) ? shards : firstShard;
+    }
+
+    /**
+     * @return the shard of the calling thread
+     */
+    private EventStoreImpl local() {
+        return shards[shardIndex()];
+    }
+
+    /**
+     * Method to pick the shard of the calling thread. Thread ids are
+     * usually handed out in sequence, so writers of a pool spread evenly
+     * @return shard index
+     */
+    private int shardIndex() {
+        return (int) (Thread.currentThread().getId() % shards.length);
+    }
+}
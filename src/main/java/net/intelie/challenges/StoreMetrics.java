@@ -0,0 +1,263 @@
+package net.intelie.challenges;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics of an {@link EventStoreImpl}, created with
+ * {@code new EventStoreImpl(segmentWidth, true)}.
+ * <p>
+ * Hot paths only touch striped {@link LongAdder}s: an insert costs one
+ * increment and is not timed, since reading the clock would cost more than
+ * the insert itself. Queries, aggregates, batches and removals are timed
+ * into {@link LatencyHistogram}s. Sizes of the types are not tracked on the
+ * way; they are computed from the segments when asked for. A store built
+ * without metrics skips all of this behind a null check.
+ * <p>
+ * The getters are the snapshot API: each one reads the current totals, and
+ * the same attributes are seen through JMX once {@link #register}ed.
+ */
+public final class StoreMetrics implements StoreMetricsMXBean {
+
+    private final TypeDictionary<EventIndex> types;
+    private final LongAdder inserted = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder scanned = new LongAdder();
+    private final LongAdder returned = new LongAdder();
+    private final LongAdder removals = new LongAdder();
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final LatencyHistogram aggregateLatency = new LatencyHistogram();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private final LatencyHistogram removeLatency = new LatencyHistogram();
+
+    /**
+     * @param types the types of the store, read for the sizes
+     */
+    StoreMetrics(TypeDictionary<EventIndex> types) {
+        this.types = types;
+    }
+
+    /**
+     * Method to register these metrics in the platform MBean server
+     * @param name distinguishes the stores of the same JVM
+     * @return name of the MBean, to unregister it
+     * @throws JMException if the name is invalid or already taken
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("net.intelie.challenges:type=EventStore,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    void inserted(long count) {
+        inserted.add(count);
+    }
+
+    void batch(long count, long started) {
+        inserted.add(count);
+        batchLatency.record(System.nanoTime() - started);
+    }
+
+    void removed(long started) {
+        removals.increment();
+        removeLatency.record(System.nanoTime() - started);
+    }
+
+    void aggregated(long started) {
+        aggregateLatency.record(System.nanoTime() - started);
+    }
+
+    /**
+     * Method to count a query, timing it until its iterator finishes
+     * @param iterator
+     * @param started
+     * @return iterator reporting to these metrics
+     */
+    EventIterator query(EventIteratorImpl iterator, long started) {
+        queries.increment();
+        return new MeteredIterator(iterator, started);
+    }
+
+    @Override
+    public long getInsertedEvents() {
+        return inserted.sum();
+    }
+
+    @Override
+    public long getQueries() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getScannedEvents() {
+        return scanned.sum();
+    }
+
+    @Override
+    public long getReturnedEvents() {
+        return returned.sum();
+    }
+
+    @Override
+    public double getScanRatio() {
+        long results = returned.sum();
+        return results == 0 ? 0 : (double) scanned.sum() / results;
+    }
+
+    @Override
+    public long getRemovals() {
+        return removals.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getQueryLatency() {
+        return queryLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getAggregateLatency() {
+        return aggregateLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getBatchLatency() {
+        return batchLatency.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRemoveLatency() {
+        return removeLatency.snapshot();
+    }
+
+    @Override
+    public int getTypes() {
+        return getTypeStats().size();
+    }
+
+    @Override
+    public long getEvents() {
+        long events = 0;
+        for (TypeStats stats : getTypeStats()) {
+            events += stats.getEvents();
+        }
+        return events;
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        long bytes = 0;
+        for (TypeStats stats : getTypeStats()) {
+            bytes += stats.getEstimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return stats of the types with an index linked, walking their
+     * segments
+     */
+    @Override
+    public List<TypeStats> getTypeStats() {
+        List<TypeStats> stats = new ArrayList<>();
+        for (TypeDictionary.Entry<EventIndex> entry : types.entries()) {
+            EventIndex index = entry.get();
+            if (index != null) {
+                stats.add(new TypeStats(entry.type(), index.size(), index.segmentCount(), index.estimatedBytes()));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Sizes of a type
+     */
+    public static final class TypeStats {
+        private final String type;
+        private final long events;
+        private final int segments;
+        private final long estimatedBytes;
+
+        TypeStats(String type, long events, int segments, long estimatedBytes) {
+            this.type = type;
+            this.events = events;
+            this.segments = segments;
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getEvents() {
+            return events;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+    }
+
+    /**
+     * Iterator of a query, reporting its latency and scan counts once it
+     * is exhausted or closed
+     */
+    private final class MeteredIterator implements EventIterator {
+        private final EventIteratorImpl iterator;
+        private final long started;
+        private long results = 0;
+        private boolean finished = false;
+
+        MeteredIterator(EventIteratorImpl iterator, long started) {
+            this.iterator = iterator;
+            this.started = started;
+        }
+
+        @Override
+        public boolean moveNext() {
+            if (iterator.moveNext()) {
+                results++;
+                return true;
+            }
+            finish();
+            return false;
+        }
+
+        @Override
+        public Event current() {
+            return iterator.current();
+        }
+
+        @Override
+        public void remove() {
+            iterator.remove();
+        }
+
+        @Override
+        public boolean tryRemove() {
+            return iterator.tryRemove();
+        }
+
+        @Override
+        public void close() throws Exception {
+            finish();
+            iterator.close();
+        }
+
+        private void finish() {
+            if (!finished) {
+                finished = true;
+                queryLatency.record(System.nanoTime() - started);
+                scanned.add(iterator.scanned());
+                returned.add(results);
+            }
+        }
+    }
+}
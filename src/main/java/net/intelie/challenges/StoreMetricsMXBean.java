@@ -0,0 +1,82 @@
+package net.intelie.challenges;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link StoreMetrics}, the attributes seen by JMX
+ * consoles. Counters are totals since the store was created; rates are left
+ * to the monitoring side.
+ */
+public interface StoreMetricsMXBean {
+    /**
+     * @return amount of events inserted
+     */
+    long getInsertedEvents();
+
+    /**
+     * @return amount of queries started
+     */
+    long getQueries();
+
+    /**
+     * @return amount of slots stepped by finished queries, removed ones
+     * included
+     */
+    long getScannedEvents();
+
+    /**
+     * @return amount of events returned by finished queries
+     */
+    long getReturnedEvents();
+
+    /**
+     * @return scanned events per returned event, 0 if nothing was returned
+     */
+    double getScanRatio();
+
+    /**
+     * @return amount of removeAll and removeBefore calls
+     */
+    long getRemovals();
+
+    /**
+     * @return latencies of queries, from the query call until the iterator
+     * is exhausted or closed
+     */
+    LatencyHistogram.Snapshot getQueryLatency();
+
+    /**
+     * @return latencies of count, histogram, minTimestamp and maxTimestamp
+     */
+    LatencyHistogram.Snapshot getAggregateLatency();
+
+    /**
+     * @return latencies of insertAll batches
+     */
+    LatencyHistogram.Snapshot getBatchLatency();
+
+    /**
+     * @return latencies of removeAll and removeBefore
+     */
+    LatencyHistogram.Snapshot getRemoveLatency();
+
+    /**
+     * @return amount of types with events
+     */
+    int getTypes();
+
+    /**
+     * @return amount of events stored, over all types
+     */
+    long getEvents();
+
+    /**
+     * @return estimate of heap bytes held by the events, over all types
+     */
+    long getEstimatedBytes();
+
+    /**
+     * @return events and estimated bytes of each type
+     */
+    List<StoreMetrics.TypeStats> getTypeStats();
+}
@@ -0,0 +1,104 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Point-in-time, read-only view of an {@link EventStoreImpl}, opened by
+ * {@link EventStoreImpl#snapshot()}.
+ * <p>
+ * Queries see exactly the events inserted and not removed when the snapshot
+ * was open, however many inserts and removals come later, and the same
+ * query always gives the same events. Nothing is copied: events carry the
+ * epoch of their insert and removal (see {@link Versions}), and removed ones
+ * are kept while an open snapshot may read them.
+ * <p>
+ * Close it when done, so removed events can be released. Queries of a
+ * closed snapshot fail, and iterators got before must be used before it is
+ * closed.
+ */
+public final class StoreSnapshot implements AutoCloseable {
+    private final EventStoreImpl store;
+    private final long epoch;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    StoreSnapshot(EventStoreImpl store, long epoch) {
+        this.store = store;
+        this.epoch = epoch;
+    }
+
+    /**
+     * @return the epoch of the snapshot, later snapshots have greater ones
+     */
+    public long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Retrieves an iterator for events based on their type and timestamp,
+     * as they were when the snapshot was open.
+     *
+     * @param type      The type we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A read-only iterator, or null if the type has no events now
+     * and had none then.
+     * @throws IllegalStateException if the snapshot is closed
+     */
+    public EventIterator query(String type, long startTime, long endTime) {
+        checkOpen();
+        return store.query(type, startTime, endTime, epoch);
+    }
+
+    /**
+     * Retrieves one iterator for events of many types, ordered by
+     * timestamp, as they were when the snapshot was open.
+     *
+     * @param types     The types we are querying for.
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return A lazy merge of the queries of each type, never null.
+     * @throws IllegalStateException if the snapshot is closed
+     */
+    public EventIterator query(Collection<String> types, long startTime, long endTime) {
+        List<EventIterator> iterators = new ArrayList<>(types.size());
+        for (String type : types) {
+            iterators.add(query(type, startTime, endTime));
+        };
+        return new MergingEventIterator(iterators);
+    }
+
+    /**
+     * @param type
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return amount of events inside the window when the snapshot was open
+     * @throws IllegalStateException if the snapshot is closed
+     */
+    public long count(String type, long startTime, long endTime) {
+        long count = 0;
+        EventIterator iterator = query(type, startTime, endTime);
+        while (iterator != null && iterator.moveNext()) {
+            count++;
+        };
+        return count;
+    }
+
+    /**
+     * Method to close the snapshot, once
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            store.release(epoch);
+        };
+    }
+
+    private void checkOpen() {
+        if (closed.get()) {
+            throw new IllegalStateException("snapshot is closed");
+        };
+    }
+}
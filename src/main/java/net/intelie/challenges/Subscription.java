@@ -0,0 +1,316 @@
+package net.intelie.challenges;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Live tail of the events of a type, delivered to an {@link EventListener}.
+ * <p>
+ * The history from {@code fromTimestamp} on is replayed first; then every
+ * new insert is handed off through a bounded ring buffer of this
+ * subscription and delivered in batches by a task on the executor. Inserting
+ * threads never block and never call the listener: when the ring is full
+ * the event is dropped and counted, and the listener is told through
+ * {@link EventListener#onDropped}.
+ * <p>
+ * Inserts offer their event to the ring after reserving its slot in the
+ * segment and before publishing it (see {@link EventIndex#insert}). So an
+ * event visible to the replay that was meant for the ring is already in
+ * it, and the replay skips it; an event not meant for the ring was reserved
+ * before the subscription started, and the replay waits for it to be
+ * published. Events are told apart by their segment and slot, so the same
+ * event inserted twice is delivered twice, and an event dropped while the
+ * history is replayed is not delivered by the replay either. Each event is
+ * delivered once, unless dropped.
+ * <p>
+ * A listener that throws is told through {@link EventListener#onError} and
+ * unsubscribed.
+ */
+public class Subscription implements AutoCloseable {
+    /**
+     * Default amount of events buffered for a listener
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAX_BATCH = 256;
+    private static final Logger LOGGER = Logger.getLogger(Subscription.class.getName());
+
+    private final EventIndex index;
+    private final long fromTimestamp;
+    private final EventListener listener;
+    private final Executor executor;
+    private final AtomicReferenceArray<Event> ring;
+    // segment and slot of each event in the ring, written before it
+    private final Segment[] ringSegments;
+    private final int[] ringSlots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closed = false;
+    private volatile boolean completed = false;
+    private volatile boolean replaying = true;
+    // slots dropped while replaying, guarded by itself
+    private final Map<Segment, BitSet> droppedSlots = new IdentityHashMap<>();
+    // only touched by the delivery task
+    private boolean replayed = false;
+    private boolean completionSent = false;
+
+    /**
+     * @param index         index of the type
+     * @param fromTimestamp first timestamp of the history replayed
+     * @param listener
+     * @param executor      runs the delivery task
+     * @param capacity      amount of events buffered, rounded up to a
+     *                      power of two
+     */
+    Subscription(EventIndex index, long fromTimestamp, EventListener listener, Executor executor, int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("invalid capacity");
+        };
+        int size = Integer.highestOneBit(capacity);
+        size = size < capacity ? size << 1 : size;
+        this.index = index;
+        this.fromTimestamp = fromTimestamp;
+        this.listener = listener;
+        this.executor = executor;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.ringSegments = new Segment[size];
+        this.ringSlots = new int[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Method to stop delivering events. Events still buffered are
+     * discarded
+     */
+    @Override
+    public void close() {
+        closed = true;
+        index.unsubscribe(this);
+    }
+
+    /**
+     * @return true if closed, or the type was removed and everything
+     * buffered was already delivered
+     */
+    public boolean isClosed() {
+        return closed || completionSent;
+    }
+
+    /**
+     * Method to hand a new event off to the delivery task, never blocking
+     * @param segment where the event was reserved
+     * @param slot    reserved for the event
+     * @param event
+     */
+    void offer(Segment segment, int slot, Event event) {
+        if (closed) {
+            return;
+        };
+        long claimed;
+        do {
+            claimed = tail.get();
+            // if the ring is full, then the event is dropped
+            if (claimed - head >= ring.length()) {
+                // the replay must not deliver it either
+                if (replaying) {
+                    synchronized (droppedSlots) {
+                        droppedSlots.computeIfAbsent(segment, key -> new BitSet()).set(slot);
+                    };
+                };
+                dropped.incrementAndGet();
+                schedule();
+                return;
+            };
+        } while (!tail.compareAndSet(claimed, claimed + 1));
+        int offset = (int) claimed & mask;
+        ringSegments[offset] = segment;
+        ringSlots[offset] = slot;
+        // written last, so readers of the event see its slot
+        ring.set(offset, event);
+        schedule();
+    }
+
+    /**
+     * Method to start the replay, once registered in the index
+     */
+    void start() {
+        schedule();
+    }
+
+    /**
+     * Method to end the subscription when its type is removed, after
+     * delivering what is buffered
+     */
+    void complete() {
+        completed = true;
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(this::drain);
+        };
+    }
+
+    /**
+     * Delivery task, at most one running at a time
+     */
+    private void drain() {
+        try {
+            while (true) {
+                if (!replayed) {
+                    replay();
+                    replayed = true;
+                };
+                deliver();
+                scheduled.set(false);
+                // if something arrived after the last check, then go on
+                if (!hasPending() || !scheduled.compareAndSet(false, true)) {
+                    return;
+                };
+            }
+        } catch (RuntimeException e) {
+            // a failing listener is unsubscribed, instead of failing forever
+            close();
+            scheduled.set(false);
+            LOGGER.log(Level.WARNING, "listener failed, unsubscribed", e);
+            try {
+                listener.onError(e);
+            } catch (RuntimeException ignored) {
+                // already unsubscribed
+            };
+        };
+    }
+
+    private boolean hasPending() {
+        return !closed && (ring.get((int) head & mask) != null || dropped.get() > 0
+                || (completed && !completionSent));
+    }
+
+    /**
+     * Method to send the events buffered in the ring, in batches
+     */
+    private void deliver() {
+        while (!closed) {
+            List<Event> batch = new ArrayList<>(Math.min(MAX_BATCH, ring.length()));
+            long position = head;
+            while (batch.size() < MAX_BATCH) {
+                int offset = (int) position & mask;
+                Event event = ring.get(offset);
+                // slots claimed but not written yet end the batch
+                if (event == null) {
+                    break;
+                };
+                ringSegments[offset] = null;
+                ring.lazySet(offset, null);
+                batch.add(event);
+                position++;
+            };
+            head = position;
+            long lost = dropped.getAndSet(0);
+            if (lost > 0) {
+                listener.onDropped(lost);
+            };
+            if (batch.isEmpty()) {
+                break;
+            };
+            listener.onEvents(batch);
+        };
+        if (completed && !closed && !completionSent && ring.get((int) head & mask) == null) {
+            completionSent = true;
+            listener.onCompleted();
+            close();
+        };
+    }
+
+    /**
+     * Method to send the history of the type, skipping events already
+     * handed off to the ring. The ring is not drained meanwhile, so it
+     * holds every event offered since the subscription started
+     */
+    private void replay() {
+        try {
+            replaySegments();
+        } finally {
+            replaying = false;
+            synchronized (droppedSlots) {
+                droppedSlots.clear();
+            };
+        }
+    }
+
+    private void replaySegments() {
+        Map<Segment, BitSet> offered = new IdentityHashMap<>();
+        long collected = head;
+        List<Event> batch = new ArrayList<>(MAX_BATCH);
+        Segment.Cursor cursor = new Segment.Cursor();
+        for (Segment segment : index.segments(fromTimestamp)) {
+            if (closed) {
+                return;
+            };
+            // slots reserved before the subscription may still be written
+            int reserved = segment.reservedSlots();
+            int[] view = segment.view();
+            while (segment.length(view) < reserved) {
+                Thread.yield();
+                view = segment.view();
+            };
+            // read after the view, so events visible in it are in the ring,
+            // or were dropped
+            collected = collect(offered, collected);
+            BitSet skipped = offered.getOrDefault(segment, new BitSet());
+            synchronized (droppedSlots) {
+                BitSet lost = droppedSlots.get(segment);
+                if (lost != null) {
+                    skipped.or(lost);
+                };
+            };
+            int length = segment.length(view);
+            for (int position = segment.lowerBound(view, fromTimestamp); position < length; position++) {
+                Event event = segment.event(view[position], cursor);
+                if (event != Segment.REMOVED && !skipped.get(view[position])) {
+                    batch.add(event);
+                    if (batch.size() == MAX_BATCH) {
+                        listener.onEvents(batch);
+                        batch = new ArrayList<>(MAX_BATCH);
+                    };
+                };
+            };
+        };
+        if (!batch.isEmpty()) {
+            listener.onEvents(batch);
+        };
+    }
+
+    /**
+     * Method to add the slots of the events written in the ring to offered
+     * @param from first position maybe not collected yet
+     * @return first position still being written, where the next
+     * collection starts
+     */
+    private long collect(Map<Segment, BitSet> offered, long from) {
+        long end = tail.get();
+        long hole = -1;
+        for (long position = from; position < end; position++) {
+            int offset = (int) position & mask;
+            if (ring.get(offset) == null) {
+                hole = hole < 0 ? position : hole;
+            } else {
+                offered.computeIfAbsent(ringSegments[offset], key -> new BitSet()).set(ringSlots[offset]);
+            };
+        };
+        return hole < 0 ? end : hole;
+    }
+}
@@ -0,0 +1,130 @@
+package net.intelie.challenges;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Concurrent dictionary of event types, giving each type a compact int id
+ * and a single canonical String.
+ * <p>
+ * Each type has an {@link Entry} holding the value a store keeps for it
+ * (its index or partition). Lookups by name hash the String once; holders of
+ * an entry (or of its id, through {@link #entry(int)}) skip hashing and
+ * String equality altogether. Entries are never removed, so ids stay stable
+ * and are never reused: removing a type just clears the value of its entry.
+ *
+ * @param <V> value kept for each type
+ */
+public class TypeDictionary<V> {
+    private final ConcurrentHashMap<String, Entry<V>> byName = new ConcurrentHashMap<>();
+    private volatile Entry<V>[] byId = newEntries(16);
+    private int size = 0;
+
+    /**
+     * Method to get the entry of a type, creating it if needed
+     * @param type
+     * @return the single entry of type
+     */
+    public Entry<V> entry(String type) {
+        Entry<V> entry = byName.get(type);
+        if (entry == null) {
+            entry = byName.computeIfAbsent(type, this::create);
+        };
+        return entry;
+    }
+
+    /**
+     * @param type
+     * @return the entry of type, null if type was never seen
+     */
+    public Entry<V> find(String type) {
+        return type == null ? null : byName.get(type);
+    }
+
+    /**
+     * @param id
+     * @return the entry with id, null if there is none
+     */
+    public Entry<V> entry(int id) {
+        Entry<V>[] entries = byId;
+        return id >= 0 && id < entries.length ? entries[id] : null;
+    }
+
+    /**
+     * @return amount of types seen, which is also the next id
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return entries of every type seen, weakly consistent
+     */
+    public Iterable<Entry<V>> entries() {
+        return byName.values();
+    }
+
+    /**
+     * Method to register a new type, called once per type inside the map
+     */
+    private synchronized Entry<V> create(String type) {
+        Entry<V> entry = new Entry<>(type, size);
+        Entry<V>[] entries = byId;
+        if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+        };
+        entries[size++] = entry;
+        // written again, so readers by id see the new element
+        byId = entries;
+        return entry;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Entry<V>[] newEntries(int length) {
+        return (Entry<V>[]) new Entry<?>[length];
+    }
+
+    /**
+     * Type with its id and the value a store keeps for it
+     */
+    public static final class Entry<V> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Entry, Object> VALUE =
+                AtomicReferenceFieldUpdater.newUpdater(Entry.class, Object.class, "value");
+
+        private final String type;
+        private final int id;
+        private volatile Object value;
+
+        Entry(String type, int id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        /**
+         * @return the canonical String of the type
+         */
+        public String type() {
+            return type;
+        }
+
+        public int id() {
+            return id;
+        }
+
+        @SuppressWarnings("unchecked")
+        public V get() {
+            return (V) value;
+        }
+
+        public boolean compareAndSet(V expected, V value) {
+            return VALUE.compareAndSet(this, expected, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        public V getAndSet(V value) {
+            return (V) VALUE.getAndSet(this, value);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package net.intelie.challenges;
+
+/**
+ * A type of an {@link EventStore}, resolved once through
+ * {@link EventStore#typeHandle(String)}, so hot loops on the same type skip
+ * looking it up by name on every call.
+ * <p>
+ * A handle stays valid after {@link #removeAll()}: later inserts through it
+ * start the type again, as inserts by name would.
+ */
+public interface TypeHandle {
+    /**
+     * @return the type of this handle
+     */
+    String type();
+
+    /**
+     * Stores an event of this type. Events created by the handle share
+     * its type String.
+     *
+     * @param timestamp
+     */
+    void insert(long timestamp);
+
+    /**
+     * Removes all events of this type.
+     */
+    void removeAll();
+
+    /**
+     * Removes all events of this type older than a timestamp.
+     *
+     * @param timestamp First timestamp kept (events before it are removed).
+     */
+    void removeBefore(long timestamp);
+
+    /**
+     * Retrieves an iterator for events of this type based on their timestamp.
+     *
+     * @param startTime Start timestamp (inclusive).
+     * @param endTime   End timestamp (exclusive).
+     * @return An iterator where all its events have timestamp between
+     * {@param startTime} (inclusive) and {@param endTime} (exclusive).
+     * Null if the type has no events.
+     */
+    EventIterator query(long startTime, long endTime);
+}
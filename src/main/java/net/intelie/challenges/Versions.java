@@ -0,0 +1,98 @@
+package net.intelie.challenges;
+
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Epochs of the changes of a store, for point-in-time reads.
+ * <p>
+ * Each insert and removal takes the current epoch with {@link #enter()} and
+ * stamps it on what it changes. Opening a snapshot moves to the next epoch
+ * and then waits for the changes still running in the old one, so a
+ * snapshot at epoch e sees exactly the changes stamped e or less: they are
+ * all done, and every later change is stamped after e.
+ * <p>
+ * Writers only touch the counter of the parity of their epoch, so they never
+ * wait for readers; only opening a snapshot waits, and just for the writers
+ * that were already running.
+ * <p>
+ * The open snapshots are kept, so removals know whether the removed events
+ * must still be kept for someone, see {@link #oldest()}.
+ */
+final class Versions {
+    /**
+     * Epoch of reads that see every change, and the oldest epoch when no
+     * snapshot is open
+     */
+    static final long LIVE = Long.MAX_VALUE;
+
+    private volatile long epoch = 1;
+    private final LongAdder[] writers = {new LongAdder(), new LongAdder()};
+    // open snapshots by epoch, guarded by this
+    private final TreeMap<Long, Integer> open = new TreeMap<>();
+    private volatile long oldest = LIVE;
+
+    /**
+     * Method to start a change, to be ended with {@link #exit}
+     * @return the epoch to stamp on the change
+     */
+    long enter() {
+        while (true) {
+            long current = epoch;
+            writers[(int) current & 1].increment();
+            // if a snapshot moved on meanwhile, it may not wait for us
+            if (epoch == current) {
+                return current;
+            };
+            writers[(int) current & 1].decrement();
+        }
+    }
+
+    /**
+     * @param epoch returned by {@link #enter()}
+     */
+    void exit(long epoch) {
+        writers[(int) epoch & 1].decrement();
+    }
+
+    /**
+     * Method to open a snapshot of the changes done so far
+     * @return its epoch, to be given back to {@link #close}
+     */
+    synchronized long open() {
+        long current = epoch;
+        // registered before moving on, so writers of the next epoch see it
+        open.merge(current, 1, Integer::sum);
+        oldest = open.firstKey();
+        epoch = current + 1;
+        while (writers[(int) current & 1].sum() != 0) {
+            Thread.yield();
+        };
+        return current;
+    }
+
+    /**
+     * @param epoch of a snapshot open by {@link #open()}
+     */
+    synchronized void close(long epoch) {
+        Integer count = open.get(epoch);
+        if (count == null) {
+            return;
+        };
+        if (count == 1) {
+            open.remove(epoch);
+        } else {
+            open.put(epoch, count - 1);
+        };
+        oldest = open.isEmpty() ? LIVE : open.firstKey();
+    }
+
+    /**
+     * @return epoch of the oldest open snapshot, {@link #LIVE} if there is
+     * none. Read after {@link #enter()}, a snapshot that needs the change
+     * is always seen
+     */
+    long oldest() {
+        return oldest;
+    }
+}
@@ -0,0 +1,273 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingEventStoreTest {
+
+    EventStoreImpl delegate;
+    CachingEventStore store;
+
+    @Before
+    public void init() {
+        delegate = new EventStoreImpl(10l);
+        store = new CachingEventStore(delegate, 1000);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+    };
+
+    /**
+     * Test if repeated reads of a window are answered by
+     * the cache with the same results
+     */
+    @Test
+    public void query_repeated_shouldHitCache() {
+        List<Long> first = timestamps(store.query("type1", 10l, 20l));
+        assertEquals(first, timestamps(store.query("type1", 10l, 20l)));
+        assertEquals(10, store.count("type1", 10l, 20l));
+        assertEquals(10, store.count("type1", 10l, 20l));
+        assertEquals(10l, store.minTimestamp("type1", 10l, 20l).getAsLong());
+        assertEquals(19l, store.maxTimestamp("type1", 10l, 20l).getAsLong());
+        assertEquals(2, store.hits());
+        assertEquals(4, store.misses());
+        assertEquals(1.0 / 3, store.hitRate(), 0.0001);
+        assertNull(store.query("unknown", 0l, 10l));
+    };
+
+    /**
+     * Test if inserts invalidate only the windows holding
+     * their timestamps
+     */
+    @Test
+    public void insert_insideWindow_shouldInvalidateIt() {
+        store.count("type1", 0l, 50l);
+        store.count("type1", 50l, 100l);
+        store.insert(new Event("type1", 75l));
+        store.insertAll(Arrays.asList(new Event("type1", 80l), new Event("type2", 10l)));
+        assertEquals(1, store.invalidations());
+        assertEquals(50, store.count("type1", 0l, 50l));
+        assertEquals(52, store.count("type1", 50l, 100l));
+        assertEquals(1, store.hits());
+        assertEquals(1, store.count("type2", 0l, 50l));
+    };
+
+    /**
+     * Test if removals invalidate the windows they change
+     */
+    @Test
+    public void remove_cachedWindows_shouldInvalidateThem() {
+        store.count("type1", 0l, 50l);
+        store.count("type1", 50l, 100l);
+        store.removeBefore("type1", 25l);
+        assertEquals(25, store.count("type1", 0l, 50l));
+        assertEquals(50, store.count("type1", 50l, 100l));
+        store.removeBefore(60l);
+        assertEquals(40, store.count("type1", 50l, 100l));
+        store.removeAll("type1");
+        assertEquals(0, store.count("type1", 50l, 100l));
+        assertNull(store.query("type1", 50l, 100l));
+    };
+
+    /**
+     * Test if removing through a cached query removes the
+     * event from the delegate
+     */
+    @Test
+    public void remove_cachedIterator_shouldRemoveFromDelegate() {
+        store.query("type1", 0l, 10l);
+        EventIterator iterator = store.query("type1", 0l, 10l);
+        while (iterator.moveNext()) {
+            if (iterator.current().timestamp() % 2 == 0) {
+                iterator.remove();
+            };
+        };
+        assertEquals(Arrays.asList(1l, 3l, 5l, 7l, 9l), timestamps(store.query("type1", 0l, 10l)));
+        assertEquals(5, delegate.count("type1", 0l, 10l));
+    };
+
+    /**
+     * Test if entries over the capacity evict the least
+     * recently used ones, and too big queries are not cached
+     */
+    @Test
+    public void query_overCapacity_shouldEvictLeastRecentlyUsed() {
+        CachingEventStore small = new CachingEventStore(delegate, 50);
+        small.query("type1", 0l, 20l);
+        small.query("type1", 20l, 40l);
+        small.query("type1", 0l, 20l);
+        small.query("type1", 40l, 60l);
+        assertEquals(1, small.evictions());
+        assertTrue(small.weight() <= 50);
+        small.query("type1", 0l, 20l);
+        assertEquals(2, small.hits());
+        assertEquals(100, timestamps(small.query("type1", 0l, 100l)).size());
+        assertEquals(100, timestamps(small.query("type1", 0l, 100l)).size());
+        assertEquals(2, small.hits());
+    };
+
+    /**
+     * Test if a cached histogram is not changed by its
+     * callers
+     */
+    @Test
+    public void histogram_changedByCaller_shouldKeepCached() {
+        long[] histogram = store.histogram("type1", 0l, 100l, 50l);
+        histogram[0] = 0;
+        assertArrayEquals(new long[]{50, 50}, store.histogram("type1", 0l, 100l, 50l));
+        assertEquals(1, store.hits());
+    };
+
+    /**
+     * Test if a sliding window hits the buckets it still
+     * covers and reads only its edges from the delegate
+     */
+    @Test
+    public void query_slidingWindow_shouldHitAlignedBuckets() {
+        CachingEventStore aligned = new CachingEventStore(delegate, 1000, 10l);
+        assertEquals(50, aligned.count("type1", 5l, 55l));
+        assertEquals(4, aligned.misses());
+        assertEquals(50, aligned.count("type1", 7l, 57l));
+        assertEquals(4, aligned.hits());
+        assertEquals(7l, aligned.minTimestamp("type1", 7l, 57l).getAsLong());
+        assertEquals(56l, aligned.maxTimestamp("type1", 7l, 57l).getAsLong());
+        List<Long> expected = new ArrayList<>();
+        for (long timestamp = 3; timestamp < 53; timestamp++) {
+            expected.add(timestamp);
+        };
+        assertEquals(expected, timestamps(aligned.query("type1", 3l, 53l)));
+        long hits = aligned.hits();
+        expected.remove(0);
+        expected.add(53l);
+        assertEquals(expected, timestamps(aligned.query("type1", 4l, 54l)));
+        assertEquals(hits + 4, aligned.hits());
+        aligned.insert(new Event("type1", 25l));
+        assertEquals(51, aligned.count("type1", 7l, 57l));
+        assertNull(aligned.query("unknown", 5l, 55l));
+    };
+
+    /**
+     * Test if removing equal events through a cached query
+     * removes each occurrence once, and the same one only once
+     */
+    @Test
+    public void remove_cachedDuplicates_shouldRemoveEachOnce() {
+        store.insert(new Event("type1", 5l));
+        store.insert(new Event("type1", 5l, Payload.wrap(new byte[] {1})));
+        store.insert(new Event("type1", 5l));
+        store.query("type1", 5l, 6l);
+        EventIterator iterator = store.query("type1", 5l, 6l);
+        int seen = 0;
+        // keeps the first event without payload, removes the other two
+        while (iterator.moveNext()) {
+            if (iterator.current().payload().isEmpty() && seen++ > 0) {
+                iterator.remove();
+                try {
+                    iterator.remove();
+                    fail("removed twice");
+                } catch (IllegalStateException e) {
+                    // already removed
+                };
+            };
+        };
+        assertEquals(1, store.hits());
+        List<Event> left = new ArrayList<>();
+        iterator = delegate.query("type1", 5l, 6l);
+        while (iterator.moveNext()) {
+            left.add(iterator.current());
+        };
+        assertEquals(Arrays.asList(new Event("type1", 5l), new Event("type1", 5l, Payload.wrap(new byte[] {1}))), left);
+    };
+
+    /**
+     * Test if a bucket with more events than an entry may
+     * keep is streamed whole and not cached
+     */
+    @Test
+    public void query_overEntryWeight_shouldStreamRest() {
+        CachingEventStore small = new CachingEventStore(delegate, 20, 50l);
+        List<Long> expected = new ArrayList<>();
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            expected.add(timestamp);
+        };
+        assertEquals(expected, timestamps(small.query("type1", 0l, 100l)));
+        assertEquals(0, small.size());
+        EventIterator iterator = small.query("type1", 0l, 100l);
+        for (int i = 0; i < 30; i++) {
+            assertTrue(iterator.moveNext());
+        };
+        iterator.remove();
+        assertEquals(99, delegate.count("type1", 0l, 100l));
+        assertEquals(99, timestamps(small.query("type1", 0l, 100l)).size());
+    };
+
+    /**
+     * Test if a cold window of many buckets is read with
+     * a single delegate call that fills every bucket
+     */
+    @Test
+    public void read_coldWindow_shouldReadDelegateOnce() {
+        EventStoreImpl metered = new EventStoreImpl(10l, true);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            metered.insert(new Event("type1", timestamp));
+        };
+        StoreMetrics metrics = metered.metrics();
+        CachingEventStore aligned = new CachingEventStore(metered, 1000, 10l);
+        assertEquals(100, aligned.count("type1", 0l, 100l));
+        assertEquals(1, metrics.getAggregateLatency().getCount());
+        assertEquals(10, aligned.misses());
+        assertEquals(100, aligned.count("type1", 0l, 100l));
+        assertEquals(10, aligned.hits());
+        // the empty buckets before the first event are cached too
+        assertEquals(0l, aligned.minTimestamp("type1", -200l, 100l).getAsLong());
+        assertEquals(0l, aligned.minTimestamp("type1", -200l, 100l).getAsLong());
+        assertEquals(99l, aligned.maxTimestamp("type1", 0l, 300l).getAsLong());
+        assertEquals(99l, aligned.maxTimestamp("type1", 0l, 300l).getAsLong());
+        assertEquals(3, metrics.getAggregateLatency().getCount());
+        List<Long> expected = new ArrayList<>();
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            expected.add(timestamp);
+        };
+        assertEquals(expected, timestamps(aligned.query("type1", 0l, 100l)));
+        assertEquals(1, metrics.getQueries());
+        long hits = aligned.hits();
+        assertEquals(expected, timestamps(aligned.query("type1", 0l, 100l)));
+        assertEquals(1, metrics.getQueries());
+        assertEquals(hits + 10, aligned.hits());
+    };
+
+    /**
+     * Test if a write landing in a bucket of a window read
+     * at once keeps the buckets read after it from being cached
+     */
+    @Test
+    public void query_writeDuringColdWindow_shouldNotCacheStale() {
+        CachingEventStore aligned = new CachingEventStore(delegate, 1000, 10l);
+        EventIterator iterator = aligned.query("type1", 0l, 100l);
+        assertTrue(iterator.moveNext());
+        aligned.insert(new Event("type1", 95l));
+        while (iterator.moveNext()) {
+            // reads the rest of the window
+        };
+        assertEquals(101, timestamps(aligned.query("type1", 0l, 100l)).size());
+        assertEquals(101, aligned.count("type1", 0l, 100l));
+    };
+
+    private static List<Long> timestamps(EventIterator iterator) {
+        List<Long> timestamps = new ArrayList<>();
+        while (iterator != null && iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        return timestamps;
+    }
+}
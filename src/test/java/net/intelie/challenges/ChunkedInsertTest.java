@@ -0,0 +1,70 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedInsertTest {
+
+    /**
+     * Test if a batch is stored in chunks, each one a
+     * new task
+     */
+    @Test
+    public void insertAsync_bigBatch_shouldStoreInChunks() {
+        EventStoreImpl store = new EventStoreImpl(100l);
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<Void> future = store.insertAsync(batch(10000), tasks::add);
+        int runs = 0;
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+            runs++;
+        };
+        assertTrue(future.isDone());
+        assertEquals(3, runs);
+        assertEquals(10000, store.count("type1", 0l, 10000l));
+    };
+
+    /**
+     * Test if cancelling stops before the next chunk,
+     * keeping the ones stored
+     */
+    @Test
+    public void insertAsync_cancelled_shouldStopBeforeNextChunk() {
+        EventStoreImpl store = new EventStoreImpl(100l);
+        Queue<Runnable> tasks = new ArrayDeque<>();
+        CompletableFuture<Void> future = store.insertAsync(batch(10000), tasks::add);
+        tasks.poll().run();
+        future.cancel(false);
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+        };
+        assertEquals(ChunkedInsert.CHUNK, store.count("type1", 0l, 10000l));
+    };
+
+    /**
+     * Test if the future completes on a real executor
+     */
+    @Test
+    public void insertAsync_commonPool_shouldComplete() throws Exception {
+        EventStoreImpl store = new EventStoreImpl(100l);
+        store.insertAsync(batch(5000)).get(10, TimeUnit.SECONDS);
+        assertEquals(5000, store.count("type1", 0l, 5000l));
+    };
+
+    private static List<Event> batch(int size) {
+        List<Event> events = new ArrayList<>(size);
+        for (long timestamp = 0; timestamp < size; timestamp++) {
+            events.add(new Event("type1", timestamp));
+        };
+        return events;
+    }
+}
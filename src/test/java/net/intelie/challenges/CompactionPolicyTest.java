@@ -0,0 +1,63 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactionPolicyTest {
+
+    EventStoreImpl store;
+    AtomicLong clock;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(1000l, true);
+        clock = new AtomicLong();
+        for (long timestamp = 0; timestamp < 10000; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp));
+        };
+    };
+
+    /**
+     * Test if compact seals only the segments older
+     * than minAge, keeping every event readable
+     */
+    @Test
+    public void compact_validClock_shouldSealOldSegments() {
+        long before = store.metrics().getEstimatedBytes();
+        CompactionPolicy policy = new CompactionPolicy(store, 1000l, 0l, clock::get);
+        clock.set(10000l);
+        policy.compact();
+        long after = store.metrics().getEstimatedBytes();
+        assertTrue(after * 4 < before);
+        EventIterator iterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+        long expected = 0;
+        while (iterator.moveNext()) {
+            assertEquals(new Event("type1", expected++), iterator.current());
+        };
+        assertEquals(10000, expected);
+        assertEquals(10000, store.count("type2", 0l, 10000l));
+        policy.close();
+    };
+
+    /**
+     * Test if the background run compacts events
+     */
+    @Test
+    public void compact_scheduled_shouldRunInBackground() throws Exception {
+        long before = store.metrics().getEstimatedBytes();
+        clock.set(Long.MAX_VALUE);
+        CompactionPolicy policy = new CompactionPolicy(store, 0l, 10l, clock::get);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.metrics().getEstimatedBytes() * 4 >= before && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        };
+        policy.close();
+        assertTrue(store.metrics().getEstimatedBytes() * 4 < before);
+    };
+}
@@ -48,6 +48,22 @@ package net.intelie.challenges;
  *      after rescuing the HTI of a type, I need to go through the HTI entirely and check which events are in the
  *      informed range. Still, compared to the case without using a HTE, O(m) < O(n).
  *      reminder note: O(n), where n is equal to the number of total events
+ *
+ * WHY HTI BECAME A TIME INDEX (EventIndex)?
+ *      O(m) is still too much when a type has hundreds of millions of events and the query asks for a few minutes.
+ *      So each type is now kept in a ConcurrentSkipListMap ordered by timestamp. The query seeks straight to
+ *      startTime and stops at endTime, with complexity O(log m + k), where k is the amount of events in the range.
+ *      The skip list is lock-free as the ConcurrentHashMap bins, so producers of the same type still insert in
+ *      parallel. The cost is O(log m) per insertion instead of O(1).
+ *
+ * WHY THE SKIP LIST BECAME SEGMENTS OF long[] CHUNKS?
+ *      Each skip list entry costs a node, an index node and a boxed Long key besides the event, and every insertion
+ *      allocates them. Now the time index is split in segments of fixed time buckets (EventIndex.DEFAULT_SEGMENT_WIDTH).
+ *      A segment stores timestamps in long[] chunks with the events alongside: an insertion reserves a slot with one
+ *      atomic increment and writes into arrays that already exist, so it allocates nothing and is still lock-free.
+ *      Only the segments (one per bucket, not per event) are kept in the skip list. Inside a segment, readers get a
+ *      view of the slots ordered by timestamp, which is merged again only when new events arrived. Removing through
+ *      the iterator just marks the slot, O(1). EventIndex.bytesPerEvent() reports the memory cost of each event.
  */
 public class ConcurrentTest {
 
@@ -0,0 +1,283 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EventIndexTest {
+
+    EventIndex index;
+
+    @Before
+    public void init() {
+        index = new EventIndex(10l);
+    };
+
+    /**
+     * Test if iterating a range returns only events between start
+     * (inclusive) and end (exclusive), ordered by timestamp, even
+     * when the range crosses segments
+     */
+    @Test
+    public void insert_valueBetween8And25_shouldIterateOrdered() {
+        for (long timestamp = 30; timestamp >= 0; timestamp--) {
+            index.insert(new Event("type1", timestamp));
+        };
+        EventIterator iterator = new EventIteratorImpl(index, 8l, 25l);
+        for (long timestamp = 8; timestamp < 25; timestamp++) {
+            assertTrue(iterator.moveNext());
+            assertEquals(timestamp, iterator.current().timestamp());
+        };
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if inverted bounds are just empty
+     * instead of throwing exceptions
+     */
+    @Test
+    public void segments_invertedBounds_shouldBeEmpty() {
+        index.insert(new Event("type1", 3l));
+        assertTrue(index.segments(5l, 1l).isEmpty());
+        assertTrue(index.segments(3l, 3l).isEmpty());
+    };
+
+    /**
+     * Test if insert with null just ignores and
+     * don't insert anything neither throw exceptions
+     */
+    @Test
+    public void insert_nullEvent_shouldNotAdd() {
+        index.insert(null);
+        assertEquals(0, index.size());
+    };
+
+    /**
+     * Test if segments are a live view, seeing events inserted
+     * after the iterator was created
+     */
+    @Test
+    public void segments_insertAfterIterator_shouldSeeNewEvent() {
+        EventIterator iterator = new EventIteratorImpl(index, 0l, 100l);
+        Event event = new Event("type1", 50l);
+        index.insert(event);
+        assertTrue(iterator.moveNext());
+        assertEquals(event, iterator.current());
+    };
+
+    /**
+     * Test if timestamps at the edges of the long range
+     * get a segment without overflowing
+     */
+    @Test
+    public void insert_extremeTimestamps_shouldIterateAll() {
+        Event min = new Event("type1", Long.MIN_VALUE);
+        Event max = new Event("type1", Long.MAX_VALUE - 1);
+        index.insert(max);
+        index.insert(min);
+        EventIterator iterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(iterator.moveNext());
+        assertEquals(min, iterator.current());
+        assertTrue(iterator.moveNext());
+        assertEquals(max, iterator.current());
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if insertAll stores an unordered batch crossing
+     * segments, without modifying the batch
+     */
+    @Test
+    public void insertAll_unorderedBatch_shouldIterateOrdered() {
+        List<Event> batch = new ArrayList<>();
+        for (long timestamp = 29; timestamp >= 0; timestamp--) {
+            batch.add(new Event("type1", timestamp));
+        };
+        Event first = batch.get(0);
+        index.insertAll(batch);
+        assertEquals(first, batch.get(0));
+        EventIterator iterator = new EventIteratorImpl(index, 0l, 30l);
+        for (long timestamp = 0; timestamp < 30; timestamp++) {
+            assertTrue(iterator.moveNext());
+            assertEquals(timestamp, iterator.current().timestamp());
+        };
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if removeBefore drops whole older segments and only
+     * removes part of the segment holding the timestamp
+     */
+    @Test
+    public void removeBefore_middleOfSegment_shouldDropOlderSegments() {
+        for (long timestamp = 0; timestamp < 50; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+        };
+        assertEquals(5, index.segmentCount());
+        index.removeBefore(25l);
+        assertEquals(3, index.segmentCount());
+        assertEquals(25, index.size());
+        EventIterator iterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(iterator.moveNext());
+        assertEquals(25l, iterator.current().timestamp());
+    };
+
+    /**
+     * Test if an insertion after removeBefore of the bucket it
+     * used last goes to a new segment instead of the dropped one
+     */
+    @Test
+    public void insert_afterDroppingLatestSegment_shouldBeKept() {
+        index.insert(new Event("type1", 5l));
+        index.removeBefore(10l);
+        Event event = new Event("type1", 6l);
+        index.insert(event);
+        EventIterator iterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(iterator.moveNext());
+        assertEquals(event, iterator.current());
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if size and bytes per event are reported
+     */
+    @Test
+    public void bytesPerEvent_validEvents_shouldBePositive() {
+        assertEquals(0, index.bytesPerEvent(), 0);
+        for (long timestamp = 0; timestamp < 1000; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+        };
+        assertEquals(1000, index.size());
+        assertTrue(index.bytesPerEvent() > 0);
+    };
+
+    /**
+     * Test if count, histogram, min and max match the events
+     * iterated, for windows aligned or not to segments, with removals
+     */
+    @Test
+    public void aggregates_manyWindows_shouldMatchIteration() {
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+            index.insert(new Event("type1", timestamp));
+        };
+        EventIterator removing = new EventIteratorImpl(index, 40l, 60l);
+        while (removing.moveNext()) {
+            if (removing.current().timestamp() % 3 == 0) {
+                removing.remove();
+            };
+        };
+        long[][] windows = {{0, 100}, {5, 95}, {10, 20}, {37, 61}, {42, 43}, {-50, 0}, {50, 50}, {-1000, 1000}};
+        for (long[] window : windows) {
+            List<Long> timestamps = new ArrayList<>();
+            EventIterator iterator = new EventIteratorImpl(index, window[0], window[1]);
+            while (iterator.moveNext()) {
+                timestamps.add(iterator.current().timestamp());
+            };
+            assertEquals(timestamps.size(), index.count(window[0], window[1]));
+            long[] histogram = new long[Buckets.count(window[0], window[1], 7l)];
+            for (long timestamp : timestamps) {
+                histogram[Buckets.index(timestamp, window[0], 7l)]++;
+            };
+            assertArrayEquals(histogram, index.histogram(window[0], window[1], 7l));
+            assertEquals(timestamps.isEmpty() ? OptionalLong.empty() : OptionalLong.of(timestamps.get(0)),
+                    index.minTimestamp(window[0], window[1]));
+            assertEquals(timestamps.isEmpty() ? OptionalLong.empty() : OptionalLong.of(timestamps.get(timestamps.size() - 1)),
+                    index.maxTimestamp(window[0], window[1]));
+        };
+    };
+
+    /**
+     * Test if a histogram over the whole long range
+     * does not overflow its bucket arithmetic
+     */
+    @Test
+    public void histogram_wholeRange_shouldNotOverflow() {
+        index.insert(new Event("type1", Long.MIN_VALUE));
+        index.insert(new Event("type1", 0l));
+        index.insert(new Event("type1", Long.MAX_VALUE - 1));
+        long[] histogram = index.histogram(Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(3, histogram.length);
+        // buckets start at Long.MIN_VALUE, -1 and Long.MAX_VALUE - 1
+        assertArrayEquals(new long[]{1, 1, 1}, histogram);
+    };
+
+    /**
+     * Test if a bucket width that is not positive
+     * throws IllegalArgumentException
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void histogram_zeroBucketWidth_shouldThrowIllegalArgumentException() {
+        index.histogram(0l, 10l, 0l);
+    };
+
+    /**
+     * Test if sealing keeps queries and aggregates
+     * the same with a fraction of the memory
+     */
+    @Test
+    public void seal_oldSegments_shouldKeepResultsInLessMemory() {
+        index = new EventIndex(1000l);
+        for (long timestamp = 0; timestamp < 100000; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+        };
+        long hot = index.estimatedBytes();
+        long[] histogram = index.histogram(0l, 100000l, 7000l);
+        assertEquals(99, index.seal(99000l));
+        assertEquals(0, index.seal(99000l));
+        assertTrue(index.estimatedBytes() * 5 < hot);
+        assertArrayEquals(histogram, index.histogram(0l, 100000l, 7000l));
+        assertEquals(OptionalLong.of(5l), index.minTimestamp(5l, 99500l));
+        assertEquals(OptionalLong.of(99499l), index.maxTimestamp(5l, 99500l));
+        EventIterator iterator = new EventIteratorImpl(index, 98990l, 99010l);
+        for (long timestamp = 98990l; timestamp < 99010l; timestamp++) {
+            assertTrue(iterator.moveNext());
+            assertEquals(timestamp, iterator.current().timestamp());
+        };
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if inserts racing with sealing, and late ones
+     * into sealed buckets, are all kept
+     */
+    @Test
+    public void seal_concurrentInserts_shouldKeepEveryEvent() throws Exception {
+        Thread writer = new Thread(() -> {
+            for (long timestamp = 0; timestamp < 200000; timestamp++) {
+                index.insert(new Event("type1", timestamp % 1000));
+            };
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            index.seal(1000l);
+        };
+        writer.join();
+        index.seal(1000l);
+        assertEquals(200000, index.size());
+        assertEquals(200000, index.count(0l, 1000l));
+        EventIterator iterator = new EventIteratorImpl(index, 0l, 1000l);
+        long previous = 0;
+        int count = 0;
+        while (iterator.moveNext()) {
+            assertTrue(iterator.current().timestamp() >= previous);
+            previous = iterator.current().timestamp();
+            // remove through the sealed segments
+            if (count++ % 2 == 0) {
+                iterator.remove();
+            };
+        };
+        assertEquals(200000, count);
+        assertEquals(100000, index.count(0l, 1000l));
+        index.insert(new Event("type1", 5l));
+        assertEquals(100001, index.size());
+    };
+}
@@ -8,13 +8,13 @@ import static org.junit.Assert.assertEquals;
 public class EventIteratorImplTest {
 
     EventIteratorImpl eventIterator;
-    AutomaticConcurrentHashMap concurrentMap;
+    EventIndex index;
     Event event;
 
     @Before
     public void init() {
-        concurrentMap = new AutomaticConcurrentHashMap();
-        event = new Event("type1", Long.MAX_VALUE);
+        index = new EventIndex();
+        event = new Event("type1", Long.MIN_VALUE);
     };
 
     /**
@@ -23,8 +23,8 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void current_beforeMoveNext_shouldThrowIllegalState() {
-        concurrentMap.autoKeyPut(event);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.current();
     }
 
@@ -34,8 +34,8 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void current_noSecondEvent_shouldThrowIllegalState() {
-        concurrentMap.autoKeyPut(event);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         eventIterator.moveNext();
         eventIterator.current();
@@ -46,8 +46,8 @@ public class EventIteratorImplTest {
      */
     @Test
     public void moveNext_noSecondEvent_shouldNotHaveNext() {
-        concurrentMap.autoKeyPut(event);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         assertEquals(false, eventIterator.moveNext());
     }
@@ -58,11 +58,11 @@ public class EventIteratorImplTest {
      */
     @Test
     public void moveNext_validTwoEvents_shouldGet() {
-        concurrentMap.autoKeyPut(event);
-        // Long.MIN to 'be different from previous one
-        Event event2 = new Event("type2", Long.MIN_VALUE); 
-        concurrentMap.autoKeyPut(event2);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        // Long.MAX - 1 to be after the previous one, as the end is exclusive
+        Event event2 = new Event("type2", Long.MAX_VALUE - 1);
+        index.insert(event2);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         eventIterator.moveNext();
         Event currEvent = eventIterator.current();
@@ -72,11 +72,11 @@ public class EventIteratorImplTest {
 
     /**
      * Test if constructor does not have next if it
-     * was constructed with null concurrentMap
+     * was constructed with null iterator
      */
     @Test
     public void constructor_null_shouldNotHaveNext() {
-        eventIterator = new EventIteratorImpl(null);
+        eventIterator = new EventIteratorImpl(null, Long.MIN_VALUE, Long.MAX_VALUE);
         assertEquals(false, eventIterator.moveNext());
     };
 
@@ -87,8 +87,8 @@ public class EventIteratorImplTest {
      */
     @Test
     public void constructor_validEvent_shouldConstructCorrectly() {
-        concurrentMap.autoKeyPut(event);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         Event currEvent = eventIterator.current();
         assertEquals(event.timestamp(), currEvent.timestamp());
@@ -100,8 +100,8 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void remove_validEvent_shouldRemoveAndNotMoveNext() {
-        concurrentMap.autoKeyPut(event);
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         eventIterator.remove();
         eventIterator.current();
@@ -113,7 +113,7 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void remove_selectKeyNull_shouldThrowIllegalState() {
-        eventIterator = new EventIteratorImpl(null);
+        eventIterator = new EventIteratorImpl(null, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         eventIterator.remove();
     };
@@ -124,13 +124,58 @@ public class EventIteratorImplTest {
     @Test
     public void moveNext_validEvent_shouldWorkAfterRemove() {
         Event event2 = new Event("teste2", 1l);
-        concurrentMap.autoKeyPut(event);
-        concurrentMap.autoKeyPut(event2);        
-        eventIterator = new EventIteratorImpl(concurrentMap);
+        index.insert(event2);
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.moveNext();
         eventIterator.remove();
         eventIterator.moveNext();
-        assertEquals(event, eventIterator.current());
+        assertEquals(event2, eventIterator.current());
+    };
+
+    /**
+     * Test if remove deletes the current event from the
+     * index it iterates, instead of a private copy
+     */
+    @Test
+    public void remove_validEvent_shouldRemoveFromIndex() {
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        eventIterator.moveNext();
+        eventIterator.remove();
+        assertEquals(0, index.size());
+    };
+
+    /**
+     * Test if remove only deletes the event held by the iterator,
+     * keeping another event with the same timestamp
+     */
+    @Test
+    public void remove_sameTimestampEvent_shouldKeepOther() {
+        Event other = new Event("type1", event.timestamp());
+        index.insert(event);
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        eventIterator.moveNext();
+        index.insert(other);
+        eventIterator.remove();
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        eventIterator.moveNext();
+        assertEquals(other, eventIterator.current());
+        assertEquals(false, eventIterator.moveNext());
+    };
+
+    /**
+     * Test if close stops the iteration even when
+     * there are events left
+     */
+    @Test
+    public void close_validEvents_shouldNotHaveNext() throws Exception {
+        index.insert(event);
+        index.insert(new Event("type1", 1l));
+        eventIterator = new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE);
+        eventIterator.moveNext();
+        eventIterator.close();
+        assertEquals(false, eventIterator.moveNext());
     };
 
     /**
@@ -139,7 +184,7 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void close_current_shouldThrowExceptionAfterNewTry() throws Exception {
-        eventIterator = new EventIteratorImpl(null);
+        eventIterator = new EventIteratorImpl(null, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.close();
         assertEquals(false, eventIterator.moveNext());
         eventIterator.current();
@@ -151,7 +196,7 @@ public class EventIteratorImplTest {
      */
     @Test(expected = IllegalStateException.class)
     public void close_remove_shouldThrowExceptionAfterNewTry() throws Exception {
-        eventIterator = new EventIteratorImpl(null);
+        eventIterator = new EventIteratorImpl(null, Long.MIN_VALUE, Long.MAX_VALUE);
         eventIterator.close();
         assertEquals(false, eventIterator.moveNext());
         eventIterator.remove();
@@ -0,0 +1,91 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventSpliteratorTest {
+
+    EventIndex index;
+
+    @Before
+    public void init() {
+        index = new EventIndex(1000l);
+        for (long timestamp = 0; timestamp < 10000; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+        };
+    };
+
+    /**
+     * Test if splitting many segments gives the first half
+     * to the prefix, both halves together keeping every event
+     */
+    @Test
+    public void trySplit_manySegments_shouldKeepOrderedHalves() {
+        EventSpliterator suffix = new EventSpliterator(index, 500l, 9500l);
+        Spliterator<Event> prefix = suffix.trySplit();
+        assertNotNull(prefix);
+        List<Long> timestamps = new ArrayList<>();
+        prefix.forEachRemaining(event -> timestamps.add(event.timestamp()));
+        int prefixSize = timestamps.size();
+        suffix.forEachRemaining(event -> timestamps.add(event.timestamp()));
+        assertTrue(prefixSize > 0 && prefixSize < 9000);
+        assertEquals(range(500, 9500), timestamps);
+    };
+
+    /**
+     * Test if a single big segment splits by its view,
+     * and a small one does not split
+     */
+    @Test
+    public void trySplit_singleSegment_shouldSplitView() {
+        EventSpliterator suffix = new EventSpliterator(index, 0l, 1000l);
+        Spliterator<Event> prefix = suffix.trySplit();
+        assertNull(prefix);
+        index = new EventIndex(10000l);
+        for (long timestamp = 0; timestamp < 10000; timestamp++) {
+            index.insert(new Event("type1", timestamp));
+        };
+        suffix = new EventSpliterator(index, 0l, 10000l);
+        prefix = suffix.trySplit();
+        assertEquals(5000, prefix.estimateSize());
+        assertEquals(5000, suffix.estimateSize());
+        assertTrue(prefix.tryAdvance(event -> assertEquals(0l, event.timestamp())));
+        assertTrue(suffix.tryAdvance(event -> assertEquals(5000l, event.timestamp())));
+    };
+
+    /**
+     * Test if a parallel stream sees every event once,
+     * skipping removed ones, in order
+     */
+    @Test
+    public void stream_parallel_shouldMatchIteration() {
+        EventIterator iterator = new EventIteratorImpl(index, 0l, 100l);
+        while (iterator.moveNext()) {
+            iterator.remove();
+        };
+        List<Long> timestamps = StreamSupport.stream(new EventSpliterator(index, 0l, 10000l), true)
+                .map(Event::timestamp)
+                .collect(Collectors.toList());
+        assertEquals(range(100, 10000), timestamps);
+        assertEquals(9900, StreamSupport.stream(new EventSpliterator(index, 0l, 10000l), true).count());
+    };
+
+    private static List<Long> range(long from, long to) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long timestamp = from; timestamp < to; timestamp++) {
+            timestamps.add(timestamp);
+        };
+        return timestamps;
+    }
+}
@@ -1,6 +1,17 @@
 package net.intelie.challenges;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -28,10 +39,10 @@ public class EventStoreImplTest {
     store.insert(event3);
     outputIterator = store.query(type, 1l, 3l);
     outputIterator.moveNext();
-    assertEquals(event2, outputIterator.current());
-    outputIterator.moveNext();
     assertEquals(event1, outputIterator.current());
     outputIterator.moveNext();
+    assertEquals(event2, outputIterator.current());
+    outputIterator.moveNext();
     outputIterator.current();
   }
 
@@ -69,9 +80,222 @@ public class EventStoreImplTest {
     store.insert(event2);
     EventIterator outputIterator = store.query(type, 1l, 3l);    
     outputIterator.moveNext();
+    assertEquals(event1, outputIterator.current());
+    outputIterator.moveNext();
+    assertEquals(event2, outputIterator.current());
+  };
+
+  /**
+   * Test if query iterates lazily over the store, seeing
+   * events inserted after the iterator was created
+   */
+  @Test
+  public void query_insertAfterQuery_shouldSeeNewEvent() {
+    String type = "type1";
+    Event event1 = new Event(type, 1l);
+    Event event2 = new Event(type, 2l);
+    store.insert(event1);
+    outputIterator = store.query(type, 1l, 3l);
+    store.insert(event2);
+    outputIterator.moveNext();
+    assertEquals(event1, outputIterator.current());
+    outputIterator.moveNext();
+    assertEquals(event2, outputIterator.current());
+  };
+
+  /**
+   * Test if removing through the query iterator deletes
+   * the event from the store itself
+   */
+  @Test
+  public void query_removeThroughIterator_shouldRemoveFromStore() {
+    String type = "type1";
+    Event event1 = new Event(type, 1l);
+    Event event2 = new Event(type, 2l);
+    store.insert(event1);
+    store.insert(event2);
+    outputIterator = store.query(type, 1l, 2l);
+    outputIterator.moveNext();
+    outputIterator.remove();
+    outputIterator = store.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+    outputIterator.moveNext();
     assertEquals(event2, outputIterator.current());
+    assertEquals(false, outputIterator.moveNext());
+  };
+
+  /**
+   * Test if many threads iterating and removing the same
+   * events at once leave the type empty, without exceptions
+   */
+  @Test
+  public void query_concurrentRemoves_shouldRemoveAll() throws InterruptedException {
+    String type = "type1";
+    for (long timestamp = 0; timestamp < 10000; timestamp++) {
+      store.insert(new Event(type, timestamp));
+    };
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(() -> {
+        EventIterator iterator = store.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+        while (iterator.moveNext()) {
+          iterator.remove();
+        };
+      });
+      threads[i].start();
+    };
+    for (Thread thread : threads) {
+      thread.join();
+    };
+    assertEquals(false, store.query(type, Long.MIN_VALUE, Long.MAX_VALUE).moveNext());
+  };
+
+  /**
+   * Test if events with same type and timestamp are all
+   * kept, in insertion order
+   */
+  @Test
+  public void insert_sameTimestamp_shouldKeepAllInInsertionOrder() {
+    String type = "type1";
+    Event event1 = new Event(type, 1l);
+    Event event2 = new Event(type, 1l);
+    Event event3 = new Event(type, 1l);
+    store.insert(event1);
+    store.insert(event2);
+    store.insert(event3);
+    outputIterator = store.query(type, 1l, 2l);
+    outputIterator.moveNext();
+    assertSame(event1, outputIterator.current());
+    outputIterator.moveNext();
+    assertSame(event2, outputIterator.current());
+    outputIterator.moveNext();
+    assertSame(event3, outputIterator.current());
+    assertEquals(false, outputIterator.moveNext());
+  };
+
+  /**
+   * Test if events whose timestamp+type would be the same
+   * string (1 + "23" and 12 + "3") are kept apart
+   */
+  @Test
+  public void insert_collidingTimestampAndType_shouldKeepBoth() {
+    Event event1 = new Event("23", 1l);
+    Event event2 = new Event("3", 12l);
+    store.insert(event1);
+    store.insert(event2);
+    outputIterator = store.query("23", 0l, 100l);
     outputIterator.moveNext();
     assertEquals(event1, outputIterator.current());
+    outputIterator = store.query("3", 0l, 100l);
+    outputIterator.moveNext();
+    assertEquals(event2, outputIterator.current());
+  };
+
+  /**
+   * Test if many threads inserting in the same millisecond keep
+   * every event, each thread seeing its events in insertion order
+   */
+  @Test
+  public void insert_concurrentSameMillisecond_shouldKeepAll() throws InterruptedException {
+    String type = "type1";
+    int threadsCount = 8;
+    int eventsPerThread = 20000;
+    // type already exists, so only same millisecond inserts race here
+    store.insert(new Event(type, 0l));
+    List<List<Event>> inserted = new ArrayList<>();
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] threads = new Thread[threadsCount];
+    for (int i = 0; i < threadsCount; i++) {
+      List<Event> events = new ArrayList<>();
+      for (int j = 0; j < eventsPerThread; j++) {
+        events.add(new Event(type, 1l));
+      };
+      inserted.add(events);
+      threads[i] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        };
+        for (Event event : events) {
+          store.insert(event);
+        };
+      });
+      threads[i].start();
+    };
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    };
+    // position of each event inside the list of its thread
+    Map<Event, Integer> positions = new IdentityHashMap<>();
+    Map<Event, List<Event>> owners = new IdentityHashMap<>();
+    for (List<Event> events : inserted) {
+      for (int j = 0; j < events.size(); j++) {
+        positions.put(events.get(j), j);
+        owners.put(events.get(j), events);
+      };
+    };
+    Map<List<Event>, Integer> lastPosition = new IdentityHashMap<>();
+    int count = 0;
+    outputIterator = store.query(type, 1l, 2l);
+    while (outputIterator.moveNext()) {
+      Event event = outputIterator.current();
+      int position = positions.get(event);
+      int previous = lastPosition.getOrDefault(owners.get(event), -1);
+      assertEquals(previous + 1, position);
+      lastPosition.put(owners.get(event), position);
+      count++;
+    };
+    assertEquals(threadsCount * eventsPerThread, count);
+  };
+
+  /**
+   * Test if insertAll stores a batch of many types out of
+   * order, each type queried in timestamp order
+   */
+  @Test
+  public void insertAll_mixedTypesOutOfOrder_shouldQueryOrdered() {
+    Event event1 = new Event("type1", 3l);
+    Event event2 = new Event("type2", 1l);
+    Event event3 = new Event("type1", 1l);
+    Event event4 = new Event("type1", 2l);
+    store.insertAll(Arrays.asList(event1, event2, null, event3, event4));
+    outputIterator = store.query("type1", 0l, 10l);
+    outputIterator.moveNext();
+    assertEquals(event3, outputIterator.current());
+    outputIterator.moveNext();
+    assertEquals(event4, outputIterator.current());
+    outputIterator.moveNext();
+    assertEquals(event1, outputIterator.current());
+    assertEquals(false, outputIterator.moveNext());
+    outputIterator = store.query("type2", 0l, 10l);
+    outputIterator.moveNext();
+    assertEquals(event2, outputIterator.current());
+  };
+
+  /**
+   * Test if removeBefore of a type keeps newer events
+   * and other types
+   */
+  @Test
+  public void removeBefore_oneType_shouldKeepNewerAndOtherTypes() {
+    store = new EventStoreImpl(10l);
+    for (long timestamp = 0; timestamp < 30; timestamp++) {
+      store.insert(new Event("type1", timestamp));
+      store.insert(new Event("type2", timestamp));
+    };
+    store.removeBefore("type1", 15l);
+    outputIterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+    outputIterator.moveNext();
+    assertEquals(15l, outputIterator.current().timestamp());
+    outputIterator = store.query("type2", Long.MIN_VALUE, Long.MAX_VALUE);
+    outputIterator.moveNext();
+    assertEquals(0l, outputIterator.current().timestamp());
+    store.removeBefore(20l);
+    outputIterator = store.query("type2", Long.MIN_VALUE, Long.MAX_VALUE);
+    outputIterator.moveNext();
+    assertEquals(20l, outputIterator.current().timestamp());
+    store.removeBefore("unknown", 20l);
   };
 
   /**
@@ -81,4 +305,140 @@ public class EventStoreImplTest {
   public void query_noEventType_shouldReturnNullIfQuery() {
     assertEquals(null, store.query("type", 1l, 3l));
   };
-}
\ No newline at end of file
+
+  /**
+   * Test if a type handle inserts, queries and removes
+   * the same events as the store by name
+   */
+  @Test
+  public void typeHandle_validType_shouldShareEventsWithStore() {
+    TypeHandle handle = store.typeHandle("type1");
+    assertEquals(null, handle.query(0l, 10l));
+    handle.insert(1l);
+    store.insert(new Event("type1", 2l));
+    outputIterator = store.query("type1", 0l, 10l);
+    outputIterator.moveNext();
+    assertSame(handle.type(), outputIterator.current().type());
+    outputIterator = handle.query(0l, 10l);
+    outputIterator.moveNext();
+    assertEquals(new Event("type1", 1l), outputIterator.current());
+    outputIterator.moveNext();
+    assertEquals(new Event("type1", 2l), outputIterator.current());
+    handle.removeBefore(2l);
+    outputIterator = store.query("type1", 0l, 10l);
+    outputIterator.moveNext();
+    assertEquals(2l, outputIterator.current().timestamp());
+    handle.removeAll();
+    assertEquals(null, store.query("type1", 0l, 10l));
+  };
+
+  /**
+   * Test if a handle keeps working after removeAll,
+   * starting the type again
+   */
+  @Test
+  public void typeHandle_afterRemoveAll_shouldInsertAgain() {
+    TypeHandle handle = store.typeHandle("type1");
+    handle.insert(1l);
+    store.removeAll("type1");
+    handle.insert(2l);
+    outputIterator = store.query("type1", 0l, 10l);
+    outputIterator.moveNext();
+    assertEquals(2l, outputIterator.current().timestamp());
+    assertEquals(false, outputIterator.moveNext());
+  };
+
+  /**
+   * Test if aggregates of a type answer without
+   * a query, and are empty for unknown types
+   */
+  @Test
+  public void count_validType_shouldCountWindow() {
+    for (long timestamp = 0; timestamp < 5000; timestamp++) {
+      store.insert(new Event("type1", timestamp));
+    };
+    assertEquals(2500l, store.count("type1", 1250l, 3750l));
+    assertArrayEquals(new long[]{2000l, 2000l, 1000l}, store.histogram("type1", 0l, 6000l, 2000l));
+    assertEquals(OptionalLong.of(1250l), store.minTimestamp("type1", 1250l, 3750l));
+    assertEquals(OptionalLong.of(3749l), store.maxTimestamp("type1", 1250l, 3750l));
+    assertEquals(0l, store.count("unknown", 0l, 10l));
+    assertArrayEquals(new long[2], store.histogram("unknown", 0l, 10l, 5l));
+    assertEquals(OptionalLong.empty(), store.maxTimestamp("unknown", 0l, 10l));
+  };
+
+  /**
+   * Test if a query of many types, or of all of them,
+   * returns their events merged by timestamp
+   */
+  @Test
+  public void query_manyTypes_shouldMergeByTimestamp() {
+    for (long timestamp = 0; timestamp < 30; timestamp++) {
+      store.insert(new Event("type" + timestamp % 3, timestamp));
+    };
+    outputIterator = store.query(Arrays.asList("type0", "type2", "unknown"), 10l, 20l);
+    for (long timestamp = 10; timestamp < 20; timestamp++) {
+      if (timestamp % 3 != 1) {
+        assertEquals(true, outputIterator.moveNext());
+        assertEquals(new Event("type" + timestamp % 3, timestamp), outputIterator.current());
+      };
+    };
+    assertEquals(false, outputIterator.moveNext());
+    outputIterator = store.queryAll(0l, 30l);
+    for (long timestamp = 0; timestamp < 30; timestamp++) {
+      assertEquals(true, outputIterator.moveNext());
+      assertEquals(timestamp, outputIterator.current().timestamp());
+    };
+    assertEquals(false, outputIterator.moveNext());
+    store.removeAll("type1");
+    assertEquals(2, store.types().size());
+  };
+
+  /**
+   * Test if streams of a type, parallel or not, return
+   * the events of the query, and are empty for unknown types
+   */
+  @Test
+  public void stream_validType_shouldReturnQueryEvents() {
+    for (long timestamp = 0; timestamp < 5000; timestamp++) {
+      store.insert(new Event("type1", timestamp));
+    };
+    assertEquals(4000l, store.stream("type1", 500l, 4500l).parallel().count());
+    assertEquals(499500l, store.stream("type1", 0l, 1000l).parallel().mapToLong(Event::timestamp).sum());
+    assertEquals(0l, store.stream("unknown", 0l, 1000l).count());
+  };
+
+  /**
+   * Test if the default removeBefore of every type removes
+   * type by type, for stores implementing only the required methods
+   */
+  @Test
+  public void removeBefore_defaultAllTypes_shouldRemoveFromEveryType() {
+    EventStore minimal = new EventStore() {
+      @Override
+      public void insert(Event event) {
+        store.insert(event);
+      }
+
+      @Override
+      public void removeAll(String type) {
+        store.removeAll(type);
+      }
+
+      @Override
+      public EventIterator query(String type, long startTime, long endTime) {
+        return store.query(type, startTime, endTime);
+      }
+
+      @Override
+      public Collection<String> types() {
+        return store.types();
+      }
+    };
+    for (long timestamp = 0; timestamp < 10; timestamp++) {
+      minimal.insert(new Event("type" + timestamp % 2, timestamp));
+    };
+    minimal.removeBefore(6l);
+    assertEquals(2, minimal.count("type0", 0l, 10l));
+    assertEquals(2, minimal.count("type1", 0l, 10l));
+  };
+}
@@ -0,0 +1,151 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress tests in the style of jcstress: two actors race on a fresh store
+ * many times, and after each round an arbiter classifies the observed
+ * outcome. A test fails if any forbidden outcome shows up.
+ */
+public class EventStoreStressTest {
+
+    private static final int ROUNDS = 5000;
+
+    private EventStore store;
+    private volatile Throwable failure;
+
+    /**
+     * Test if two threads inserting the first events of a new type
+     * at once keep both events. Forbidden: any event lost
+     */
+    @Test
+    public void insert_concurrentFirstEvents_shouldKeepBoth() throws Exception {
+        Map<String, Integer> outcomes = stress(
+                () -> { },
+                () -> store.insert(new Event("type1", 1l)),
+                () -> store.insert(new Event("type1", 2l)),
+                () -> String.valueOf(count("type1")));
+        assertTrue(outcomes.toString(), outcomes.keySet().stream().allMatch("2"::equals));
+    };
+
+    /**
+     * Test if an insert racing with removeAll is either wholly before
+     * or wholly after it. Forbidden: an exception or a broken query
+     */
+    @Test
+    public void insert_concurrentRemoveAll_shouldBeBeforeOrAfter() throws Exception {
+        Map<String, Integer> outcomes = stress(
+                () -> store.insert(new Event("type1", 1l)),
+                () -> store.insert(new Event("type1", 2l)),
+                () -> store.removeAll("type1"),
+                () -> String.valueOf(count("type1")));
+        assertTrue(outcomes.toString(), outcomes.keySet().stream().allMatch(o -> o.equals("0") || o.equals("1")));
+    };
+
+    /**
+     * Test if two inserts of the same thread keep their order against
+     * a racing removeAll: if the first one survived the removal, then
+     * the second one did too. Forbidden: only the first event left
+     */
+    @Test
+    public void insertTwice_concurrentRemoveAll_shouldKeepProgramOrder() throws Exception {
+        Map<String, Integer> outcomes = stress(
+                () -> store.insert(new Event("type1", 0l)),
+                () -> {
+                    store.insert(new Event("type1", 1l));
+                    store.insert(new Event("type1", 2l));
+                },
+                () -> store.removeAll("type1"),
+                () -> {
+                    String outcome = "";
+                    EventIterator iterator = store.query("type1", 1l, 10l);
+                    while (iterator != null && iterator.moveNext()) {
+                        outcome += iterator.current().timestamp();
+                    };
+                    return outcome;
+                });
+        assertFalse(outcomes.toString(), outcomes.containsKey("1"));
+    };
+
+    /**
+     * Test if removeAll racing with a query of the same type never
+     * breaks the query. Forbidden: an exception
+     */
+    @Test
+    public void query_concurrentRemoveAll_shouldNotFail() throws Exception {
+        Map<String, Integer> outcomes = stress(
+                () -> {
+                    for (long timestamp = 0; timestamp < 100; timestamp++) {
+                        store.insert(new Event("type1", timestamp));
+                    };
+                },
+                () -> store.removeAll("type1"),
+                () -> count("type1"),
+                () -> String.valueOf(count("type1")));
+        assertTrue(outcomes.toString(), outcomes.keySet().stream().allMatch("0"::equals));
+    };
+
+    /**
+     * Method to count the events of a type
+     */
+    private int count(String type) {
+        int count = 0;
+        EventIterator iterator = store.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+        while (iterator != null && iterator.moveNext()) {
+            count++;
+        };
+        return count;
+    }
+
+    /**
+     * Method to run two actors against a fresh store for each round,
+     * releasing them together through a barrier
+     * @return amount of rounds that observed each outcome
+     */
+    private Map<String, Integer> stress(Runnable setup, Runnable actor1, Runnable actor2,
+                                        Supplier<String> arbiter) throws Exception {
+        CyclicBarrier barrier = new CyclicBarrier(3);
+        Thread thread1 = new Thread(() -> act(barrier, actor1));
+        Thread thread2 = new Thread(() -> act(barrier, actor2));
+        thread1.start();
+        thread2.start();
+        Map<String, Integer> outcomes = new TreeMap<>();
+        for (int round = 0; round < ROUNDS; round++) {
+            store = new EventStoreImpl();
+            setup.run();
+            barrier.await();
+            barrier.await();
+            outcomes.merge(arbiter.get(), 1, Integer::sum);
+        };
+        thread1.join();
+        thread2.join();
+        assertTrue(String.valueOf(failure), failure == null);
+        return outcomes;
+    }
+
+    private void act(CyclicBarrier barrier, Runnable actor) {
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                barrier.await();
+                // failures are kept for the arbiter, the barrier must not break
+                try {
+                    actor.run();
+                } catch (RuntimeException e) {
+                    failure = e;
+                };
+                barrier.await();
+            };
+        } catch (InterruptedException | BrokenBarrierException e) {
+            Thread.currentThread().interrupt();
+        };
+    }
+}
@@ -3,6 +3,8 @@ package net.intelie.challenges;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 
 public class EventTest {
     @Test
@@ -14,4 +16,32 @@ public class EventTest {
         assertEquals(123L, event.timestamp());
         assertEquals("some_type", event.type());
     }
-}
\ No newline at end of file
+
+    /**
+     * Test if events with same type and timestamp are equal,
+     * and different otherwise
+     */
+    @Test
+    public void equals_sameTypeAndTimestamp_shouldBeEqual() {
+        Event event = new Event("some_type", 123L);
+        assertEquals(new Event("some_type", 123L), event);
+        assertEquals(new Event("some_type", 123L).hashCode(), event.hashCode());
+        assertNotEquals(new Event("other_type", 123L), event);
+        assertNotEquals(new Event("some_type", 124L), event);
+        assertNotEquals(new Event(null, 123L), event);
+        assertEquals(new Event(null, 123L), new Event(null, 123L));
+    };
+
+    /**
+     * Test if the payload is part of the value of an
+     * event, and a missing one is empty
+     */
+    @Test
+    public void equals_differentPayload_shouldNotBeEqual() {
+        Event event = new Event("some_type", 123L, Payload.wrap(new byte[] {1}));
+        assertEquals(new Event("some_type", 123L, Payload.wrap(new byte[] {1})), event);
+        assertNotEquals(new Event("some_type", 123L), event);
+        assertEquals(new Event("some_type", 123L), new Event("some_type", 123L, null));
+        assertSame(Payload.EMPTY, new Event("some_type", 123L).payload());
+    };
+}
@@ -0,0 +1,76 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EvictionPolicyTest {
+
+    List<EvictionPolicy.TypeUsage> usages = Arrays.asList(
+            new EvictionPolicy.TypeUsage("type1", 1000, 20, 3),
+            new EvictionPolicy.TypeUsage("type2", 5000, 10, 1),
+            new EvictionPolicy.TypeUsage("type3", 3000, 30, 1));
+
+    /**
+     * Test if oldestSegment selects the type with the
+     * oldest segment, and nothing without types
+     */
+    @Test
+    public void select_oldestSegment_shouldSelectOldestType() {
+        EvictionPolicy policy = EvictionPolicy.oldestSegment();
+        assertEquals("type2", policy.select(usages));
+        assertNull(policy.select(Collections.emptyList()));
+    };
+
+    /**
+     * Test if typeQuotas selects the type most over its
+     * quota, and nothing while all are within it
+     */
+    @Test
+    public void select_typeQuotas_shouldSelectMostOverQuota() {
+        Map<String, Long> quotas = new HashMap<>();
+        quotas.put("type2", 4500l);
+        assertEquals("type3", EvictionPolicy.typeQuotas(quotas, 500).select(usages));
+        assertEquals("type2", EvictionPolicy.typeQuotas(quotas, 2900).select(usages));
+        quotas.put("type2", 5000l);
+        assertNull(EvictionPolicy.typeQuotas(quotas, 3000).select(usages));
+    };
+
+    /**
+     * Test if leastRecentlyQueried selects the type
+     * queried longest ago, the oldest among ties
+     */
+    @Test
+    public void select_leastRecentlyQueried_shouldSelectLeastRecent() {
+        assertEquals("type2", EvictionPolicy.leastRecentlyQueried().select(usages));
+    };
+
+    /**
+     * Test if a store evicts the type not queried, and
+     * keeps the one queried
+     */
+    @Test
+    public void insert_leastRecentlyQueried_shouldKeepQueriedType() {
+        MemoryBudget budget = new MemoryBudget(4000, EvictionPolicy.leastRecentlyQueried());
+        EventStoreImpl store = new EventStoreImpl(10l, false, budget);
+        for (long timestamp = 0; timestamp < 30; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp));
+        };
+        store.count("type1", 0l, 30l);
+        for (long timestamp = 30; timestamp < 40; timestamp++) {
+            store.insert(new Event("type3", timestamp));
+        };
+        assertEquals(30, store.count("type1", 0l, 30l));
+        assertTrue(store.count("type2", 0l, 30l) < 30);
+        assertTrue(budget.used() <= budget.limit());
+    };
+}
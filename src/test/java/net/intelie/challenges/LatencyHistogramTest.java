@@ -0,0 +1,45 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    /**
+     * Test if every value falls in a bucket whose highest
+     * value is at most 1/8 above it
+     */
+    @Test
+    public void bucket_anyValue_shouldKeepRelativeError() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE}) {
+            long highest = LatencyHistogram.highestValue(LatencyHistogram.bucket(value));
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= value / 8);
+        };
+        for (int bucket = 1; bucket < LatencyHistogram.bucket(Long.MAX_VALUE); bucket++) {
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.highestValue(bucket - 1) + 1));
+        };
+    };
+
+    /**
+     * Test if percentiles, mean and max come from
+     * the recorded values
+     */
+    @Test
+    public void snapshot_recordedValues_shouldReportPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        };
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500, snapshot.getMean(), 0.001);
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500000, snapshot.getP50(), 500000 / 8);
+        assertEquals(990000, snapshot.getP99(), 990000 / 8);
+        assertEquals(1000000, snapshot.percentile(100));
+        assertEquals(0, new LatencyHistogram().snapshot().getP99());
+    };
+}
@@ -0,0 +1,203 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryBudgetTest {
+
+    /**
+     * Test if inserts over a budget without eviction
+     * policy are refused, and the store keeps within it
+     */
+    @Test
+    public void insert_overLimitWithoutPolicy_shouldThrowIllegalStateException() {
+        MemoryBudget budget = new MemoryBudget(1000, null);
+        EventStoreImpl store = new EventStoreImpl(10l, false, budget);
+        long timestamp = 0;
+        try {
+            while (timestamp < 1000) {
+                store.insert(new Event("type1", timestamp));
+                timestamp++;
+            };
+            fail("budget was not enforced");
+        } catch (IllegalStateException e) {
+            assertEquals(1, budget.rejected());
+        };
+        assertTrue(budget.used() <= budget.limit());
+        assertEquals(timestamp, store.count("type1", 0l, 1000l));
+    };
+
+    /**
+     * Test if concurrent inserts admitted together
+     * never go over the budget
+     */
+    @Test
+    public void insert_concurrentWriters_shouldKeepWithinLimit() throws Exception {
+        MemoryBudget budget = new MemoryBudget(20000, null);
+        EventStoreImpl store = new EventStoreImpl(Long.MAX_VALUE, false, budget);
+        // the single segment is charged before the race
+        store.insert(new Event("type1", 0l));
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            writers.add(new Thread(() -> {
+                try {
+                    for (long timestamp = 1; ; timestamp++) {
+                        store.insert(new Event("type1", timestamp));
+                    }
+                } catch (IllegalStateException e) {
+                    // budget reached
+                };
+            }));
+        };
+        for (Thread writer : writers) {
+            writer.start();
+        };
+        for (Thread writer : writers) {
+            writer.join();
+        };
+        assertTrue(budget.used() <= budget.limit());
+        assertEquals(budget.used(), store.count("type1", Long.MIN_VALUE, Long.MAX_VALUE) * EventIndex.bytesOf(new Event("type1", 0l)) + 128);
+    };
+
+    /**
+     * Test if inserts racing with removals of their type
+     * leave nothing accounted once every event is removed
+     */
+    @Test
+    public void removeAll_concurrentInserts_shouldReleaseEveryByte() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1 << 30, null);
+        EventStoreImpl store = new EventStoreImpl(100l, false, budget);
+        Thread writer = new Thread(() -> {
+            for (long timestamp = 0; timestamp < 100000; timestamp++) {
+                store.insert(new Event("type1", timestamp));
+            };
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            store.removeAll("type1");
+            store.removeBefore(Long.MAX_VALUE);
+        };
+        store.removeAll("type1");
+        assertEquals(0, budget.used());
+    };
+
+    /**
+     * Test if a batch over the budget is refused as a whole
+     */
+    @Test
+    public void insertAll_overLimit_shouldStoreNothing() {
+        EventStoreImpl store = new EventStoreImpl(10l, false, new MemoryBudget(1000, null));
+        List<Event> batch = new ArrayList<>();
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            batch.add(new Event("type1", timestamp));
+        };
+        try {
+            store.insertAll(batch);
+            fail("budget was not enforced");
+        } catch (IllegalStateException e) {
+            assertEquals(0, store.count("type1", 0l, 100l));
+        };
+    };
+
+    /**
+     * Test if inserts over the budget evict the oldest
+     * segments and keep the newest events
+     */
+    @Test
+    public void insert_overLimit_shouldEvictOldestSegments() {
+        MemoryBudget budget = new MemoryBudget(3000, EvictionPolicy.oldestSegment());
+        EventStoreImpl store = new EventStoreImpl(10l, false, budget);
+        for (long timestamp = 0; timestamp < 1000; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        assertTrue(budget.used() <= budget.limit());
+        assertTrue(budget.evicted() > 0);
+        assertEquals(0, budget.rejected());
+        assertEquals(10, store.count("type1", 990l, 1000l));
+        assertTrue(store.minTimestamp("type1", 0l, 1000l).getAsLong() > 0);
+    };
+
+    /**
+     * Test if a blocked insert goes on once a removal
+     * releases memory
+     */
+    @Test
+    public void insert_blockedAdmission_shouldWaitForRemoval() throws Exception {
+        MemoryBudget budget = new MemoryBudget(1000, null, MemoryBudget.Admission.BLOCK, 10000);
+        EventStoreImpl store = new EventStoreImpl(10l, false, budget);
+        for (long timestamp = 0; timestamp < 10; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        Thread remover = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            };
+            store.removeAll("type1");
+        });
+        remover.start();
+        for (long timestamp = 10; timestamp < 20; timestamp++) {
+            store.insert(new Event("type2", timestamp));
+        };
+        remover.join();
+        assertEquals(10, store.count("type2", 0l, 100l));
+        assertEquals(0, budget.rejected());
+    };
+
+    /**
+     * Test if a blocked insert is refused after the
+     * maximum wait
+     */
+    @Test(expected = IllegalStateException.class)
+    public void insert_blockedTimeout_shouldThrowIllegalStateException() {
+        EventStoreImpl store = new EventStoreImpl(10l, false,
+                new MemoryBudget(1000, null, MemoryBudget.Admission.BLOCK, 20));
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+    };
+
+    /**
+     * Test if dropping and sealing segments and removing
+     * types release their bytes
+     */
+    @Test
+    public void used_removalsAndCompaction_shouldReleaseBytes() {
+        MemoryBudget budget = new MemoryBudget(1 << 20, null);
+        EventStoreImpl store = new EventStoreImpl(10l, false, budget);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp, Payload.wrap(new byte[100])));
+        };
+        long full = budget.used();
+        store.removeBefore("type1", 50l);
+        long removed = budget.used();
+        assertTrue(removed < full);
+        store.compact(100l);
+        long sealed = budget.used();
+        assertTrue(sealed < removed);
+        // a late insert thaws a bucket back
+        store.insert(new Event("type2", 5l));
+        assertTrue(budget.used() > sealed);
+        store.removeAll("type1");
+        store.removeAll("type2");
+        assertEquals(0, budget.used());
+    };
+
+    /**
+     * Test if a budget cannot be shared by two stores
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_sharedBudget_shouldThrowIllegalArgumentException() {
+        MemoryBudget budget = new MemoryBudget(1000, null);
+        new EventStoreImpl(10l, false, budget);
+        new EventStoreImpl(10l, false, budget);
+    };
+}
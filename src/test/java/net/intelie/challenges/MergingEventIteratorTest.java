@@ -0,0 +1,100 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MergingEventIteratorTest {
+
+    /**
+     * Test if merging many ordered sources returns
+     * every event ordered by timestamp
+     */
+    @Test
+    public void moveNext_manySources_shouldMergeOrdered() {
+        Random random = new Random(7);
+        List<EventIterator> sources = new ArrayList<>();
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            EventIndex index = new EventIndex(10l);
+            for (int j = 0; j < 50; j++) {
+                long timestamp = random.nextInt(1000);
+                index.insert(new Event("type" + i, timestamp));
+                expected.add(timestamp);
+            };
+            sources.add(new EventIteratorImpl(index, Long.MIN_VALUE, Long.MAX_VALUE));
+        };
+        sources.add(null);
+        Collections.sort(expected);
+        MergingEventIterator iterator = new MergingEventIterator(sources);
+        List<Long> timestamps = new ArrayList<>();
+        while (iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        assertEquals(expected, timestamps);
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if events of the same timestamp come
+     * in the order of their sources
+     */
+    @Test
+    public void moveNext_sameTimestamp_shouldFollowSourceOrder() {
+        EventIndex index1 = new EventIndex();
+        EventIndex index2 = new EventIndex();
+        Event event1 = new Event("type1", 1l);
+        Event event2 = new Event("type2", 1l);
+        index2.insert(event2);
+        index1.insert(event1);
+        MergingEventIterator iterator = new MergingEventIterator(Arrays.asList(
+                new EventIteratorImpl(index1, 0l, 10l), new EventIteratorImpl(index2, 0l, 10l)));
+        assertTrue(iterator.moveNext());
+        assertSame(event1, iterator.current());
+        assertTrue(iterator.moveNext());
+        assertSame(event2, iterator.current());
+        assertFalse(iterator.moveNext());
+    };
+
+    /**
+     * Test if remove deletes the current event
+     * from the source it came from
+     */
+    @Test
+    public void remove_currentEvent_shouldRemoveFromSource() {
+        EventIndex index1 = new EventIndex();
+        EventIndex index2 = new EventIndex();
+        index1.insert(new Event("type1", 1l));
+        index2.insert(new Event("type2", 2l));
+        index1.insert(new Event("type1", 3l));
+        MergingEventIterator iterator = new MergingEventIterator(Arrays.asList(
+                new EventIteratorImpl(index1, 0l, 10l), new EventIteratorImpl(index2, 0l, 10l)));
+        while (iterator.moveNext()) {
+            if (iterator.current().timestamp() != 3l) {
+                iterator.remove();
+            };
+        };
+        assertEquals(1, index1.size());
+        assertEquals(0, index2.size());
+    };
+
+    /**
+     * Test if current without a selected event
+     * throws IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void current_noSources_shouldThrowIllegalStateException() {
+        MergingEventIterator iterator = new MergingEventIterator(Collections.emptyList());
+        assertFalse(iterator.moveNext());
+        iterator.current();
+    };
+}
@@ -0,0 +1,198 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OffHeapEventStoreTest {
+
+    OffHeapEventStore store;
+
+    @Before
+    public void init() {
+        // small slabs, so tests cross slab boundaries and splits
+        store = new OffHeapEventStore(1 << 20, 4);
+    };
+
+    /**
+     * Test if query returns the events of the type
+     * between startTime (inclusive) and endTime (exclusive)
+     */
+    @Test
+    public void query_validRange_shouldReturnEventsInRange() {
+        for (long timestamp = 0; timestamp < 20; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp));
+        };
+        assertEquals(range(5, 15), timestamps(store.query("type1", 5l, 15l)));
+        assertEquals(new Event("type1", 5l), firstOf(store.query("type1", 5l, 15l)));
+        assertNull(store.query("type3", 0l, 20l));
+    };
+
+    /**
+     * Test if events inserted out of order are
+     * iterated by timestamp, keeping insertion order of equal ones
+     */
+    @Test
+    public void insert_outOfOrder_shouldQueryOrdered() {
+        List<Long> expected = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            long timestamp = random.nextInt(100);
+            store.insert(new Event("type1", timestamp));
+            expected.add(timestamp);
+        };
+        expected.sort(Long::compare);
+        assertEquals(expected, timestamps(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE)));
+    };
+
+    /**
+     * Test if remove through the iterator removes only
+     * the current event, even when records moved in between
+     */
+    @Test
+    public void remove_afterRecordsMoved_shouldRemoveCurrentEvent() {
+        for (long timestamp = 0; timestamp < 10; timestamp += 2) {
+            store.insert(new Event("type1", timestamp));
+        };
+        EventIterator iterator = store.query("type1", 0l, 100l);
+        assertTrue(iterator.moveNext());
+        assertTrue(iterator.moveNext());
+        assertEquals(2l, iterator.current().timestamp());
+        // late events shift and split the slabs under the iterator
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 3l));
+        iterator.remove();
+        assertTrue(iterator.moveNext());
+        assertEquals(3l, iterator.current().timestamp());
+        assertEquals(asList(0, 1, 3, 4, 6, 8), timestamps(store.query("type1", 0l, 100l)));
+    };
+
+    /**
+     * Test if current and remove without a selected
+     * event throw IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void current_beforeMoveNext_shouldThrowIllegalStateException() {
+        store.insert(new Event("type1", 1l));
+        store.query("type1", 0l, 10l).current();
+    };
+
+    /**
+     * Test if removing every event of a slab gives its
+     * memory back to the cap
+     */
+    @Test
+    public void remove_wholeSlab_shouldReleaseMemory() {
+        for (long timestamp = 0; timestamp < 8; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        assertEquals(2 * 4 * OffHeapEventStore.RECORD_BYTES, store.allocatedBytes());
+        EventIterator iterator = store.query("type1", 0l, 4l);
+        while (iterator.moveNext()) {
+            iterator.remove();
+        };
+        assertEquals(4 * OffHeapEventStore.RECORD_BYTES, store.allocatedBytes());
+        assertEquals(range(4, 8), timestamps(store.query("type1", 0l, 100l)));
+        store.removeAll("type1");
+        assertEquals(0, store.allocatedBytes());
+        assertNull(store.query("type1", 0l, 100l));
+    };
+
+    /**
+     * Test if inserting past the memory cap
+     * throws IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void insert_pastMemoryCap_shouldThrowIllegalStateException() {
+        store = new OffHeapEventStore(4 * OffHeapEventStore.RECORD_BYTES, 4);
+        for (long timestamp = 0; timestamp < 5; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+    };
+
+    /**
+     * Test if events with a payload are refused,
+     * since records have no room for it
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void insert_payload_shouldThrowIllegalArgumentException() {
+        store.insert(new Event("type1", 1l, Payload.wrap(new byte[] {1})));
+    };
+
+    /**
+     * Test if removeBefore drops older events
+     * of every type and keeps newer ones
+     */
+    @Test
+    public void removeBefore_validTimestamp_shouldKeepNewerEvents() {
+        for (long timestamp = 0; timestamp < 20; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp));
+        };
+        store.removeBefore(7l);
+        assertEquals(range(7, 20), timestamps(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE)));
+        store.removeBefore("type2", 13l);
+        assertEquals(range(13, 20), timestamps(store.query("type2", Long.MIN_VALUE, Long.MAX_VALUE)));
+    };
+
+    /**
+     * Test if concurrent writers of the same type
+     * keep all their events
+     */
+    @Test
+    public void insert_concurrentWriters_shouldKeepAllEvents() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            long offset = t;
+            threads.add(new Thread(() -> {
+                for (long i = 0; i < 1000; i++) {
+                    store.insert(new Event("type1", i * 4 + offset));
+                };
+            }));
+        };
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        };
+        assertEquals(range(0, 4000), timestamps(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE)));
+    };
+
+    private static List<Long> range(long from, long to) {
+        List<Long> timestamps = new ArrayList<>();
+        for (long timestamp = from; timestamp < to; timestamp++) {
+            timestamps.add(timestamp);
+        };
+        return timestamps;
+    }
+
+    private static List<Long> asList(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        };
+        return list;
+    }
+
+    private static Event firstOf(EventIterator iterator) {
+        assertTrue(iterator.moveNext());
+        return iterator.current();
+    }
+
+    private static List<Long> timestamps(EventIterator iterator) {
+        List<Long> timestamps = new ArrayList<>();
+        while (iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        assertFalse(iterator.moveNext());
+        return timestamps;
+    }
+}
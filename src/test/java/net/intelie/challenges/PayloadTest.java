@@ -0,0 +1,94 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadTest {
+
+    /**
+     * Test if every kind of attribute value decodes
+     * back, one by one or all together in order
+     */
+    @Test
+    public void get_attributes_shouldDecodeEachValue() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("name", "caf\u00e9");
+        attributes.put("count", -42);
+        attributes.put("big", Long.MIN_VALUE);
+        attributes.put("ratio", 0.5f);
+        attributes.put("ok", true);
+        attributes.put("missing", null);
+        attributes.put("raw", new byte[] {1, 2, 3});
+        Payload payload = Payload.of(attributes);
+        assertTrue(payload.hasAttributes());
+        assertEquals("caf\u00e9", payload.get("name"));
+        assertEquals(-42l, payload.get("count"));
+        assertEquals(Long.MIN_VALUE, payload.get("big"));
+        assertEquals(0.5, payload.get("ratio"));
+        assertEquals(Boolean.TRUE, payload.get("ok"));
+        assertNull(payload.get("missing"));
+        assertNull(payload.get("absent"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) payload.get("raw"));
+        Map<String, Object> decoded = payload.attributes();
+        assertEquals(Arrays.asList("name", "count", "big", "ratio", "ok", "missing", "raw"),
+                Arrays.asList(decoded.keySet().toArray()));
+        assertEquals(true, decoded.get("ok"));
+    };
+
+    /**
+     * Test if opaque bytes are copied in and out,
+     * and have no attributes
+     */
+    @Test(expected = IllegalStateException.class)
+    public void get_opaque_shouldThrowIllegalStateException() {
+        byte[] bytes = {7, 8, 9};
+        Payload payload = Payload.wrap(bytes);
+        bytes[0] = 0;
+        assertFalse(payload.hasAttributes());
+        assertArrayEquals(new byte[] {7, 8, 9}, payload.bytes());
+        payload.get("key");
+    };
+
+    /**
+     * Test if empty payloads are the same, with no
+     * bytes and no attributes
+     */
+    @Test
+    public void of_empty_shouldBeEmpty() {
+        assertSame(Payload.EMPTY, Payload.of(new LinkedHashMap<>()));
+        assertSame(Payload.EMPTY, Payload.wrap(new byte[0]));
+        assertTrue(Payload.EMPTY.isEmpty());
+        assertEquals(0, Payload.EMPTY.bytes().length);
+        assertTrue(Payload.EMPTY.attributes().isEmpty());
+        assertNull(Payload.EMPTY.get("key"));
+    };
+
+    /**
+     * Test if payloads are equal by their encoding,
+     * also when they are slices of a larger array
+     */
+    @Test
+    public void equals_sameEncoding_shouldBeEqual() {
+        Payload payload = Payload.of(Collections.singletonMap("key", "value"));
+        byte[] column = new byte[payload.encodedLength() + 5];
+        payload.copyTo(column, 5);
+        Payload slice = Payload.decode(column, 5, payload.encodedLength());
+        assertEquals(payload, slice);
+        assertEquals(payload.hashCode(), slice.hashCode());
+        assertEquals("value", slice.get("key"));
+        assertNotEquals(payload, Payload.wrap(new byte[] {1}));
+        assertNotEquals(Payload.wrap(new byte[] {1}), Payload.wrap(new byte[] {2}));
+    };
+}
@@ -0,0 +1,312 @@
+package net.intelie.challenges;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentEventStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    Path directory;
+    PersistentEventStore store;
+
+    @Before
+    public void init() throws IOException {
+        directory = folder.getRoot().toPath();
+        store = open();
+    };
+
+    @After
+    public void finish() throws IOException {
+        store.close();
+    };
+
+    /**
+     * Test if inserts and removals of the log
+     * are recovered after reopening
+     */
+    @Test
+    public void reopen_afterWrites_shouldRecoverFromLog() throws IOException {
+        for (long timestamp = 0; timestamp < 10; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        store.insertAll(Arrays.asList(new Event("type2", 1l), new Event("type2", 2l)));
+        store.removeBefore("type1", 3l);
+        EventIterator iterator = store.query("type1", 5l, 6l);
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        store.insert(new Event("type3", 1l));
+        store.removeAll("type3");
+        reopen();
+        assertEquals(Arrays.asList(3l, 4l, 6l, 7l, 8l, 9l), timestamps("type1"));
+        assertEquals(Arrays.asList(1l, 2l), timestamps("type2"));
+        assertNull(store.query("type3", Long.MIN_VALUE, Long.MAX_VALUE));
+    };
+
+    /**
+     * Test if events are recovered from a snapshot plus
+     * the log written after it, and old files are deleted
+     */
+    @Test
+    public void reopen_afterCheckpoint_shouldRecoverSnapshotAndLog() throws IOException {
+        for (long timestamp = 0; timestamp < 5; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        store.checkpoint();
+        store.insert(new Event("type1", 5l));
+        store.removeBefore(1l);
+        store.checkpoint();
+        store.insert(new Event("type1", 6l));
+        reopen();
+        assertEquals(Arrays.asList(1l, 2l, 3l, 4l, 5l, 6l), timestamps("type1"));
+        assertEquals(3, Files.list(directory).count());
+    };
+
+    /**
+     * Test if payloads are recovered from the snapshot
+     * and from the log
+     */
+    @Test
+    public void reopen_payloads_shouldRecoverThem() throws IOException {
+        Payload payload = Payload.of(Collections.singletonMap("key", "value"));
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 2l, payload));
+        store.insert(new Event("type2", 1l));
+        store.checkpoint();
+        store.insertAll(Arrays.asList(new Event("type1", 3l, Payload.wrap(new byte[] {4})), new Event("type1", 4l)));
+        reopen();
+        List<Event> events = new ArrayList<>();
+        EventIterator iterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+        while (iterator.moveNext()) {
+            events.add(iterator.current());
+        };
+        assertEquals(Arrays.asList(new Event("type1", 1l), new Event("type1", 2l, payload),
+                new Event("type1", 3l, Payload.wrap(new byte[] {4})), new Event("type1", 4l)), events);
+        assertEquals("value", events.get(1).payload().get("key"));
+        assertEquals(Arrays.asList(1l), timestamps("type2"));
+        store.checkpoint();
+        reopen();
+        iterator = store.query("type1", 2l, 3l);
+        assertTrue(iterator.moveNext());
+        assertEquals(payload, iterator.current().payload());
+    };
+
+    /**
+     * Test if removing one of the events of a timestamp
+     * removes that one after reopening, told by its payload
+     */
+    @Test
+    public void reopen_removedPayload_shouldRemoveSameEvent() throws IOException {
+        store.insert(new Event("type1", 1l, Payload.wrap(new byte[] {1})));
+        store.insert(new Event("type1", 1l, Payload.wrap(new byte[] {2})));
+        store.insert(new Event("type1", 1l));
+        EventIterator iterator = store.query("type1", 1l, 2l);
+        while (iterator.moveNext()) {
+            if (iterator.current().payload().equals(Payload.wrap(new byte[] {2}))) {
+                iterator.remove();
+            };
+        };
+        reopen();
+        List<Event> events = new ArrayList<>();
+        iterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+        while (iterator.moveNext()) {
+            events.add(iterator.current());
+        };
+        assertEquals(2, events.size());
+        assertTrue(events.contains(new Event("type1", 1l, Payload.wrap(new byte[] {1}))));
+        assertTrue(events.contains(new Event("type1", 1l)));
+    };
+
+    /**
+     * Test if a torn record at the end of the log
+     * is ignored on recovery
+     */
+    @Test
+    public void reopen_tornLogTail_shouldIgnoreTornRecord() throws IOException {
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 2l));
+        store.close();
+        Path log = Files.list(directory).filter(path -> path.toString().endsWith(".log")).findFirst().get();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), channel.size());
+        };
+        store = open();
+        assertEquals(Arrays.asList(1l), timestamps("type1"));
+        store.insert(new Event("type1", 3l));
+        reopen();
+        assertEquals(Arrays.asList(1l, 3l), timestamps("type1"));
+    };
+
+    /**
+     * Test if concurrent writers share commits
+     * and keep all their events
+     */
+    @Test
+    public void insert_concurrentWriters_shouldKeepAllEvents() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            String type = "type" + t;
+            threads.add(new Thread(() -> {
+                for (long timestamp = 0; timestamp < 100; timestamp++) {
+                    store.insert(new Event(type, timestamp));
+                };
+            }));
+        };
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        };
+        reopen();
+        for (int t = 0; t < 4; t++) {
+            assertEquals(100, timestamps("type" + t).size());
+        };
+    };
+
+    /**
+     * Test if a periodic checkpoint that fails is reported
+     * and the later ones still run
+     */
+    @Test
+    public void checkpoint_scheduledFailure_shouldKeepRunning() throws Exception {
+        store.close();
+        store = new PersistentEventStore(new EventStoreImpl(), directory, 200l);
+        // the first checkpoint cannot create its temporary directory
+        Files.createFile(directory.resolve("snapshot-3.tmp"));
+        store.insert(new Event("type1", 1l));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!Files.isDirectory(directory.resolve("snapshot-4")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        };
+        assertTrue(Files.isDirectory(directory.resolve("snapshot-4")));
+        assertTrue(store.lastCheckpointFailure() instanceof IOException);
+        reopen();
+        assertEquals(Collections.singletonList(1l), timestamps("type1"));
+    };
+
+    /**
+     * Test if writes after close throw IllegalStateException
+     */
+    @Test(expected = IllegalStateException.class)
+    public void insert_afterClose_shouldThrowIllegalStateException() throws IOException {
+        store.close();
+        try {
+            store.insert(new Event("type1", 1l));
+        } finally {
+            store = open();
+        }
+    };
+
+    /**
+     * Test if a removal that throws is not logged, and
+     * a duplicate left in memory is kept after reopening
+     */
+    @Test
+    public void remove_failedSecondRemove_shouldNotBeRecovered() throws IOException {
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 1l));
+        EventIterator iterator = store.query("type1", 1l, 2l);
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        try {
+            iterator.remove();
+        } catch (IllegalStateException e) {
+            // already removed, so nothing is logged
+        };
+        reopen();
+        assertEquals(Collections.singletonList(1l), timestamps("type1"));
+    };
+
+    /**
+     * Test if two iterators removing the same one of two
+     * equal events log a single removal
+     */
+    @Test
+    public void remove_sameEventTwice_shouldRecoverOtherDuplicate() throws IOException {
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 1l));
+        EventIterator first = store.query("type1", 1l, 2l);
+        EventIterator second = store.query("type1", 1l, 2l);
+        assertTrue(first.moveNext());
+        assertTrue(second.moveNext());
+        assertTrue(first.tryRemove());
+        assertFalse(second.tryRemove());
+        reopen();
+        assertEquals(Collections.singletonList(1l), timestamps("type1"));
+    };
+
+    /**
+     * Test if an event the delegate refuses is not logged,
+     * so it does not reappear after reopening
+     */
+    @Test
+    public void insert_refusedByDelegate_shouldNotBeRecovered() throws IOException {
+        store.close();
+        store = new PersistentEventStore(new EventStoreImpl(EventIndex.DEFAULT_SEGMENT_WIDTH, false,
+                new MemoryBudget(1, null)), directory, 0l);
+        try {
+            store.insert(new Event("type1", 1l));
+        } catch (IllegalStateException e) {
+            // over the budget
+        };
+        reopen();
+        assertNull(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE));
+    };
+
+    /**
+     * Test if writes after a checkpoint started go to the new
+     * log, and the snapshot written from the cut keeps the rest
+     */
+    @Test
+    public void checkpoint_writesAfter_shouldRecoverBoth() throws IOException {
+        for (long timestamp = 0; timestamp < 5; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        store.checkpoint();
+        store.insert(new Event("type1", 5l));
+        EventIterator iterator = store.query("type1", 0l, 1l);
+        assertTrue(iterator.moveNext());
+        iterator.remove();
+        reopen();
+        assertEquals(Arrays.asList(1l, 2l, 3l, 4l, 5l), timestamps("type1"));
+    };
+
+    private PersistentEventStore open() throws IOException {
+        return new PersistentEventStore(new EventStoreImpl(), directory, 0l);
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = open();
+    }
+
+    private List<Long> timestamps(String type) {
+        List<Long> timestamps = new ArrayList<>();
+        EventIterator iterator = store.query(type, Long.MIN_VALUE, Long.MAX_VALUE);
+        while (iterator != null && iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        assertFalse(iterator != null && iterator.moveNext());
+        return timestamps;
+    }
+}
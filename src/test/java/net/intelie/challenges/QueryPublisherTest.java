@@ -0,0 +1,141 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QueryPublisherTest {
+
+    EventStoreImpl store;
+    Queue<Runnable> tasks;
+    Executor executor;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(100l);
+        for (long timestamp = 0; timestamp < 1000; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        tasks = new ArrayDeque<>();
+        executor = tasks::add;
+    };
+
+    /**
+     * Test if every event is delivered in order and in
+     * bounded chunks, each one a new task
+     */
+    @Test
+    public void subscribe_unboundedDemand_shouldDeliverInChunks() {
+        Recorder recorder = new Recorder();
+        store.queryAsync("type1", 0l, 1000l, executor).subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        int runs = drain();
+        assertEquals(1000, recorder.events.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, recorder.events.get(i).timestamp());
+        };
+        assertTrue(recorder.completed);
+        assertEquals((1000 + QueryPublisher.CHUNK - 1) / QueryPublisher.CHUNK, runs);
+    };
+
+    /**
+     * Test if only the events requested are delivered,
+     * and completion comes with the last one
+     */
+    @Test
+    public void request_boundedDemand_shouldDeliverOnlyRequested() {
+        Recorder recorder = new Recorder();
+        store.queryAsync("type1", 500l, 1000l, executor).subscribe(recorder);
+        assertEquals(0, drain());
+        recorder.subscription.request(10);
+        drain();
+        assertEquals(10, recorder.events.size());
+        assertFalse(recorder.completed);
+        recorder.subscription.request(490);
+        drain();
+        assertEquals(500, recorder.events.size());
+        assertTrue(recorder.completed);
+    };
+
+    /**
+     * Test if cancelling stops the delivery
+     */
+    @Test
+    public void cancel_midway_shouldStopDelivery() {
+        Recorder recorder = new Recorder();
+        store.queryAsync("type1", 0l, 1000l, executor).subscribe(recorder);
+        recorder.subscription.request(5);
+        drain();
+        recorder.subscription.cancel();
+        recorder.subscription.request(100);
+        drain();
+        assertEquals(5, recorder.events.size());
+        assertFalse(recorder.completed);
+    };
+
+    /**
+     * Test if an unknown type completes without events,
+     * and a non positive request fails
+     */
+    @Test
+    public void subscribe_unknownTypeOrInvalidRequest_shouldEnd() {
+        Recorder empty = new Recorder();
+        store.queryAsync("unknown", 0l, 1000l, executor).subscribe(empty);
+        empty.subscription.request(1);
+        drain();
+        assertTrue(empty.completed);
+        assertTrue(empty.events.isEmpty());
+        Recorder invalid = new Recorder();
+        store.queryAsync("type1", 0l, 1000l, executor).subscribe(invalid);
+        invalid.subscription.request(0);
+        drain();
+        assertTrue(invalid.error instanceof IllegalArgumentException);
+        assertTrue(invalid.events.isEmpty());
+    };
+
+    private int drain() {
+        int runs = 0;
+        while (!tasks.isEmpty()) {
+            tasks.poll().run();
+            runs++;
+        };
+        return runs;
+    }
+
+    private static final class Recorder implements Flow.Subscriber<Event> {
+        final List<Event> events = new ArrayList<>();
+        Flow.Subscription subscription;
+        boolean completed = false;
+        Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Event item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
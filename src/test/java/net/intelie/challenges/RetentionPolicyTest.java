@@ -0,0 +1,112 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetentionPolicyTest {
+
+    EventStore store;
+    AtomicLong clock;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(10l);
+        clock = new AtomicLong();
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+            store.insert(new Event("type2", timestamp));
+        };
+    };
+
+    /**
+     * Test if expire removes from every type only the
+     * events older than maxAge
+     */
+    @Test
+    public void expire_validClock_shouldRemoveOldEvents() {
+        RetentionPolicy policy = new RetentionPolicy(store, 30l, 0l, clock::get);
+        clock.set(75l);
+        policy.expire();
+        EventIterator iterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(iterator.moveNext());
+        assertEquals(45l, iterator.current().timestamp());
+        iterator = store.query("type2", Long.MIN_VALUE, 45l);
+        assertFalse(iterator.moveNext());
+        policy.close();
+    };
+
+    /**
+     * Test if a huge maxAge does not overflow and
+     * keeps every event
+     */
+    @Test
+    public void expire_hugeMaxAge_shouldKeepAll() {
+        RetentionPolicy policy = new RetentionPolicy(store, Long.MAX_VALUE, 0l, clock::get);
+        clock.set(-1l);
+        policy.expire();
+        EventIterator iterator = store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(iterator.moveNext());
+        assertEquals(0l, iterator.current().timestamp());
+        policy.close();
+    };
+
+    /**
+     * Test if the background run expires events
+     * without calling expire
+     */
+    @Test
+    public void constructor_validPeriod_shouldExpireInBackground() throws InterruptedException {
+        clock.set(1000l);
+        try (RetentionPolicy policy = new RetentionPolicy(store, 500l, 1l, clock::get)) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE).moveNext()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            };
+            assertFalse(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE).moveNext());
+        };
+    };
+
+    /**
+     * Test if a background run that throws does not
+     * stop the later runs
+     */
+    @Test
+    public void constructor_failingRun_shouldKeepExpiring() throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger(1);
+        EventStore failing = new EventStoreImpl(10l) {
+            @Override
+            public void removeBefore(long timestamp) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("store is closed");
+                };
+                store.removeBefore(timestamp);
+            }
+        };
+        clock.set(1000l);
+        try (RetentionPolicy policy = new RetentionPolicy(failing, 500l, 1l, clock::get)) {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE).moveNext()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            };
+            assertTrue(failures.get() < 0);
+            assertFalse(store.query("type1", Long.MIN_VALUE, Long.MAX_VALUE).moveNext());
+        };
+    };
+
+    /**
+     * Test if negative maxAge is rejected
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_negativeMaxAge_shouldThrowIllegalArgument() {
+        new RetentionPolicy(store, -1l, 0l, clock::get);
+    };
+}
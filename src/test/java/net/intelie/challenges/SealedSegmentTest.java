@@ -0,0 +1,165 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SealedSegmentTest {
+
+    /**
+     * Test if irregular timestamps, up to the edges
+     * of the long range, decode back in order
+     */
+    @Test
+    public void seal_irregularTimestamps_shouldDecodeSame() {
+        Segment segment = new Segment(Long.MIN_VALUE, Long.MAX_VALUE);
+        Random random = new Random(42);
+        List<Long> timestamps = new ArrayList<>();
+        timestamps.add(Long.MIN_VALUE);
+        timestamps.add(Long.MAX_VALUE);
+        for (int i = 0; i < 1000; i++) {
+            timestamps.add(i % 3 == 0 ? random.nextLong() : random.nextInt(1000));
+        };
+        for (long timestamp : timestamps) {
+            segment.append(new Event("type1", timestamp));
+        };
+        int[] view = segment.view();
+        SealedSegment sealed = segment.seal();
+        assertEquals(view.length, sealed.size());
+        for (int position = 0; position < view.length; position++) {
+            assertEquals(segment.timestamp(view[position]), sealed.timestamp(position));
+        };
+        // reading out of order decodes other blocks on the way
+        Segment.Cursor cursor = new Segment.Cursor();
+        for (int position = view.length - 1; position >= 0; position -= 7) {
+            assertEquals(segment.timestamp(view[position]), sealed.timestamp(position));
+            assertEquals(segment.timestamp(view[position]), sealed.timestamp(position, cursor));
+            assertEquals(segment.event(view[position]), sealed.event(position));
+            assertEquals(segment.event(view[position]), sealed.event(position, cursor));
+        };
+        assertEquals(segment.lowerBound(view, 500l), sealed.lowerBound(null, 500l));
+        assertEquals(segment.count(0l, 500l), sealed.count(0l, 500l));
+    };
+
+    /**
+     * Test if sealed segments of different sizes share one
+     * identity view, bounded by their own length
+     */
+    @Test
+    public void view_sealed_shouldShareIdentity() {
+        Segment small = new Segment(0l, 99l);
+        Segment large = new Segment(0l, 99l);
+        for (long timestamp = 0; timestamp < 300; timestamp++) {
+            large.append(new Event("type1", timestamp % 100));
+            if (timestamp < 10) {
+                small.append(new Event("type1", timestamp));
+            };
+        };
+        SealedSegment sealedLarge = large.seal();
+        SealedSegment sealedSmall = small.seal();
+        int[] view = sealedLarge.view();
+        assertSame(view, sealedSmall.view());
+        assertSame(view, sealedLarge.view(1l));
+        assertEquals(300, sealedLarge.length(view));
+        assertEquals(10, sealedSmall.length(view));
+        for (int position = 0; position < 300; position++) {
+            assertEquals(position, view[position]);
+        };
+    };
+
+    /**
+     * Test if a sealed segment refuses new events and the
+     * hot one refuses them from the moment it was sealed
+     */
+    @Test
+    public void reserve_sealed_shouldRefuse() {
+        Segment segment = new Segment(0l, 99l);
+        for (long timestamp = 0; timestamp < 300; timestamp++) {
+            segment.append(new Event("type1", timestamp % 100));
+        };
+        SealedSegment sealed = segment.seal();
+        assertSame(sealed, segment.seal());
+        assertEquals(-1, segment.reserve(1));
+        assertEquals(-1, sealed.reserve(1));
+        assertEquals(300, segment.reservedSlots());
+        assertEquals(300, sealed.reservedSlots());
+        assertTrue(segment.isDropped());
+        assertTrue(sealed.estimatedBytes() * 5 < segment.estimatedBytes() + 300 * 24);
+    };
+
+    /**
+     * Test if removals through the hot segment after
+     * sealing reach the sealed one
+     */
+    @Test
+    public void remove_afterSealing_shouldForward() {
+        Segment segment = new Segment(0l, 99l);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            segment.append(new Event("type1", timestamp));
+        };
+        segment.remove(3, segment.event(3));
+        SealedSegment sealed = segment.seal();
+        assertSame(Segment.REMOVED, sealed.event(3));
+        assertTrue(segment.remove(5, segment.event(5)));
+        assertSame(Segment.REMOVED, sealed.event(5));
+        assertTrue(sealed.remove(7, sealed.event(7)));
+        assertFalse(sealed.remove(7, new Event("type1", 7l)));
+        assertTrue(sealed.hasRemovals());
+        assertEquals(97, sealed.size());
+        assertEquals(97, sealed.count(0l, 100l));
+    };
+
+    /**
+     * Test if thawing copies events and removals, and
+     * later removals through the sealed one still apply
+     */
+    @Test
+    public void thaw_sealed_shouldCopyBack() {
+        Segment segment = new Segment(0l, 99l);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            segment.append(new Event("type1", timestamp));
+        };
+        SealedSegment sealed = segment.seal();
+        Event event = sealed.event(9);
+        sealed.remove(2, sealed.event(2));
+        Segment thawed = sealed.thaw();
+        assertSame(thawed, sealed.thaw());
+        assertEquals(99, thawed.size());
+        assertSame(Segment.REMOVED, thawed.event(2));
+        assertEquals(event, thawed.event(9));
+        assertNotSame(event, thawed.event(9));
+        sealed.remove(9, event);
+        assertSame(Segment.REMOVED, thawed.event(9));
+        assertTrue(thawed.reserve(1) >= 0);
+    };
+
+    /**
+     * Test if payloads of some events are kept
+     * through sealing and thawing
+     */
+    @Test
+    public void seal_payloads_shouldKeepThem() {
+        Segment segment = new Segment(0l, 99l);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            Payload payload = timestamp % 3 == 0 ? Payload.of(Collections.singletonMap("value", timestamp)) : Payload.EMPTY;
+            segment.append(new Event("type1", 99 - timestamp, payload));
+        };
+        SealedSegment sealed = segment.seal();
+        for (int position = 0; position < 100; position++) {
+            long timestamp = 99 - position;
+            assertEquals(timestamp % 3 == 0 ? timestamp : null, sealed.event(position).payload().get("value"));
+        };
+        Segment thawed = sealed.thaw();
+        assertEquals(sealed.event(3), thawed.event(3));
+        assertEquals(99l, thawed.event(0).payload().get("value"));
+    };
+}
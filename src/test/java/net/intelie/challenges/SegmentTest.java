@@ -0,0 +1,182 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentTest {
+
+    Segment segment;
+
+    @Before
+    public void init() {
+        segment = new Segment(0l, 999l);
+    };
+
+    /**
+     * Test if appends crossing many chunks keep every
+     * event in its own slot
+     */
+    @Test
+    public void append_manyChunks_shouldKeepAllSlots() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, segment.append(new Event("type1", i)));
+        };
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, segment.timestamp(i));
+            assertEquals(i, segment.event(i).timestamp());
+        };
+        assertEquals(1000, segment.size());
+    };
+
+    /**
+     * Test if a reservation past the last slot throws
+     * and gives back what it reserved
+     */
+    @Test
+    public void reserve_fullSegment_shouldThrowAndRollBack() {
+        assertEquals(0, segment.reserve(Segment.MAX_SLOTS - 1));
+        try {
+            segment.reserve(2);
+            fail("segment was not full");
+        } catch (IllegalStateException e) {
+            assertEquals(Segment.MAX_SLOTS - 1, segment.reservedSlots());
+        };
+        assertEquals(Segment.MAX_SLOTS - 1, segment.reserve(1));
+    };
+
+    /**
+     * Test if appendAll stores a run crossing many chunks
+     * after slots already used
+     */
+    @Test
+    public void appendAll_manyChunks_shouldKeepAllSlots() {
+        segment.append(new Event("type1", 0l));
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            events.add(new Event("type1", i));
+        };
+        segment.appendAll(events, 10, 1000);
+        assertEquals(991, segment.size());
+        int[] view = segment.view();
+        assertEquals(991, view.length);
+        for (int i = 1; i < 991; i++) {
+            assertEquals(events.get(9 + i), segment.event(view[i]));
+        };
+    };
+
+    /**
+     * Test if view orders out of order appends by timestamp,
+     * keeping arrival order for equal timestamps
+     */
+    @Test
+    public void view_outOfOrderAppends_shouldBeOrdered() {
+        segment.append(new Event("type1", 5l));
+        segment.append(new Event("type1", 3l));
+        segment.view();
+        segment.append(new Event("type1", 4l));
+        segment.append(new Event("type1", 3l));
+        segment.append(new Event("type1", 1l));
+        int[] view = segment.view();
+        assertEquals(5, view.length);
+        assertEquals(4, view[0]);
+        assertEquals(1, view[1]);
+        assertEquals(3, view[2]);
+        assertEquals(2, view[3]);
+        assertEquals(0, view[4]);
+    };
+
+    /**
+     * Test if late events staged between reads are merged
+     * in order, equal timestamps kept in arrival order
+     */
+    @Test
+    public void view_lateEventsBetweenReads_shouldMergeInOrder() {
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // every fifth event comes 30ms late, and every tenth repeats one
+            long timestamp = i % 5 == 4 ? i - 30 : i % 10 == 3 ? i - 1 : i;
+            segment.append(new Event("type1", Math.max(timestamp, 0)));
+            expected.add(Math.max(timestamp, 0));
+            if (i % 7 == 0) {
+                segment.view();
+            };
+        };
+        expected.sort(null);
+        int[] view = segment.view();
+        assertEquals(500, view.length);
+        for (int position = 0; position < view.length; position++) {
+            assertEquals((long) expected.get(position), segment.timestamp(view[position]));
+            if (position > 0 && segment.timestamp(view[position]) == segment.timestamp(view[position - 1])) {
+                assertTrue(view[position] > view[position - 1]);
+            };
+        };
+    };
+
+    /**
+     * Test if lowerBound finds the first position
+     * not before the given timestamp
+     */
+    @Test
+    public void lowerBound_validView_shouldFindFirstPosition() {
+        for (int i = 0; i < 10; i++) {
+            segment.append(new Event("type1", i * 2));
+        };
+        int[] view = segment.view();
+        assertEquals(0, segment.lowerBound(view, -1l));
+        assertEquals(3, segment.lowerBound(view, 5l));
+        assertEquals(3, segment.lowerBound(view, 6l));
+        assertEquals(10, segment.lowerBound(view, 100l));
+    };
+
+    /**
+     * Test if remove marks the slot only once and only
+     * for the expected event
+     */
+    @Test
+    public void remove_validSlot_shouldRemoveOnce() {
+        Event event = new Event("type1", 1l);
+        int slot = segment.append(event);
+        assertFalse(segment.remove(slot, new Event("type1", 1l)));
+        assertTrue(segment.remove(slot, event));
+        assertFalse(segment.remove(slot, event));
+        assertEquals(Segment.REMOVED, segment.event(slot));
+        assertEquals(0, segment.size());
+    };
+
+    /**
+     * Test if an epoch sees only the events inserted up
+     * to it, past a slot still being written, and the
+     * events removed after it
+     */
+    @Test
+    public void view_epoch_shouldSeeEventsOfEpoch() {
+        int pending = segment.reserve(1);
+        int slot = segment.reserve(2);
+        Event event = new Event("type1", 5l);
+        segment.publish(slot, event, 1l);
+        segment.publish(slot + 1, new Event("type1", 3l), 2l);
+        assertEquals(0, segment.view().length);
+        int[] view = segment.view(1l);
+        assertEquals(1, view.length);
+        assertEquals(slot, view[0]);
+        assertEquals(2, segment.view(2l).length);
+        assertEquals(slot + 1, segment.view(2l)[0]);
+        assertTrue(segment.remove(slot, event, 3l));
+        assertSame(event, segment.event(slot, 2l));
+        assertSame(Segment.REMOVED, segment.event(slot, 3l));
+        assertSame(Segment.REMOVED, segment.event(slot));
+        assertEquals(null, segment.event(slot + 1, 1l));
+        segment.publish(pending, new Event("type1", 4l), 4l);
+        assertEquals(3, segment.view(3l).length);
+        assertEquals(null, segment.event(pending, 3l));
+    };
+}
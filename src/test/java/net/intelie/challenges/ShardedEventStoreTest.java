@@ -0,0 +1,104 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ShardedEventStoreTest {
+
+    ShardedEventStore store;
+
+    @Before
+    public void init() {
+        store = new ShardedEventStore(10l, 4, Collections.singleton("hot"));
+    };
+
+    /**
+     * Test if events written by many threads to a sharded
+     * type are queried once each, in timestamp order
+     */
+    @Test
+    public void query_concurrentWriters_shouldMergeShardsInOrder() throws Exception {
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final long offset = t;
+            writers.add(new Thread(() -> {
+                for (long i = 0; i < 5000; i++) {
+                    store.insert(new Event("hot", i * 8 + offset));
+                };
+            }));
+        };
+        for (Thread writer : writers) {
+            writer.start();
+        };
+        for (Thread writer : writers) {
+            writer.join();
+        };
+        EventIterator iterator = store.query("hot", 0l, Long.MAX_VALUE);
+        long expected = 0;
+        while (iterator.moveNext()) {
+            assertEquals(expected++, iterator.current().timestamp());
+        };
+        assertEquals(40000, expected);
+        assertEquals(40000, store.count("hot", Long.MIN_VALUE, Long.MAX_VALUE));
+    };
+
+    /**
+     * Test if aggregates and removals cover every shard
+     * of a sharded type
+     */
+    @Test
+    public void aggregates_shardedType_shouldCombineShards() throws Exception {
+        TypeHandle handle = store.typeHandle("hot");
+        Thread other = new Thread(() -> handle.insert(25l));
+        other.start();
+        other.join();
+        handle.insert(5l);
+        store.insertAll(Arrays.asList(new Event("hot", 15l), new Event("cold", 1l)));
+        assertArrayEquals(new long[]{1, 1, 1}, store.histogram("hot", 0l, 30l, 10l));
+        assertEquals(OptionalLong.of(5l), store.minTimestamp("hot", 0l, 30l));
+        assertEquals(OptionalLong.of(25l), store.maxTimestamp("hot", 0l, 30l));
+        store.removeBefore("hot", 10l);
+        assertEquals(2, store.count("hot", 0l, 30l));
+        store.removeAll("hot");
+        assertNull(store.query("hot", 0l, 30l));
+        assertEquals(Collections.singletonList("cold"), new ArrayList<>(store.types()));
+    };
+
+    /**
+     * Test if types not sharded keep insertion order
+     * and subscriptions in a single shard
+     */
+    @Test
+    public void query_coldType_shouldKeepInsertionOrder() {
+        Event first = new Event("cold", 1l);
+        Event second = new Event("cold", 1l);
+        store.insert(first);
+        store.insert(second);
+        EventIterator iterator = store.query("cold", 0l, 10l);
+        iterator.moveNext();
+        assertSame(first, iterator.current());
+        iterator.moveNext();
+        assertSame(second, iterator.current());
+        store.subscribe("cold", 0l, events -> { }).close();
+    };
+
+    /**
+     * Test if subscribing to a sharded type
+     * is refused
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void subscribe_shardedType_shouldThrow() {
+        store.subscribe("hot", 0l, events -> { });
+    };
+}
@@ -0,0 +1,132 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreMetricsTest {
+
+    EventStoreImpl store;
+    StoreMetrics metrics;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(10l, true);
+        metrics = store.metrics();
+    };
+
+    /**
+     * Test if inserts, batches and removals are counted,
+     * and a store without metrics has none
+     */
+    @Test
+    public void metrics_operations_shouldBeCounted() throws Exception {
+        store.insert(new Event("type1", 1l));
+        store.typeHandle("type1").insert(2l);
+        store.insertAll(Arrays.asList(new Event("type1", 3l), new Event("type2", 4l)));
+        store.removeBefore("type1", 2l);
+        store.removeAll("type2");
+        store.count("type1", 0l, 10l);
+        assertEquals(4, metrics.getInsertedEvents());
+        assertEquals(1, metrics.getBatchLatency().getCount());
+        assertEquals(2, metrics.getRemovals());
+        assertEquals(2, metrics.getRemoveLatency().getCount());
+        assertEquals(1, metrics.getAggregateLatency().getCount());
+        assertNull(new EventStoreImpl(10l).metrics());
+    };
+
+    /**
+     * Test if a batch counts only the events
+     * inserted, not the nulls skipped
+     */
+    @Test
+    public void insertAll_withNulls_shouldCountInserted() throws Exception {
+        store.insertAll(Arrays.asList(new Event("type1", 1l), null, new Event("type2", 2l), null));
+        assertEquals(2, metrics.getInsertedEvents());
+        assertEquals(1, metrics.getBatchLatency().getCount());
+    };
+
+    /**
+     * Test if finished queries report scanned and
+     * returned events, removed ones only scanned
+     */
+    @Test
+    public void query_finished_shouldReportScanRatio() throws Exception {
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        EventIterator iterator = store.query("type1", 0l, 50l);
+        while (iterator.moveNext()) {
+            if (iterator.current().timestamp() % 2 == 0) {
+                iterator.remove();
+            };
+        };
+        // unfinished until closed
+        iterator = store.query("type1", 0l, 100l);
+        iterator.moveNext();
+        assertEquals(2, metrics.getQueries());
+        assertEquals(1, metrics.getQueryLatency().getCount());
+        iterator.close();
+        assertEquals(2, metrics.getQueryLatency().getCount());
+        // first query: 50 returned and scanned, ending with its segments
+        // second query: 1 returned, 2 scanned with the removed one
+        assertEquals(51, metrics.getReturnedEvents());
+        assertEquals(52, metrics.getScannedEvents());
+        assertEquals(52.0 / 51, metrics.getScanRatio(), 0.0001);
+    };
+
+    /**
+     * Test if per type stats come from the indexes
+     * linked to the store
+     */
+    @Test
+    public void getTypeStats_manyTypes_shouldReportSizes() {
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        store.insert(new Event("type2", 1l));
+        store.insert(new Event("type3", 1l));
+        store.removeAll("type3");
+        List<StoreMetrics.TypeStats> stats = metrics.getTypeStats();
+        assertEquals(2, stats.size());
+        assertEquals(2, metrics.getTypes());
+        assertEquals(101, metrics.getEvents());
+        StoreMetrics.TypeStats type1 = stats.get(0).getType().equals("type1") ? stats.get(0) : stats.get(1);
+        assertEquals(100, type1.getEvents());
+        assertEquals(10, type1.getSegments());
+        assertTrue(type1.getEstimatedBytes() > 100 * 24);
+        assertTrue(metrics.getEstimatedBytes() > type1.getEstimatedBytes());
+    };
+
+    /**
+     * Test if registered metrics are readable
+     * through the platform MBean server
+     */
+    @Test
+    public void register_platformServer_shouldExposeAttributes() throws Exception {
+        store.insert(new Event("type1", 1l));
+        store.query("type1", 0l, 10l).close();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = metrics.register("test");
+        try {
+            assertEquals(1l, server.getAttribute(name, "InsertedEvents"));
+            assertEquals(1, server.getAttribute(name, "Types"));
+            CompositeData latency = (CompositeData) server.getAttribute(name, "QueryLatency");
+            assertEquals(1l, latency.get("count"));
+            CompositeData[] stats = (CompositeData[]) server.getAttribute(name, "TypeStats");
+            assertEquals("type1", stats[0].get("type"));
+        } finally {
+            server.unregisterMBean(name);
+        };
+    };
+}
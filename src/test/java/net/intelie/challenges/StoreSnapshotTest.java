@@ -0,0 +1,161 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StoreSnapshotTest {
+
+    EventStoreImpl store;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(10l);
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+    };
+
+    /**
+     * Test if inserts after the snapshot, in old and
+     * new segments, are not seen by it
+     */
+    @Test
+    public void query_laterInserts_shouldNotSeeThem() {
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            store.insert(new Event("type1", 50l));
+            store.insert(new Event("type1", 500l));
+            store.insertAll(Arrays.asList(new Event("type1", 5l), new Event("type2", 5l)));
+            assertEquals(100, timestamps(snapshot.query("type1", 0l, 1000l)).size());
+            assertEquals(100, snapshot.count("type1", Long.MIN_VALUE, Long.MAX_VALUE));
+            assertEquals(0, snapshot.count("type2", 0l, 1000l));
+            assertEquals(103, store.count("type1", 0l, 1000l));
+        };
+    };
+
+    /**
+     * Test if removals of events, whole segments and
+     * types after the snapshot are not seen by it
+     */
+    @Test
+    public void query_laterRemovals_shouldStillSeeEvents() {
+        store.insert(new Event("type2", 1l));
+        StoreSnapshot snapshot = store.snapshot();
+        EventIterator iterator = store.query("type1", 50l, 60l);
+        while (iterator.moveNext()) {
+            iterator.remove();
+        };
+        store.removeBefore(25l);
+        store.removeAll("type2");
+        store.insert(new Event("type2", 2l));
+        assertEquals(65, store.count("type1", 0l, 100l));
+        List<Long> expected = new ArrayList<>();
+        for (long timestamp = 0; timestamp < 100; timestamp++) {
+            expected.add(timestamp);
+        };
+        assertEquals(expected, timestamps(snapshot.query("type1", 0l, 100l)));
+        assertEquals(Arrays.asList(1l), timestamps(snapshot.query("type2", 0l, 100l)));
+        snapshot.close();
+        assertEquals(65, store.count("type1", 0l, 100l));
+        assertEquals(Arrays.asList(2l), timestamps(store.query("type2", 0l, 100l)));
+    };
+
+    /**
+     * Test if segments sealed and thawed after the
+     * snapshot still give its events
+     */
+    @Test
+    public void query_sealedAfterSnapshot_shouldKeepEpochs() {
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            store.insert(new Event("type1", 15l));
+            EventIterator iterator = store.query("type1", 20l, 21l);
+            iterator.moveNext();
+            iterator.remove();
+            store.compact(100l);
+            assertEquals(100, snapshot.count("type1", 0l, 100l));
+            assertEquals(100, store.count("type1", 0l, 100l));
+            // a late insert thaws the bucket back
+            store.insert(new Event("type1", 16l));
+            store.insert(new Event("type1", 17l));
+            store.removeBefore(22l);
+            assertEquals(100, snapshot.count("type1", 0l, 100l));
+            try (StoreSnapshot now = store.snapshot()) {
+                assertEquals(timestamps(store.query("type1", 0l, 100l)), timestamps(now.query("type1", 0l, 100l)));
+            };
+        };
+    };
+
+    /**
+     * Test if a snapshot taken while writers run gives
+     * the same events on every read
+     */
+    @Test
+    public void query_concurrentWriters_shouldRepeatSameEvents() throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            writers.add(new Thread(() -> {
+                for (long timestamp = 0; timestamp < 20000 && running.get(); timestamp++) {
+                    store.insert(new Event("type3", timestamp % 1000));
+                };
+            }));
+        };
+        for (Thread writer : writers) {
+            writer.start();
+        };
+        Thread.sleep(5);
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            List<Long> first = timestamps(snapshot.query("type3", 0l, 1000l));
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(1);
+                assertEquals(first, timestamps(snapshot.query("type3", 0l, 1000l)));
+            };
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            };
+            assertTrue(store.count("type3", 0l, 1000l) >= first.size());
+        };
+    };
+
+    /**
+     * Test if iterators of a snapshot cannot remove
+     */
+    @Test(expected = UnsupportedOperationException.class)
+    public void remove_snapshotIterator_shouldThrowUnsupportedOperationException() {
+        try (StoreSnapshot snapshot = store.snapshot()) {
+            EventIterator iterator = snapshot.query("type1", 0l, 100l);
+            iterator.moveNext();
+            iterator.remove();
+        };
+    };
+
+    /**
+     * Test if a closed snapshot refuses queries, and an
+     * unknown type has no iterator
+     */
+    @Test(expected = IllegalStateException.class)
+    public void query_closed_shouldThrowIllegalStateException() {
+        StoreSnapshot snapshot = store.snapshot();
+        assertNull(snapshot.query("unknown", 0l, 100l));
+        snapshot.close();
+        snapshot.close();
+        snapshot.query("type1", 0l, 100l);
+    };
+
+    private static List<Long> timestamps(EventIterator iterator) {
+        List<Long> timestamps = new ArrayList<>();
+        while (iterator != null && iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        return timestamps;
+    }
+}
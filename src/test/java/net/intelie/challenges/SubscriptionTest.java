@@ -0,0 +1,254 @@
+package net.intelie.challenges;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubscriptionTest {
+
+    EventStoreImpl store;
+    List<Runnable> tasks;
+    List<Event> received;
+    AtomicLong dropped;
+    boolean completed;
+    EventListener listener;
+
+    @Before
+    public void init() {
+        store = new EventStoreImpl(10l);
+        tasks = new ArrayList<>();
+        received = Collections.synchronizedList(new ArrayList<>());
+        dropped = new AtomicLong();
+        completed = false;
+        listener = new EventListener() {
+            @Override
+            public void onEvents(List<Event> events) {
+                received.addAll(events);
+            }
+
+            @Override
+            public void onDropped(long count) {
+                dropped.addAndGet(count);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed = true;
+            }
+        };
+    };
+
+    /**
+     * Test if the history from fromTimestamp is replayed
+     * ordered, and then new inserts in insertion order
+     */
+    @Test
+    public void subscribe_historyAndNewInserts_shouldDeliverBoth() {
+        for (long timestamp = 20; timestamp >= 0; timestamp--) {
+            store.insert(new Event("type1", timestamp));
+        };
+        store.insert(new Event("type2", 15l));
+        Subscription subscription = store.subscribe("type1", 15l, listener, tasks::add, 16);
+        store.insert(new Event("type1", 3l));
+        store.insertAll(Arrays.asList(new Event("type1", 30l), new Event("type2", 31l)));
+        run();
+        assertEquals(longs(15, 16, 17, 18, 19, 20, 3, 30), timestamps());
+        store.insert(new Event("type1", 1l));
+        run();
+        assertEquals(longs(15, 16, 17, 18, 19, 20, 3, 30, 1), timestamps());
+        subscription.close();
+        store.insert(new Event("type1", 2l));
+        run();
+        assertEquals(9, received.size());
+    };
+
+    /**
+     * Test if inserts past the capacity are dropped
+     * and reported, without blocking the inserting thread
+     */
+    @Test
+    public void offer_fullRing_shouldDropAndReport() {
+        store.subscribe("type1", Long.MAX_VALUE, listener, tasks::add, 8);
+        for (long timestamp = 0; timestamp < 20; timestamp++) {
+            store.insert(new Event("type1", timestamp));
+        };
+        run();
+        assertEquals(longs(0, 1, 2, 3, 4, 5, 6, 7), timestamps());
+        assertEquals(12, dropped.get());
+    };
+
+    /**
+     * Test if the same event inserted in the history and
+     * again while replaying is delivered twice
+     */
+    @Test
+    public void subscribe_sameEventTwice_shouldDeliverBoth() {
+        Event event = new Event("type1", 5l);
+        store.insert(event);
+        store.subscribe("type1", 0l, listener, tasks::add, 8);
+        store.insert(event);
+        run();
+        assertEquals(longs(5, 5), timestamps());
+    };
+
+    /**
+     * Test if an event dropped before the replay ran is
+     * reported and not delivered by the replay
+     */
+    @Test
+    public void subscribe_droppedBeforeReplay_shouldNotDeliverIt() {
+        store.subscribe("type1", 0l, listener, tasks::add, 1);
+        store.insert(new Event("type1", 1l));
+        store.insert(new Event("type1", 2l));
+        run();
+        assertEquals(longs(1), timestamps());
+        assertEquals(1, dropped.get());
+    };
+
+    /**
+     * Test if a listener that throws is told and
+     * unsubscribed
+     */
+    @Test
+    public void deliver_failingListener_shouldNotifyAndClose() {
+        List<Throwable> errors = new ArrayList<>();
+        Subscription subscription = store.subscribe("type1", 0l, new EventListener() {
+            @Override
+            public void onEvents(List<Event> events) {
+                throw new IllegalStateException("listener failed");
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                errors.add(error);
+            }
+        }, tasks::add, 8);
+        store.insert(new Event("type1", 1l));
+        run();
+        assertEquals(1, errors.size());
+        assertEquals("listener failed", errors.get(0).getMessage());
+        assertTrue(subscription.isClosed());
+    };
+
+    /**
+     * Test if removeAll ends the subscription after
+     * delivering what was buffered
+     */
+    @Test
+    public void removeAll_subscribedType_shouldComplete() {
+        Subscription subscription = store.subscribe("type1", 0l, listener, tasks::add, 8);
+        store.insert(new Event("type1", 1l));
+        store.removeAll("type1");
+        store.insert(new Event("type1", 2l));
+        run();
+        assertEquals(longs(1), timestamps());
+        assertTrue(completed);
+        assertTrue(subscription.isClosed());
+    };
+
+    /**
+     * Test if subscribing while other threads insert
+     * delivers every event exactly once
+     */
+    @Test
+    public void subscribe_concurrentInserts_shouldDeliverEachEventOnce() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Event> inserted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            writers.add(new Thread(() -> {
+                for (long i = 0; i < 20000; i++) {
+                    Event event = new Event("type1", i % 500);
+                    inserted.add(event);
+                    store.insert(event);
+                };
+            }));
+        };
+        writers.forEach(Thread::start);
+        Thread.sleep(5);
+        store.subscribe("type1", Long.MIN_VALUE, listener, executor, 1 << 17);
+        for (Thread writer : writers) {
+            writer.join();
+        };
+        long deadline = System.currentTimeMillis() + 10000;
+        while (received.size() < inserted.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        };
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        assertEquals(0, dropped.get());
+        Map<Event, Boolean> seen = new IdentityHashMap<>();
+        for (Event event : received) {
+            assertEquals(null, seen.put(event, true));
+        };
+        assertEquals(inserted.size(), seen.size());
+    };
+
+    /**
+     * Test if an insert whose delivery is rejected by the
+     * executor still publishes its event, so the segment
+     * keeps showing it and the events inserted after it
+     */
+    @Test
+    public void insert_rejectingExecutor_shouldStillPublish() {
+        AtomicBoolean rejecting = new AtomicBoolean();
+        store.subscribe("type1", Long.MAX_VALUE, listener, task -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException();
+            };
+            tasks.add(task);
+        }, 8);
+        run();
+        rejecting.set(true);
+        try {
+            store.insert(new Event("type1", 1l));
+        } catch (RejectedExecutionException e) {
+            // the event is stored anyway
+        };
+        store.insert(new Event("type1", 2l));
+        store.insertAll(Arrays.asList(new Event("type1", 3l), new Event("type1", 4l)));
+        List<Long> timestamps = new ArrayList<>();
+        EventIterator iterator = store.query("type1", 0l, 10l);
+        while (iterator.moveNext()) {
+            timestamps.add(iterator.current().timestamp());
+        };
+        assertEquals(longs(1, 2, 3, 4), timestamps);
+    };
+
+    private void run() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        };
+    }
+
+    private List<Long> timestamps() {
+        List<Long> timestamps = new ArrayList<>();
+        for (Event event : received) {
+            timestamps.add(event.timestamp());
+        };
+        return timestamps;
+    }
+
+    private static List<Long> longs(long... values) {
+        List<Long> list = new ArrayList<>();
+        for (long value : values) {
+            list.add(value);
+        };
+        return list;
+    }
+}
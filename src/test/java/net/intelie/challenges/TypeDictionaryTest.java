@@ -0,0 +1,84 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TypeDictionaryTest {
+
+    TypeDictionary<String> dictionary = new TypeDictionary<>();
+
+    /**
+     * Test if each type gets a single entry,
+     * with dense ids in order of arrival
+     */
+    @Test
+    public void entry_newTypes_shouldGetDenseIds() {
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, dictionary.entry("type" + i).id());
+        };
+        assertSame(dictionary.entry("type42"), dictionary.entry(new String("type42")));
+        assertSame(dictionary.entry("type42"), dictionary.entry(42));
+        assertEquals("type42", dictionary.entry(42).type());
+        assertEquals(100, dictionary.size());
+    };
+
+    /**
+     * Test if find and entry by id return null
+     * for unknown types
+     */
+    @Test
+    public void find_unknownType_shouldReturnNull() {
+        dictionary.entry("type1");
+        assertNull(dictionary.find("type2"));
+        assertNull(dictionary.find(null));
+        assertNull(dictionary.entry(1));
+        assertNull(dictionary.entry(-1));
+    };
+
+    /**
+     * Test if threads registering the same types at once
+     * all get the same entries, with unique ids
+     */
+    @Test
+    public void entry_concurrentThreads_shouldGetSameEntries() throws Exception {
+        Set<TypeDictionary.Entry<String>> entries = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    entries.add(dictionary.entry("type" + i));
+                };
+            }));
+        };
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        };
+        assertEquals(1000, entries.size());
+        for (TypeDictionary.Entry<String> entry : entries) {
+            assertSame(entry, dictionary.entry(entry.id()));
+        };
+    };
+
+    /**
+     * Test if the value of an entry is only
+     * replaced when the expected one matches
+     */
+    @Test
+    public void compareAndSet_expectedValue_shouldReplaceValue() {
+        TypeDictionary.Entry<String> entry = dictionary.entry("type1");
+        assertTrue(entry.compareAndSet(null, "a"));
+        assertEquals(false, entry.compareAndSet(null, "b"));
+        assertEquals("a", entry.getAndSet(null));
+        assertNull(entry.get());
+    };
+}
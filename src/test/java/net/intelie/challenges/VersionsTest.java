@@ -0,0 +1,56 @@
+package net.intelie.challenges;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VersionsTest {
+
+    /**
+     * Test if opening a snapshot waits for the writers
+     * of its epoch, and later writers get the next one
+     */
+    @Test
+    public void open_runningWriter_shouldWaitForIt() throws Exception {
+        Versions versions = new Versions();
+        long writer = versions.enter();
+        AtomicLong opened = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            opened.set(versions.open());
+            done.countDown();
+        });
+        thread.start();
+        Thread.sleep(50);
+        assertEquals(1, done.getCount());
+        long next = versions.enter();
+        assertTrue(next > writer);
+        versions.exit(next);
+        versions.exit(writer);
+        done.await();
+        assertEquals(writer, opened.get());
+        thread.join();
+    };
+
+    /**
+     * Test if oldest follows the open snapshots
+     */
+    @Test
+    public void oldest_openAndClose_shouldFollowSnapshots() {
+        Versions versions = new Versions();
+        assertEquals(Versions.LIVE, versions.oldest());
+        long first = versions.open();
+        long second = versions.open();
+        assertTrue(second > first);
+        assertEquals(first, versions.oldest());
+        versions.close(first);
+        assertEquals(second, versions.oldest());
+        versions.close(first);
+        versions.close(second);
+        assertEquals(Versions.LIVE, versions.oldest());
+    };
+}